@@ -40,21 +40,9 @@ type server struct {
 	gi.UnimplementedGeoIpServiceServer
 }
 
-func (s *server) GetIpInfo(ctx context.Context, in *gi.GetIpInfoRequest) (response *gi.GetIpInfoResponse, err error) {
-	reader, err := mmdb.Open(dbPath)
-	if err != nil {
-		return nil, fmt.Errorf("unable to open MMDB: %w", err)
-	}
-	defer func() {
-		if dErr := reader.Close(); dErr != nil && err == nil {
-			err = fmt.Errorf("unable to close MMDB: %w", dErr)
-		}
-	}()
-
+func lookUp(reader *mmdb.Reader, ipAddress string) (*gi.GetIpInfoResponse, error) {
 	var r record
-	ipAddress := in.GetIpAddress()
-	err = reader.Lookup(net.ParseIP(ipAddress), &r)
-	if err != nil {
+	if err := reader.Lookup(net.ParseIP(ipAddress), &r); err != nil {
 		return nil, fmt.Errorf("unable to look up %s: %w", ipAddress, err)
 	}
 
@@ -72,6 +60,45 @@ func (s *server) GetIpInfo(ctx context.Context, in *gi.GetIpInfoRequest) (respon
 	}, nil
 }
 
+func (s *server) GetIpInfo(ctx context.Context, in *gi.GetIpInfoRequest) (response *gi.GetIpInfoResponse, err error) {
+	reader, err := mmdb.Open(dbPath)
+	if err != nil {
+		return nil, fmt.Errorf("unable to open MMDB: %w", err)
+	}
+	defer func() {
+		if dErr := reader.Close(); dErr != nil && err == nil {
+			err = fmt.Errorf("unable to close MMDB: %w", dErr)
+		}
+	}()
+
+	return lookUp(reader, in.GetIpAddress())
+}
+
+// Opens the database once for all addresses. Replies with one `GetIpInfoResponse` per address,
+// an empty one where the lookup has failed.
+func (s *server) GetIpInfos(ctx context.Context, in *gi.GetIpInfosRequest) (response *gi.GetIpInfosResponse, err error) {
+	reader, err := mmdb.Open(dbPath)
+	if err != nil {
+		return nil, fmt.Errorf("unable to open MMDB: %w", err)
+	}
+	defer func() {
+		if dErr := reader.Close(); dErr != nil && err == nil {
+			err = fmt.Errorf("unable to close MMDB: %w", dErr)
+		}
+	}()
+
+	ipInfos := make([]*gi.GetIpInfoResponse, 0, len(in.GetIpAddresses()))
+	for _, ipAddress := range in.GetIpAddresses() {
+		ipInfo, err := lookUp(reader, ipAddress)
+		if err != nil {
+			glog.Warning(err)
+			ipInfo = &gi.GetIpInfoResponse{}
+		}
+		ipInfos = append(ipInfos, ipInfo)
+	}
+	return &gi.GetIpInfosResponse{IpInfos: ipInfos}, nil
+}
+
 func updateMmdb() error {
 	// Expects GEOIPUPDATE_ACCOUNT_ID, GEOIPUPDATE_LICENSE_KEY and GEOIPUPDATE_EDITION_IDS.
 	defer glog.Info("`updateMmdb` call complete")
@@ -323,3 +323,57 @@ CREATE UNIQUE INDEX IF NOT EXISTS "otp_params_uuid_index" ON "public"."otp_param
 -- precondition-sql-check expectedResult:0 select count(*) from information_schema.columns where table_schema = 'public' and table_name = 'feature_prompts' and column_name = 'pentest'
 ALTER TABLE "public"."feature_prompts" ADD COLUMN "pentest" BOOLEAN;
 UPDATE "public"."feature_prompts" SET "pentest" = TRUE;
+
+-- changeset liquibase:49
+-- preconditions onFail:MARK_RAN
+-- precondition-sql-check expectedResult:0 select count(*) from information_schema.columns where table_schema = 'public' and table_name = 'users' and column_name = 'keys_sequence'
+ALTER TABLE "public"."users" ADD COLUMN "keys_sequence" BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE "public"."users" ADD COLUMN "keys_pruned_sequence" BIGINT DEFAULT 0 NOT NULL;
+
+-- changeset liquibase:50
+-- preconditions onFail:MARK_RAN
+-- precondition-sql-check expectedResult:0 select count(*) from information_schema.columns where table_schema = 'public' and table_name = 'keys' and column_name = 'change_sequence'
+ALTER TABLE "public"."keys" ADD COLUMN "change_sequence" BIGINT DEFAULT 0 NOT NULL;
+
+-- changeset liquibase:51
+CREATE INDEX IF NOT EXISTS "keys_user_identifier_change_sequence_index" ON "public"."keys" ("user_identifier", "change_sequence");
+
+-- changeset liquibase:52
+-- preconditions onFail:MARK_RAN
+-- precondition-sql-check expectedResult:0 select count(*) from information_schema.tables where table_schema = 'public' and table_name = 'key_tombstones'
+CREATE TABLE "public"."key_tombstones" (
+    "identifier" BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    "change_sequence" BIGINT NOT NULL,
+    "key_uuid" UUID,
+    "timestamp" TIMESTAMP WITHOUT TIME ZONE,
+    "user_identifier" BIGINT,
+    CONSTRAINT "key_tombstones_pkey" PRIMARY KEY ("identifier"),
+    CONSTRAINT "key_tombstones_users_fkey" FOREIGN KEY ("user_identifier") REFERENCES "public"."users" ("identifier") ON DELETE CASCADE
+);
+
+-- changeset liquibase:53
+CREATE INDEX IF NOT EXISTS "key_tombstones_user_identifier_change_sequence_index" ON "public"."key_tombstones" ("user_identifier", "change_sequence");
+
+-- changeset liquibase:54
+CREATE INDEX IF NOT EXISTS "key_tombstones_timestamp_index" ON "public"."key_tombstones" ("timestamp");
+
+-- changeset liquibase:55
+CREATE INDEX IF NOT EXISTS "sessions_user_identifier_timestamp_index" ON "public"."sessions" ("user_identifier", "timestamp");
+
+-- changeset liquibase:56
+-- preconditions onFail:MARK_RAN
+-- precondition-sql-check expectedResult:0 select count(*) from information_schema.tables where table_schema = 'public' and table_name = 'mailer_outbox'
+CREATE TABLE "public"."mailer_outbox" (
+    "identifier" BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    "request" BYTEA,
+    "timestamp" TIMESTAMP WITHOUT TIME ZONE,
+    CONSTRAINT "mailer_outbox_pkey" PRIMARY KEY ("identifier")
+);
+
+-- changeset liquibase:57
+-- preconditions onFail:MARK_RAN
+-- precondition-sql-check expectedResult:0 select count(*) from information_schema.columns where table_schema = 'public' and table_name = 'mailer_outbox' and column_name = 'urgent'
+ALTER TABLE "public"."mailer_outbox" ADD COLUMN "urgent" BOOLEAN DEFAULT FALSE NOT NULL;
+
+-- changeset liquibase:58
+CREATE INDEX IF NOT EXISTS "mailer_outbox_urgent_identifier_index" ON "public"."mailer_outbox" ("urgent", "identifier");
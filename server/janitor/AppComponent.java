@@ -7,24 +7,30 @@ import javax.persistence.EntityManagerFactory;
 import keyring.server.janitor.tasks.ActivatedSessionExpiration;
 import keyring.server.janitor.tasks.DeletedUserEviction;
 import keyring.server.janitor.tasks.InitiatedSessionExpiration;
+import keyring.server.janitor.tasks.KeyTombstoneEviction;
 import keyring.server.janitor.tasks.MailTokenEviction;
 import keyring.server.janitor.tasks.OtpParamsEviction;
 import keyring.server.janitor.tasks.OtpTokenEviction;
 import keyring.server.janitor.tasks.PendingUserExpiration;
 import keyring.server.janitor.tasks.SessionRecordEviction;
 import keyring.server.janitor.tasks.StaleAccountExpiration;
+import keyring.server.main.messagebroker.MailerOutboxRelay;
 
 @Component(modules = {AppModule.class})
 @Singleton
 interface AppComponent {
   EntityManagerFactory entityManagerFactory();
 
+  Scheduler scheduler();
+
   ActivatedSessionExpiration activatedSessionExpiration();
 
   DeletedUserEviction deletedUserEviction();
 
   InitiatedSessionExpiration initiatedSessionExpiration();
 
+  KeyTombstoneEviction keyTombstoneEviction();
+
   MailTokenEviction mailTokenEviction();
 
   OtpParamsEviction otpParamsEviction();
@@ -37,6 +43,8 @@ interface AppComponent {
 
   StaleAccountExpiration staleAccountExpiration();
 
+  MailerOutboxRelay mailerOutboxRelay();
+
   @Component.Builder
   interface Builder {
     @BindsInstance
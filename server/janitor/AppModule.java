@@ -2,10 +2,12 @@ package keyring.server.janitor;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.RateLimiter;
 import dagger.Module;
 import dagger.Provides;
 import java.net.URI;
 import java.time.Instant;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
@@ -48,6 +50,20 @@ class AppModule {
     return new Chronometry(arithmetic, Instant::now);
   }
 
+  @Provides
+  @Named("chunk_size")
+  static int provideChunkSize(Environment environment) {
+    return environment.getChunkSize();
+  }
+
+  // Shared by all eviction tasks, as the scheduler runs them in parallel.
+  @Provides
+  @Singleton
+  @Named("eviction_rate_limiter")
+  static RateLimiter provideEvictionRateLimiter(Environment environment) {
+    return RateLimiter.create(environment.getEvictionRowsPerSecond());
+  }
+
   @Provides
   @Singleton
   static Pool<Jedis> provideJedisPool(Environment environment) {
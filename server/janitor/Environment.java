@@ -9,6 +9,21 @@ public class Environment {
   @Parameter(names = "--redis_host")
   private String redisHost = "localhost";
 
+  // Keeps running tasks on a schedule instead of running each once.
+  @Parameter(names = "--long_running", arity = 1)
+  private boolean longRunning = false;
+
+  @Parameter(names = "--scheduler_threads")
+  private int schedulerThreadCount = 4;
+
+  // Rows per transaction of the chunked tasks.
+  @Parameter(names = "--chunk_size")
+  private int chunkSize = 256;
+
+  // Budget of the chunked evictions, keeps vacuum and replicas from falling behind.
+  @Parameter(names = "--eviction_rows_per_second")
+  private double evictionRowsPerSecond = 1000;
+
   private String getVariable(String key) {
     return System.getenv(key);
   }
@@ -36,4 +51,28 @@ public class Environment {
   public String getRedisPassword() {
     return getVariable("REDIS_PASSWORD");
   }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public double getEvictionRowsPerSecond() {
+    return evictionRowsPerSecond;
+  }
+
+  public boolean isLongRunning() {
+    return longRunning;
+  }
+
+  public int getSchedulerThreadCount() {
+    return schedulerThreadCount;
+  }
+
+  /** Unique across replicas, identifies the holder of task leases. */
+  public String getReplicaName() {
+    if (isProduction()) {
+      return getVariable("K8S_POD_NAME");
+    }
+    return "default";
+  }
 }
@@ -1,42 +1,63 @@
 package keyring.server.janitor;
 
 import com.beust.jcommander.JCommander;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
 import keyring.server.main.aspects.StorageManagerAspect;
 import org.aspectj.lang.Aspects;
 
 final class Janitor {
   private AppComponent appComponent;
-  private ImmutableList<Runnable> tasks;
+  // Iterated in insertion order by one-off runs.
+  private ImmutableMap<Runnable, Duration> taskToInterval;
 
   public static void main(String[] args) throws InterruptedException {
     Environment environment = new Environment();
     JCommander.newBuilder().addObject(environment).build().parse(args);
     Janitor janitor = new Janitor();
     janitor.initialize(environment);
-    janitor.start();
+    if (environment.isLongRunning()) {
+      janitor.schedule();
+    } else {
+      janitor.start();
+    }
   }
 
   private void initialize(Environment environment) {
     appComponent = DaggerAppComponent.builder().environment(environment).build();
     Aspects.aspectOf(StorageManagerAspect.class).initialize(appComponent.entityManagerFactory());
-    tasks =
-        ImmutableList.of(
-            appComponent.deletedUserEviction(),
-            appComponent.pendingUserExpiration(),
-            appComponent.mailTokenEviction(),
-            appComponent.otpParamsEviction(),
-            appComponent.otpTokenEviction(),
-            appComponent.sessionRecordEviction(),
-            appComponent.initiatedSessionExpiration(),
-            appComponent.activatedSessionExpiration(),
-            appComponent.staleAccountExpiration());
+    taskToInterval =
+        ImmutableMap.<Runnable, Duration>builder()
+            // As often as the every-minute `CronJob` that used to run them.
+            .put(appComponent.deletedUserEviction(), Duration.ofMinutes(1))
+            .put(appComponent.pendingUserExpiration(), Duration.ofMinutes(1))
+            .put(appComponent.mailTokenEviction(), Duration.ofMinutes(1))
+            .put(appComponent.otpParamsEviction(), Duration.ofMinutes(1))
+            .put(appComponent.otpTokenEviction(), Duration.ofMinutes(1))
+            .put(appComponent.sessionRecordEviction(), Duration.ofMinutes(1))
+            .put(appComponent.initiatedSessionExpiration(), Duration.ofSeconds(30))
+            .put(appComponent.activatedSessionExpiration(), Duration.ofMinutes(1))
+            .put(appComponent.keyTombstoneEviction(), Duration.ofHours(1))
+            .put(appComponent.staleAccountExpiration(), Duration.ofHours(1))
+            // Picks up entries left behind by interrupted runs.
+            .put(appComponent.mailerOutboxRelay(), Duration.ofMinutes(1))
+            .build();
   }
 
   private void start() {
-    tasks.forEach(
-        (task) -> {
-          task.run();
-        });
+    taskToInterval
+        .keySet()
+        .forEach(
+            (task) -> {
+              task.run();
+            });
+  }
+
+  private void schedule() throws InterruptedException {
+    Scheduler scheduler = appComponent.scheduler();
+    taskToInterval.forEach(
+        (task, interval) -> scheduler.schedule(task.getClass().getSimpleName(), task, interval));
+    Runtime.getRuntime().addShutdownHook(new Thread(scheduler::shutdown));
+    scheduler.awaitTermination();
   }
 }
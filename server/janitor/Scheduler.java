@@ -0,0 +1,115 @@
+package keyring.server.janitor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Duration;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.inject.Inject;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * Runs every task periodically on a bounded pool, at most once per interval across replicas.
+ *
+ * <p>A run requires the Redis lease of its task. Leases expire with the interval instead of being
+ * released, so that other replicas skip the period. A run longer than the interval may overlap
+ * with the next one on another replica, which the chunked tasks tolerate. Delays are jittered to
+ * spread runs of different tasks and replicas apart.
+ */
+final class Scheduler {
+  private static final Logger logger = Logger.getLogger(Scheduler.class.getName());
+  private static final String LEASE_PREFIX = "janitor:lease:";
+  private static final double JITTER_RATIO = 0.1;
+  private static final long SHUTDOWN_TIMEOUT_S = 20;
+
+  private Pool<Jedis> jedisPool;
+  private String holder;
+  private ScheduledThreadPoolExecutor executorService;
+
+  @Inject
+  Scheduler(Environment environment, Pool<Jedis> jedisPool) {
+    this(jedisPool, environment.getReplicaName(), environment.getSchedulerThreadCount());
+  }
+
+  Scheduler(Pool<Jedis> jedisPool, String holder, int threadCount) {
+    this.jedisPool = jedisPool;
+    this.holder = holder;
+    this.executorService =
+        new ScheduledThreadPoolExecutor(
+            threadCount, new ThreadFactoryBuilder().setNameFormat("janitor-%d").build());
+    // Lets `shutdown` drop the upcoming runs.
+    this.executorService.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  private static long jitterMillis(Duration interval) {
+    return ThreadLocalRandom.current().nextLong((long) (interval.toMillis() * JITTER_RATIO) + 1);
+  }
+
+  private boolean acquireLease(String name, Duration interval) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return "OK"
+          .equals(
+              jedis.set(
+                  LEASE_PREFIX + name, holder, new SetParams().nx().px(interval.toMillis())));
+    }
+  }
+
+  /** Returns whether `task` ran; failures are logged so that later periods still run. */
+  boolean runOnce(String name, Runnable task, Duration interval) {
+    try {
+      if (!acquireLease(name, interval)) {
+        return false;
+      }
+      long start = System.nanoTime();
+      task.run();
+      logger.info(
+          String.format("Task `%s` took %d ms", name, (System.nanoTime() - start) / 1_000_000));
+      return true;
+    } catch (RuntimeException exception) {
+      logger.log(Level.SEVERE, String.format("Task `%s` failed", name), exception);
+      return false;
+    }
+  }
+
+  private void runAndReschedule(String name, Runnable task, Duration interval) {
+    try {
+      runOnce(name, task, interval);
+    } catch (Throwable throwable) {
+      // An `Error` would otherwise end up in the discarded `ScheduledFuture` unnoticed.
+      logger.log(Level.SEVERE, String.format("Task `%s` failed", name), throwable);
+    } finally {
+      // Runs of a task never overlap within a replica.
+      if (!executorService.isShutdown()) {
+        executorService.schedule(
+            () -> runAndReschedule(name, task, interval),
+            interval.toMillis() + jitterMillis(interval),
+            TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  void schedule(String name, Runnable task, Duration interval) {
+    executorService.schedule(
+        () -> runAndReschedule(name, task, interval),
+        jitterMillis(interval),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** Lets running tasks finish their current chunk within the K8s grace period. */
+  void shutdown() {
+    executorService.shutdown();
+    try {
+      executorService.awaitTermination(SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS);
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void awaitTermination() throws InterruptedException {
+    while (!executorService.awaitTermination(1, TimeUnit.DAYS)) {}
+  }
+}
@@ -0,0 +1,92 @@
+package keyring.server.janitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+@Testcontainers
+class SchedulerTest {
+  @Container
+  private GenericContainer redisContainer =
+      new GenericContainer(DockerImageName.parse("redis")).withExposedPorts(6379);
+
+  private JedisPool jedisPool;
+  private Scheduler firstReplica;
+  private Scheduler secondReplica;
+
+  @BeforeEach
+  void beforeEach() {
+    jedisPool =
+        new JedisPool(
+            new JedisPoolConfig(), redisContainer.getHost(), redisContainer.getFirstMappedPort());
+    firstReplica = new Scheduler(jedisPool, "first", 1);
+    secondReplica = new Scheduler(jedisPool, "second", 1);
+  }
+
+  @AfterEach
+  void afterEach() {
+    firstReplica.shutdown();
+    secondReplica.shutdown();
+  }
+
+  @Test
+  void runOnce_leaseHeld_skips() throws InterruptedException {
+    AtomicInteger runCount = new AtomicInteger();
+    Duration interval = Duration.ofMillis(500);
+
+    assertTrue(firstReplica.runOnce("task", runCount::incrementAndGet, interval));
+    assertFalse(secondReplica.runOnce("task", runCount::incrementAndGet, interval));
+    Thread.sleep(2 * interval.toMillis());
+    assertTrue(secondReplica.runOnce("task", runCount::incrementAndGet, interval));
+
+    assertEquals(2, runCount.get());
+  }
+
+  @Test
+  void runOnce_otherTask_runs() {
+    Duration interval = Duration.ofMinutes(1);
+
+    assertTrue(firstReplica.runOnce("first-task", () -> {}, interval));
+    assertTrue(secondReplica.runOnce("second-task", () -> {}, interval));
+  }
+
+  @Test
+  void runOnce_failure_returnsFalse() {
+    assertFalse(
+        firstReplica.runOnce(
+            "task",
+            () -> {
+              throw new IllegalStateException();
+            },
+            Duration.ofMinutes(1)));
+  }
+
+  @Test
+  void schedule_error_keepsRescheduling() throws InterruptedException {
+    CountDownLatch runLatch = new CountDownLatch(2);
+
+    firstReplica.schedule(
+        "task",
+        () -> {
+          runLatch.countDown();
+          throw new AssertionError();
+        },
+        Duration.ofMillis(100));
+
+    assertTrue(runLatch.await(10, TimeUnit.SECONDS));
+  }
+}
@@ -1,3 +1,3 @@
 #!/bin/sh
 
-./janitor_package_runner --environment production --redis_host redis
+./janitor_package_runner --environment production --redis_host redis --long_running true
@@ -1,12 +1,15 @@
 package keyring.server.janitor.tasks;
 
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.persistence.EntityManager;
-import javax.persistence.LockModeType;
 import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
 import javax.persistence.criteria.Root;
 import keyring.server.main.Chronometry;
 import keyring.server.main.aspects.Annotations.ContextualEntityManager;
@@ -18,39 +21,61 @@ import keyring.server.main.entities.columns.SessionStage;
 
 public final class ActivatedSessionExpiration implements Runnable {
   private Chronometry chronometry;
+  private int chunkSize;
 
   @ContextualEntityManager private EntityManager entityManager;
 
   @Inject
-  ActivatedSessionExpiration(Chronometry chronometry) {
+  ActivatedSessionExpiration(Chronometry chronometry, @Named("chunk_size") int chunkSize) {
     this.chronometry = chronometry;
+    this.chunkSize = chunkSize;
   }
 
+  /** Disables a chunk with a single `UPDATE`, as there are no side effects per session. */
   @WithEntityManager
   @WithEntityTransaction
-  public void run() {
-    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-    CriteriaQuery<Session> criteriaQuery = criteriaBuilder.createQuery(Session.class);
-    Root<Session> sessionRoot = criteriaQuery.from(Session.class);
-    criteriaQuery
-        .select(sessionRoot)
-        .where(
-            criteriaBuilder.and(
-                criteriaBuilder.equal(
-                    sessionRoot.get(Session_.stage), SessionStage.SESSION_ACTIVATED),
-                criteriaBuilder.lessThan(
-                    sessionRoot.get(Session_.lastStageChange),
-                    // Technically this is an upper bound.
-                    chronometry.pastTimestamp(
-                        Session.SESSION_ABSOLUTE_DURATION_H, ChronoUnit.HOURS))));
-    List<Session> entities =
+  Chunks.Result expireChunk(Timestamp cutoff, Instant currentTime, long cursor, int limit) {
+    @SuppressWarnings("unchecked")
+    List<Number> identifiers =
         entityManager
-            .createQuery(criteriaQuery)
-            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+            .createNativeQuery(
+                "SELECT identifier FROM sessions"
+                    + " WHERE stage = :stage AND last_stage_change < :cutoff"
+                    + " AND identifier > :cursor"
+                    + " ORDER BY identifier LIMIT :limit FOR UPDATE SKIP LOCKED")
+            .setParameter("stage", SessionStage.SESSION_ACTIVATED.getNumber())
+            .setParameter("cutoff", cutoff)
+            .setParameter("cursor", cursor)
+            .setParameter("limit", limit)
             .getResultList();
-    for (Session entity : entities) {
-      entity.setStage(SessionStage.SESSION_DISABLED, chronometry.currentTime());
-      entityManager.persist(entity);
+    if (identifiers.isEmpty()) {
+      return new Chunks.Result(0, cursor, 0);
     }
+    List<Long> sessionIds =
+        identifiers.stream().map(Number::longValue).collect(Collectors.toList());
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaUpdate<Session> criteriaUpdate = criteriaBuilder.createCriteriaUpdate(Session.class);
+    Root<Session> sessionRoot = criteriaUpdate.from(Session.class);
+    criteriaUpdate
+        .set(sessionRoot.get(Session_.stage), SessionStage.SESSION_DISABLED)
+        .set(sessionRoot.get(Session_.lastStageChange), Timestamp.from(currentTime))
+        // Concurrent writers of these sessions must fail on the version check.
+        .set(
+            sessionRoot.get(Session_.version),
+            criteriaBuilder.sum(sessionRoot.get(Session_.version), 1L))
+        .where(sessionRoot.get(Session_.identifier).in(sessionIds));
+    int affected = entityManager.createQuery(criteriaUpdate).executeUpdate();
+    return new Chunks.Result(sessionIds.size(), sessionIds.get(sessionIds.size() - 1), affected);
+  }
+
+  public void run() {
+    // Technically this is an upper bound.
+    Timestamp cutoff =
+        chronometry.pastTimestamp(Session.SESSION_ABSOLUTE_DURATION_H, ChronoUnit.HOURS);
+    Instant currentTime = chronometry.currentTime();
+    Chunks.run(
+        ActivatedSessionExpiration.class.getSimpleName(),
+        chunkSize,
+        (cursor, limit) -> expireChunk(cutoff, currentTime, cursor, limit));
   }
 }
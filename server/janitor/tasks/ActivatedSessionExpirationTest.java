@@ -6,6 +6,8 @@ import static org.mockito.Mockito.when;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.Persistence;
 import keyring.server.main.Chronometry;
@@ -34,7 +36,7 @@ final class ActivatedSessionExpirationTest {
   void beforeEach() {
     Aspects.aspectOf(StorageManagerAspect.class)
         .initialize(Persistence.createEntityManagerFactory("testing"));
-    activatedSessionExpiration = new ActivatedSessionExpiration(mockChronometry);
+    activatedSessionExpiration = new ActivatedSessionExpiration(mockChronometry, 1);
     when(mockChronometry.currentTime()).thenReturn(Instant.now());
   }
 
@@ -80,6 +82,31 @@ final class ActivatedSessionExpirationTest {
     assertEquals(SessionStage.SESSION_DISABLED, session.getStage());
   }
 
+  @Test
+  @WithEntityManager
+  void severalExpiredActivated_disablesAcrossChunks() {
+    when(mockChronometry.pastTimestamp(Session.SESSION_ABSOLUTE_DURATION_H, ChronoUnit.HOURS))
+        .thenReturn(Timestamp.from(Instant.ofEpochSecond(2)));
+    User user = new User().setUsername("username");
+    persistEntity(user);
+    List<Session> sessions = new ArrayList<>();
+    for (int index = 0; index < 3; ++index) {
+      Session session =
+          new Session()
+              .setUser(user)
+              .setStage(SessionStage.SESSION_ACTIVATED, Instant.ofEpochSecond(1));
+      persistEntity(session);
+      sessions.add(session);
+    }
+
+    activatedSessionExpiration.run();
+
+    for (Session session : sessions) {
+      refreshEntity(session);
+      assertEquals(SessionStage.SESSION_DISABLED, session.getStage());
+    }
+  }
+
   @WithEntityTransaction
   private void persistEntity(Object entity) {
     entityManager.persist(entity);
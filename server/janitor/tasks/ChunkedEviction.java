@@ -0,0 +1,69 @@
+package keyring.server.janitor.tasks;
+
+import com.google.common.util.concurrent.RateLimiter;
+import java.util.function.IntUnaryOperator;
+import java.util.logging.Logger;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Deletes rows in primary-key chunks within a budget of rows per second.
+ *
+ * <p>The budget is shared by every task evicting rows. The cursor is saved after every chunk, so
+ * that a killed run resumes after the last deleted chunk instead of scanning from the start. Rows
+ * removed by `ON DELETE CASCADE` are not counted, so processors delete sizeable children through
+ * `drain` first.
+ */
+public final class ChunkedEviction {
+  private static final Logger logger = Logger.getLogger(ChunkedEviction.class.getName());
+  private EvictionCursors evictionCursors;
+  private int chunkSize;
+  private RateLimiter rateLimiter;
+
+  @Inject
+  ChunkedEviction(
+      EvictionCursors evictionCursors,
+      @Named("chunk_size") int chunkSize,
+      @Named("eviction_rate_limiter") RateLimiter rateLimiter) {
+    this.evictionCursors = evictionCursors;
+    this.chunkSize = chunkSize;
+    this.rateLimiter = rateLimiter;
+  }
+
+  void run(String task, Chunks.Processor processor) {
+    long cursor = evictionCursors.load(task).orElse(0);
+    if (cursor > 0) {
+      logger.info(String.format("%s: resuming after %d", task, cursor));
+    }
+    Chunks.run(
+        task,
+        chunkSize,
+        cursor,
+        processor,
+        result -> {
+          if (result.getSelected() > 0) {
+            evictionCursors.save(task, result.getLastIdentifier());
+          }
+          if (result.getAffected() > 0) {
+            rateLimiter.acquire(result.getAffected());
+          }
+        });
+    evictionCursors.clear(task);
+  }
+
+  /**
+   * Calls `deleteChunk` with the chunk size until it deletes fewer rows, charging the budget for
+   * every chunk.
+   */
+  void drain(IntUnaryOperator deleteChunk) {
+    while (true) {
+      int deleted = deleteChunk.applyAsInt(chunkSize);
+      if (deleted > 0) {
+        rateLimiter.acquire(deleted);
+      }
+      if (deleted < chunkSize) {
+        return;
+      }
+    }
+  }
+}
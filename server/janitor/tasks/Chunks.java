@@ -0,0 +1,99 @@
+package keyring.server.janitor.tasks;
+
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.query.Query;
+
+/**
+ * Runs a task over keyset-paginated chunks of rows, so that every transaction stays short.
+ *
+ * <p>Processors lock their rows with `SKIP LOCKED`; rows held by live requests are left for the
+ * next run instead of blocking them.
+ */
+final class Chunks {
+  private static final Logger logger = Logger.getLogger(Chunks.class.getName());
+  private static final String LOCK_TIMEOUT_HINT = "javax.persistence.lock.timeout";
+
+  static final class Result {
+    private final int selected;
+    private final long lastIdentifier;
+    private final int affected;
+
+    /** `lastIdentifier` is the largest identifier among the `selected` rows. */
+    Result(int selected, long lastIdentifier, int affected) {
+      this.selected = selected;
+      this.lastIdentifier = lastIdentifier;
+      this.affected = affected;
+    }
+
+    int getSelected() {
+      return selected;
+    }
+
+    long getLastIdentifier() {
+      return lastIdentifier;
+    }
+
+    int getAffected() {
+      return affected;
+    }
+  }
+
+  @FunctionalInterface
+  interface Processor {
+    /** Processes up to `limit` rows with identifiers above `cursor` in one transaction. */
+    Result process(long cursor, int limit);
+  }
+
+  private Chunks() {}
+
+  /** `FOR UPDATE SKIP LOCKED` with `PostgreSQL95Dialect`. */
+  static <T> TypedQuery<T> skipLocked(TypedQuery<T> query) {
+    return query
+        .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+        .setHint(LOCK_TIMEOUT_HINT, LockOptions.SKIP_LOCKED);
+  }
+
+  /** `FOR UPDATE OF alias SKIP LOCKED`, leaving the rows of fetched associations unlocked. */
+  static <T> TypedQuery<T> skipLocked(TypedQuery<T> query, String alias) {
+    query.unwrap(Query.class).setLockMode(alias, LockMode.UPGRADE_SKIPLOCKED);
+    return query;
+  }
+
+  static void run(String task, int chunkSize, Processor processor) {
+    run(task, chunkSize, 0, processor, result -> {});
+  }
+
+  /** Starts after `cursor` and passes every result to `afterChunk` before the next chunk. */
+  static void run(
+      String task, int chunkSize, long cursor, Processor processor, Consumer<Result> afterChunk) {
+    int chunkCount = 0;
+    long affectedCount = 0;
+    while (true) {
+      long start = System.nanoTime();
+      Result result = processor.process(cursor, chunkSize);
+      chunkCount += 1;
+      affectedCount += result.affected;
+      logger.info(
+          String.format(
+              "%s: chunk %d after %d selected %d and affected %d rows in %d ms",
+              task,
+              chunkCount,
+              cursor,
+              result.selected,
+              result.affected,
+              (System.nanoTime() - start) / 1_000_000));
+      afterChunk.accept(result);
+      if (result.selected < chunkSize) {
+        break;
+      }
+      cursor = result.lastIdentifier;
+    }
+    logger.info(
+        String.format("%s: affected %d rows in %d chunks", task, affectedCount, chunkCount));
+  }
+}
@@ -1,6 +1,10 @@
 package keyring.server.janitor.tasks;
 
+import com.google.common.collect.ImmutableList;
+import java.sql.Timestamp;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -15,27 +19,105 @@ import keyring.server.main.entities.User_;
 import keyring.server.main.entities.columns.UserState;
 
 public final class DeletedUserEviction implements Runnable {
+  // Shadow keys go before their parents, which would take them along uncounted otherwise.
+  private static final ImmutableList<String> CHILD_CHUNK_DELETIONS =
+      ImmutableList.of(
+          deleteChunkOf("keys", "parent_identifier IS NOT NULL AND user_identifier IN (:userIds)"),
+          deleteChunkOf("keys", "user_identifier IN (:userIds)"),
+          deleteChunkOf("key_tombstones", "user_identifier IN (:userIds)"),
+          deleteChunkOf("sessions", "user_identifier IN (:userIds)"),
+          deleteChunkOf("mail_tokens", "user_identifier IN (:userIds)"),
+          deleteChunkOf("otp_params", "user_identifier IN (:userIds)"),
+          deleteChunkOf("otp_tokens", "user_identifier IN (:userIds)"));
   private Chronometry chronometry;
+  private ChunkedEviction chunkedEviction;
 
   @ContextualEntityManager private EntityManager entityManager;
 
+  private static String deleteChunkOf(String table, String condition) {
+    return String.format(
+        "DELETE FROM %1$s WHERE ctid = ANY(ARRAY(SELECT ctid FROM %1$s WHERE %2$s LIMIT :limit))",
+        table, condition);
+  }
+
   @Inject
-  DeletedUserEviction(Chronometry chronometry) {
+  DeletedUserEviction(Chronometry chronometry, ChunkedEviction chunkedEviction) {
     this.chronometry = chronometry;
+    this.chunkedEviction = chunkedEviction;
   }
 
-  @WithEntityManager
   @WithEntityTransaction
-  public void run() {
+  private List<Long> selectChunk(Timestamp cutoff, long cursor, int limit) {
+    @SuppressWarnings("unchecked")
+    List<Number> identifiers =
+        entityManager
+            .createNativeQuery(
+                "SELECT identifier FROM users"
+                    + " WHERE state = :state AND last_session < :cutoff"
+                    + " AND identifier > :cursor"
+                    + " ORDER BY identifier LIMIT :limit")
+            .setParameter("state", UserState.USER_DELETED.getNumber())
+            .setParameter("cutoff", cutoff)
+            .setParameter("cursor", cursor)
+            .setParameter("limit", limit)
+            .getResultList();
+    return identifiers.stream().map(Number::longValue).collect(Collectors.toList());
+  }
+
+  @WithEntityTransaction
+  private int deleteChildChunk(String statement, List<Long> userIds, int limit) {
+    return entityManager
+        .createNativeQuery(statement)
+        .setParameter("userIds", userIds)
+        .setParameter("limit", limit)
+        .executeUpdate();
+  }
+
+  /** `FeaturePrompts`, a single row per user, goes by `ON DELETE CASCADE`. */
+  @WithEntityTransaction
+  private int deleteUsers(List<Long> userIds) {
+    @SuppressWarnings("unchecked")
+    List<Number> identifiers =
+        entityManager
+            .createNativeQuery(
+                "SELECT identifier FROM users"
+                    + " WHERE identifier IN (:userIds) AND state = :state"
+                    + " FOR UPDATE SKIP LOCKED")
+            .setParameter("userIds", userIds)
+            .setParameter("state", UserState.USER_DELETED.getNumber())
+            .getResultList();
+    if (identifiers.isEmpty()) {
+      return 0;
+    }
     CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
     CriteriaDelete<User> criteriaDelete = criteriaBuilder.createCriteriaDelete(User.class);
     Root<User> userRoot = criteriaDelete.from(User.class);
     criteriaDelete.where(
-        criteriaBuilder.and(
-            criteriaBuilder.equal(userRoot.get(User_.state), UserState.USER_DELETED),
-            criteriaBuilder.lessThan(
-                userRoot.get(User_.lastSession),
-                chronometry.pastTimestamp(User.DELETED_USER_STORAGE_EVICTION_D, ChronoUnit.DAYS))));
-    entityManager.createQuery(criteriaDelete).executeUpdate();
+        userRoot
+            .get(User_.identifier)
+            .in(identifiers.stream().map(Number::longValue).collect(Collectors.toList())));
+    return entityManager.createQuery(criteriaDelete).executeUpdate();
+  }
+
+  /** Deletes the children of the users in budgeted chunks, and then the users themselves. */
+  @WithEntityManager
+  Chunks.Result evictChunk(Timestamp cutoff, long cursor, int limit) {
+    List<Long> userIds = selectChunk(cutoff, cursor, limit);
+    if (userIds.isEmpty()) {
+      return new Chunks.Result(0, cursor, 0);
+    }
+    for (String statement : CHILD_CHUNK_DELETIONS) {
+      chunkedEviction.drain(chunkLimit -> deleteChildChunk(statement, userIds, chunkLimit));
+    }
+    int affected = deleteUsers(userIds);
+    return new Chunks.Result(userIds.size(), userIds.get(userIds.size() - 1), affected);
+  }
+
+  public void run() {
+    Timestamp cutoff =
+        chronometry.pastTimestamp(User.DELETED_USER_STORAGE_EVICTION_D, ChronoUnit.DAYS);
+    chunkedEviction.run(
+        DeletedUserEviction.class.getSimpleName(),
+        (cursor, limit) -> evictChunk(cutoff, cursor, limit));
   }
 }
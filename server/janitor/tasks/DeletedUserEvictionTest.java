@@ -2,11 +2,15 @@ package keyring.server.janitor.tasks;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.OptionalLong;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityNotFoundException;
 import javax.persistence.Persistence;
@@ -15,7 +19,10 @@ import keyring.server.main.aspects.Annotations.ContextualEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityTransaction;
 import keyring.server.main.aspects.StorageManagerAspect;
+import keyring.server.main.entities.Key;
+import keyring.server.main.entities.Session;
 import keyring.server.main.entities.User;
+import keyring.server.main.entities.columns.SessionStage;
 import keyring.server.main.entities.columns.UserState;
 import keyring.server.main.storage.StorageException;
 import name.falgout.jeffrey.testing.junit5.MockitoExtension;
@@ -31,12 +38,16 @@ final class DeletedUserEvictionTest {
   private DeletedUserEviction deletedUserEviction;
 
   @Mock private Chronometry mockChronometry;
+  @Mock private EvictionCursors mockEvictionCursors;
 
   @BeforeEach
   void beforeEach() {
     Aspects.aspectOf(StorageManagerAspect.class)
         .initialize(Persistence.createEntityManagerFactory("testing"));
-    deletedUserEviction = new DeletedUserEviction(mockChronometry);
+    deletedUserEviction =
+        new DeletedUserEviction(
+            mockChronometry,
+            new ChunkedEviction(mockEvictionCursors, 1, RateLimiter.create(1000)));
   }
 
   @Test
@@ -91,6 +102,84 @@ final class DeletedUserEvictionTest {
     assertFalse(isInStorage(user));
   }
 
+  @Test
+  @WithEntityManager
+  void oldDeletedUserWithChildren_removesInChunks() {
+    User user = createDeletedUser("username");
+    Key parent = new Key().setUser(user).setValue("parent").setTags(ImmutableList.of());
+    persistEntity(parent);
+    Key shadow =
+        new Key()
+            .setUser(user)
+            .setValue("shadow")
+            .setTags(ImmutableList.of())
+            .setIsShadow(true)
+            .setParent(parent);
+    persistEntity(shadow);
+    Session firstSession =
+        new Session()
+            .setUser(user)
+            .setStage(SessionStage.SESSION_ACTIVATED, Instant.ofEpochSecond(1));
+    persistEntity(firstSession);
+    Session secondSession =
+        new Session()
+            .setUser(user)
+            .setStage(SessionStage.SESSION_ACTIVATED, Instant.ofEpochSecond(1));
+    persistEntity(secondSession);
+    when(mockChronometry.pastTimestamp(User.DELETED_USER_STORAGE_EVICTION_D, ChronoUnit.DAYS))
+        .thenReturn(Timestamp.from(Instant.ofEpochSecond(2)));
+
+    deletedUserEviction.run();
+
+    assertFalse(isInStorage(user));
+    assertFalse(isInStorage(parent));
+    assertFalse(isInStorage(shadow));
+    assertFalse(isInStorage(firstSession));
+    assertFalse(isInStorage(secondSession));
+  }
+
+  @Test
+  @WithEntityManager
+  void severalOldDeletedUsers_removesAcrossChunks() {
+    User first = createDeletedUser("first");
+    User second = createDeletedUser("second");
+    when(mockChronometry.pastTimestamp(User.DELETED_USER_STORAGE_EVICTION_D, ChronoUnit.DAYS))
+        .thenReturn(Timestamp.from(Instant.ofEpochSecond(2)));
+
+    deletedUserEviction.run();
+
+    assertFalse(isInStorage(first));
+    assertFalse(isInStorage(second));
+    verify(mockEvictionCursors).save("DeletedUserEviction", second.getIdentifier());
+    verify(mockEvictionCursors).clear("DeletedUserEviction");
+  }
+
+  @Test
+  @WithEntityManager
+  void savedCursor_resumesAfterIt() {
+    User first = createDeletedUser("first");
+    User second = createDeletedUser("second");
+    when(mockChronometry.pastTimestamp(User.DELETED_USER_STORAGE_EVICTION_D, ChronoUnit.DAYS))
+        .thenReturn(Timestamp.from(Instant.ofEpochSecond(2)));
+    when(mockEvictionCursors.load("DeletedUserEviction"))
+        .thenReturn(OptionalLong.of(first.getIdentifier()));
+
+    deletedUserEviction.run();
+
+    assertTrue(isInStorage(first));
+    assertFalse(isInStorage(second));
+  }
+
+  private User createDeletedUser(String username) {
+    User user =
+        new User()
+            .setState(UserState.USER_DELETED)
+            .setUsername(username)
+            .setLastSession(Instant.ofEpochSecond(1));
+    persistEntity(user);
+    return user;
+  }
+
   @WithEntityTransaction
   private void persistEntity(Object entity) {
     entityManager.persist(entity);
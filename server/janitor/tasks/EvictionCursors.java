@@ -0,0 +1,38 @@
+package keyring.server.janitor.tasks;
+
+import java.util.OptionalLong;
+import javax.inject.Inject;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.util.Pool;
+
+/** Keeps the progress of `ChunkedEviction` in Redis, so that a killed run can resume. */
+public class EvictionCursors {
+  private static final String KEY_PREFIX = "janitor:eviction-cursor:";
+  // Drops cursors left behind, e.g. by a renamed task.
+  private static final long TTL_S = 24 * 60 * 60;
+  private Pool<Jedis> jedisPool;
+
+  @Inject
+  EvictionCursors(Pool<Jedis> jedisPool) {
+    this.jedisPool = jedisPool;
+  }
+
+  OptionalLong load(String task) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      String cursor = jedis.get(KEY_PREFIX + task);
+      return cursor == null ? OptionalLong.empty() : OptionalLong.of(Long.parseLong(cursor));
+    }
+  }
+
+  void save(String task, long cursor) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.setex(KEY_PREFIX + task, TTL_S, String.valueOf(cursor));
+    }
+  }
+
+  void clear(String task) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.del(KEY_PREFIX + task);
+    }
+  }
+}
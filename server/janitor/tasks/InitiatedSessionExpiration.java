@@ -1,10 +1,11 @@
 package keyring.server.janitor.tasks;
 
+import java.sql.Timestamp;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.persistence.EntityManager;
-import javax.persistence.LockModeType;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
@@ -12,49 +13,92 @@ import keyring.server.main.Chronometry;
 import keyring.server.main.aspects.Annotations.ContextualEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityTransaction;
+import keyring.server.main.entities.MailerOutboxEntry;
 import keyring.server.main.entities.Session;
 import keyring.server.main.entities.Session_;
+import keyring.server.main.entities.User;
 import keyring.server.main.entities.columns.SessionStage;
+import keyring.server.main.messagebroker.MailerOutboxRelay;
 import keyring.server.main.messagebroker.MessageBrokerClient;
 
 public final class InitiatedSessionExpiration implements Runnable {
+  private static final String SESSION_ALIAS = "session";
+
   private Chronometry chronometry;
-  private MessageBrokerClient messageBrokerClient;
+  private MailerOutboxRelay mailerOutboxRelay;
+  private int chunkSize;
 
   @ContextualEntityManager private EntityManager entityManager;
 
   @Inject
-  InitiatedSessionExpiration(Chronometry chronometry, MessageBrokerClient messageBrokerClient) {
+  InitiatedSessionExpiration(
+      Chronometry chronometry,
+      MailerOutboxRelay mailerOutboxRelay,
+      @Named("chunk_size") int chunkSize) {
     this.chronometry = chronometry;
-    this.messageBrokerClient = messageBrokerClient;
+    this.mailerOutboxRelay = mailerOutboxRelay;
+    this.chunkSize = chunkSize;
+  }
+
+  private void enqueueUncompletedAuthn(User user, String ipAddress) {
+    entityManager.persist(
+        new MailerOutboxEntry()
+            .setRequest(
+                MessageBrokerClient.createUncompletedAuthn(
+                        user.getMail(), user.getUsername(), ipAddress)
+                    .toByteArray()));
   }
 
+  /**
+   * Notices go to the outbox, so that Redis round-trips are not made while holding the rows.
+   *
+   * <p>Users are fetched along without being locked, as key writes lock them.
+   */
   @WithEntityManager
   @WithEntityTransaction
-  public void run() {
+  Chunks.Result expireChunk(Timestamp cutoff, long cursor, int limit) {
     CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
     CriteriaQuery<Session> criteriaQuery = criteriaBuilder.createQuery(Session.class);
     Root<Session> sessionRoot = criteriaQuery.from(Session.class);
+    sessionRoot.alias(SESSION_ALIAS);
+    sessionRoot.fetch(Session_.user);
     criteriaQuery
         .select(sessionRoot)
         .where(
             criteriaBuilder.and(
                 criteriaBuilder.equal(
                     sessionRoot.get(Session_.stage), SessionStage.SESSION_INITIATED),
-                criteriaBuilder.lessThan(
-                    sessionRoot.get(Session_.lastStageChange),
-                    chronometry.pastTimestamp(
-                        Session.SESSION_AUTHN_EXPIRATION_M, ChronoUnit.MINUTES))));
+                criteriaBuilder.lessThan(sessionRoot.get(Session_.lastStageChange), cutoff),
+                criteriaBuilder.greaterThan(sessionRoot.get(Session_.identifier), cursor)))
+        .orderBy(criteriaBuilder.asc(sessionRoot.get(Session_.identifier)));
     List<Session> entities =
-        entityManager
-            .createQuery(criteriaQuery)
-            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+        Chunks.skipLocked(
+                entityManager.createQuery(criteriaQuery).setMaxResults(limit), SESSION_ALIAS)
             .getResultList();
     for (Session entity : entities) {
-      messageBrokerClient.publishUncompletedAuthn(
-          entity.getUser().getMail(), entity.getUser().getUsername(), entity.getIpAddress());
+      enqueueUncompletedAuthn(entity.getUser(), entity.getIpAddress());
       entity.setStage(SessionStage.SESSION_DISABLED, chronometry.currentTime());
       entityManager.persist(entity);
     }
+    return new Chunks.Result(
+        entities.size(),
+        entities.isEmpty() ? cursor : entities.get(entities.size() - 1).getIdentifier(),
+        entities.size());
+  }
+
+  public void run() {
+    Timestamp cutoff =
+        chronometry.pastTimestamp(Session.SESSION_AUTHN_EXPIRATION_M, ChronoUnit.MINUTES);
+    Chunks.run(
+        InitiatedSessionExpiration.class.getSimpleName(),
+        chunkSize,
+        0,
+        (cursor, limit) -> expireChunk(cutoff, cursor, limit),
+        // Publishes the notices of the chunk once its rows are unlocked.
+        result -> {
+          if (result.getAffected() > 0) {
+            mailerOutboxRelay.run();
+          }
+        });
   }
 }
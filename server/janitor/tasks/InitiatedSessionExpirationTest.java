@@ -5,6 +5,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -18,6 +19,7 @@ import keyring.server.main.aspects.StorageManagerAspect;
 import keyring.server.main.entities.Session;
 import keyring.server.main.entities.User;
 import keyring.server.main.entities.columns.SessionStage;
+import keyring.server.main.messagebroker.MailerOutboxRelay;
 import keyring.server.main.messagebroker.MessageBrokerClient;
 import name.falgout.jeffrey.testing.junit5.MockitoExtension;
 import org.aspectj.lang.Aspects;
@@ -39,7 +41,8 @@ final class InitiatedSessionExpirationTest {
     Aspects.aspectOf(StorageManagerAspect.class)
         .initialize(Persistence.createEntityManagerFactory("testing"));
     initiatedSessionExpiration =
-        new InitiatedSessionExpiration(mockChronometry, mockMessageBrokerClient);
+        new InitiatedSessionExpiration(
+            mockChronometry, new MailerOutboxRelay(mockMessageBrokerClient), 1);
     when(mockChronometry.currentTime()).thenReturn(Instant.now());
   }
 
@@ -86,7 +89,10 @@ final class InitiatedSessionExpirationTest {
     refreshEntity(session);
     assertEquals(SessionStage.SESSION_DISABLED, session.getStage());
     verify(mockMessageBrokerClient)
-        .publishUncompletedAuthn("mail@example.com", "username", "127.0.0.1");
+        .publishMailerRequests(
+            ImmutableList.of(
+                MessageBrokerClient.createUncompletedAuthn(
+                    "mail@example.com", "username", "127.0.0.1")));
   }
 
   @WithEntityTransaction
@@ -0,0 +1,79 @@
+package keyring.server.janitor.tasks;
+
+import java.sql.Timestamp;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.Root;
+import keyring.server.main.Chronometry;
+import keyring.server.main.aspects.Annotations.ContextualEntityManager;
+import keyring.server.main.aspects.Annotations.WithEntityManager;
+import keyring.server.main.aspects.Annotations.WithEntityTransaction;
+import keyring.server.main.entities.KeyTombstone;
+import keyring.server.main.entities.KeyTombstone_;
+
+public final class KeyTombstoneEviction implements Runnable {
+  private Chronometry chronometry;
+  private ChunkedEviction chunkedEviction;
+
+  @ContextualEntityManager private EntityManager entityManager;
+
+  @Inject
+  KeyTombstoneEviction(Chronometry chronometry, ChunkedEviction chunkedEviction) {
+    this.chronometry = chronometry;
+    this.chunkedEviction = chunkedEviction;
+  }
+
+  /** Locks the `users` rows of the chunk only, as key writes lock them too. */
+  @WithEntityManager
+  @WithEntityTransaction
+  Chunks.Result evictChunk(Timestamp cutoff, long cursor, int limit) {
+    @SuppressWarnings("unchecked")
+    List<Number> identifiers =
+        entityManager
+            .createNativeQuery(
+                "SELECT identifier FROM key_tombstones"
+                    + " WHERE timestamp < :cutoff AND identifier > :cursor"
+                    + " ORDER BY identifier LIMIT :limit FOR UPDATE SKIP LOCKED")
+            .setParameter("cutoff", cutoff)
+            .setParameter("cursor", cursor)
+            .setParameter("limit", limit)
+            .getResultList();
+    if (identifiers.isEmpty()) {
+      return new Chunks.Result(0, cursor, 0);
+    }
+    List<Long> keyTombstoneIds =
+        identifiers.stream().map(Number::longValue).collect(Collectors.toList());
+    // Watermarks below the floor would otherwise miss the evicted deletions.
+    entityManager
+        .createNativeQuery(
+            "UPDATE users"
+                + " SET keys_pruned_sequence = GREATEST(keys_pruned_sequence, pruned.sequence)"
+                + " FROM (SELECT user_identifier, MAX(change_sequence) AS sequence"
+                + " FROM key_tombstones WHERE identifier IN (:keyTombstoneIds)"
+                + " GROUP BY user_identifier) pruned"
+                + " WHERE users.identifier = pruned.user_identifier")
+        .setParameter("keyTombstoneIds", keyTombstoneIds)
+        .executeUpdate();
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaDelete<KeyTombstone> criteriaDelete =
+        criteriaBuilder.createCriteriaDelete(KeyTombstone.class);
+    Root<KeyTombstone> keyTombstoneRoot = criteriaDelete.from(KeyTombstone.class);
+    criteriaDelete.where(keyTombstoneRoot.get(KeyTombstone_.identifier).in(keyTombstoneIds));
+    int affected = entityManager.createQuery(criteriaDelete).executeUpdate();
+    return new Chunks.Result(
+        keyTombstoneIds.size(), keyTombstoneIds.get(keyTombstoneIds.size() - 1), affected);
+  }
+
+  public void run() {
+    Timestamp cutoff =
+        chronometry.pastTimestamp(KeyTombstone.KEY_TOMBSTONE_STORAGE_EVICTION_D, ChronoUnit.DAYS);
+    chunkedEviction.run(
+        KeyTombstoneEviction.class.getSimpleName(),
+        (cursor, limit) -> evictChunk(cutoff, cursor, limit));
+  }
+}
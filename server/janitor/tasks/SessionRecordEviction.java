@@ -1,6 +1,9 @@
 package keyring.server.janitor.tasks;
 
+import java.sql.Timestamp;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -15,24 +18,48 @@ import keyring.server.main.entities.Session_;
 
 public final class SessionRecordEviction implements Runnable {
   private Chronometry chronometry;
+  private ChunkedEviction chunkedEviction;
 
   @ContextualEntityManager private EntityManager entityManager;
 
   @Inject
-  SessionRecordEviction(Chronometry chronometry) {
+  SessionRecordEviction(Chronometry chronometry, ChunkedEviction chunkedEviction) {
     this.chronometry = chronometry;
+    this.chunkedEviction = chunkedEviction;
   }
 
   @WithEntityManager
   @WithEntityTransaction
-  public void run() {
+  Chunks.Result evictChunk(Timestamp cutoff, long cursor, int limit) {
+    @SuppressWarnings("unchecked")
+    List<Number> identifiers =
+        entityManager
+            .createNativeQuery(
+                "SELECT identifier FROM sessions"
+                    + " WHERE timestamp < :cutoff AND identifier > :cursor"
+                    + " ORDER BY identifier LIMIT :limit FOR UPDATE SKIP LOCKED")
+            .setParameter("cutoff", cutoff)
+            .setParameter("cursor", cursor)
+            .setParameter("limit", limit)
+            .getResultList();
+    if (identifiers.isEmpty()) {
+      return new Chunks.Result(0, cursor, 0);
+    }
+    List<Long> sessionIds =
+        identifiers.stream().map(Number::longValue).collect(Collectors.toList());
     CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
     CriteriaDelete<Session> criteriaDelete = criteriaBuilder.createCriteriaDelete(Session.class);
     Root<Session> sessionRoot = criteriaDelete.from(Session.class);
-    criteriaDelete.where(
-        criteriaBuilder.lessThan(
-            sessionRoot.get(Session_.timestamp),
-            chronometry.pastTimestamp(Session.SESSION_STORAGE_EVICTION_D, ChronoUnit.DAYS)));
-    entityManager.createQuery(criteriaDelete).executeUpdate();
+    criteriaDelete.where(sessionRoot.get(Session_.identifier).in(sessionIds));
+    int affected = entityManager.createQuery(criteriaDelete).executeUpdate();
+    return new Chunks.Result(sessionIds.size(), sessionIds.get(sessionIds.size() - 1), affected);
+  }
+
+  public void run() {
+    Timestamp cutoff =
+        chronometry.pastTimestamp(Session.SESSION_STORAGE_EVICTION_D, ChronoUnit.DAYS);
+    chunkedEviction.run(
+        SessionRecordEviction.class.getSimpleName(),
+        (cursor, limit) -> evictChunk(cutoff, cursor, limit));
   }
 }
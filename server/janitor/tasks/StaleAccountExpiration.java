@@ -1,12 +1,13 @@
 package keyring.server.janitor.tasks;
 
 import com.google.common.collect.ImmutableList;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.persistence.EntityManager;
-import javax.persistence.LockModeType;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
@@ -14,9 +15,11 @@ import keyring.server.main.Chronometry;
 import keyring.server.main.aspects.Annotations.ContextualEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityTransaction;
+import keyring.server.main.entities.MailerOutboxEntry;
 import keyring.server.main.entities.User;
 import keyring.server.main.entities.User_;
 import keyring.server.main.entities.columns.UserState;
+import keyring.server.main.messagebroker.MailerOutboxRelay;
 import keyring.server.main.messagebroker.MessageBrokerClient;
 
 public final class StaleAccountExpiration implements Runnable {
@@ -26,20 +29,34 @@ public final class StaleAccountExpiration implements Runnable {
   public static final int DAYS_IN_WEEK = 7;
 
   private Chronometry chronometry;
-  private MessageBrokerClient messageBrokerClient;
+  private MailerOutboxRelay mailerOutboxRelay;
+  private int chunkSize;
 
   @ContextualEntityManager private EntityManager entityManager;
 
   @Inject
-  StaleAccountExpiration(Chronometry chronometry, MessageBrokerClient messageBrokerClient) {
+  StaleAccountExpiration(
+      Chronometry chronometry,
+      MailerOutboxRelay mailerOutboxRelay,
+      @Named("chunk_size") int chunkSize) {
     this.chronometry = chronometry;
-    this.messageBrokerClient = messageBrokerClient;
+    this.mailerOutboxRelay = mailerOutboxRelay;
+    this.chunkSize = chunkSize;
   }
 
+  private void enqueueDeactivationNotice(User entity, int daysLeft) {
+    entityManager.persist(
+        new MailerOutboxEntry()
+            .setRequest(
+                MessageBrokerClient.createDeactivationNotice(
+                        entity.getMail(), entity.getUsername(), INACTIVITY_PERIOD_YEARS, daysLeft)
+                    .toByteArray()));
+  }
+
+  /** Notices go to the outbox, so that Redis round-trips are not made while holding the rows. */
   @WithEntityManager
   @WithEntityTransaction
-  public void run() {
-    int inactivityPeriodDays = INACTIVITY_PERIOD_YEARS * DAYS_IN_YEAR;
+  Chunks.Result expireChunk(Timestamp cutoff, long cursor, int limit) {
     CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
     CriteriaQuery<User> criteriaQuery = criteriaBuilder.createQuery(User.class);
     Root<User> userRoot = criteriaQuery.from(User.class);
@@ -48,22 +65,21 @@ public final class StaleAccountExpiration implements Runnable {
         .where(
             criteriaBuilder.and(
                 criteriaBuilder.equal(userRoot.get(User_.state), UserState.USER_ACTIVE),
-                criteriaBuilder.lessThan(
-                    userRoot.get(User_.lastSession),
-                    chronometry.pastTimestamp(inactivityPeriodDays, ChronoUnit.DAYS))));
+                criteriaBuilder.lessThan(userRoot.get(User_.lastSession), cutoff),
+                criteriaBuilder.greaterThan(userRoot.get(User_.identifier), cursor)))
+        .orderBy(criteriaBuilder.asc(userRoot.get(User_.identifier)));
     List<User> entities =
-        entityManager
-            .createQuery(criteriaQuery)
-            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+        Chunks.skipLocked(entityManager.createQuery(criteriaQuery).setMaxResults(limit))
             .getResultList();
+    int affected = 0;
     for (User entity : entities) {
       Instant currentTime = chronometry.currentTime();
       List<Instant> inactivityReminders = entity.getInactivityReminders();
       if (inactivityReminders.size() == 0) {
-        messageBrokerClient.publishDeactivationNotice(
-            entity.getMail(), entity.getUsername(), INACTIVITY_PERIOD_YEARS, DAYS_IN_MONTH);
+        enqueueDeactivationNotice(entity, DAYS_IN_MONTH);
         entity.setInactivityReminders(ImmutableList.of(currentTime));
         entityManager.persist(entity);
+        affected += 1;
         continue;
       }
       Instant latestReminder = inactivityReminders.get(inactivityReminders.size() - 1);
@@ -71,22 +87,43 @@ public final class StaleAccountExpiration implements Runnable {
         if (latestReminder.isBefore(currentTime.minus(DAYS_IN_WEEK, ChronoUnit.DAYS))) {
           entity.setState(UserState.USER_DELETED);
           entityManager.persist(entity);
+          affected += 1;
         }
       } else if (inactivityReminders.size() == 1) {
         if (latestReminder.isBefore(
             currentTime
                 .minus(DAYS_IN_MONTH, ChronoUnit.DAYS)
                 .plus(DAYS_IN_WEEK, ChronoUnit.DAYS))) {
-          messageBrokerClient.publishDeactivationNotice(
-              entity.getMail(), entity.getUsername(), INACTIVITY_PERIOD_YEARS, DAYS_IN_WEEK);
+          enqueueDeactivationNotice(entity, DAYS_IN_WEEK);
           entity.setInactivityReminders(
               ImmutableList.<Instant>builder()
                   .addAll(inactivityReminders)
                   .add(currentTime)
                   .build());
           entityManager.persist(entity);
+          affected += 1;
         }
       }
     }
+    return new Chunks.Result(
+        entities.size(),
+        entities.isEmpty() ? cursor : entities.get(entities.size() - 1).getIdentifier(),
+        affected);
+  }
+
+  public void run() {
+    int inactivityPeriodDays = INACTIVITY_PERIOD_YEARS * DAYS_IN_YEAR;
+    Timestamp cutoff = chronometry.pastTimestamp(inactivityPeriodDays, ChronoUnit.DAYS);
+    Chunks.run(
+        StaleAccountExpiration.class.getSimpleName(),
+        chunkSize,
+        0,
+        (cursor, limit) -> expireChunk(cutoff, cursor, limit),
+        // Publishes the notices of the chunk once its rows are unlocked.
+        result -> {
+          if (result.getAffected() > 0) {
+            mailerOutboxRelay.run();
+          }
+        });
   }
 }
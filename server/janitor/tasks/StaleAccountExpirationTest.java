@@ -1,22 +1,29 @@
 package keyring.server.janitor.tasks;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import javax.persistence.EntityManager;
 import javax.persistence.Persistence;
+import keyring.server.mailer.BrokerKeys;
 import keyring.server.main.Arithmetic;
 import keyring.server.main.Chronometry;
 import keyring.server.main.aspects.Annotations.ContextualEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityTransaction;
 import keyring.server.main.aspects.StorageManagerAspect;
+import keyring.server.main.entities.MailerOutboxEntry;
 import keyring.server.main.entities.User;
 import keyring.server.main.entities.columns.UserState;
+import keyring.server.main.messagebroker.MailerOutboxRelay;
 import keyring.server.main.messagebroker.MessageBrokerClient;
 import name.falgout.jeffrey.testing.junit5.MockitoExtension;
 import org.aspectj.lang.Aspects;
@@ -40,7 +47,9 @@ final class StaleAccountExpirationTest {
         .initialize(Persistence.createEntityManagerFactory("testing"));
     staleAccountExpiration =
         new StaleAccountExpiration(
-            new Chronometry(new Arithmetic(), () -> Instant.now()), mockMessageBrokerClient);
+            new Chronometry(new Arithmetic(), () -> Instant.now()),
+            new MailerOutboxRelay(mockMessageBrokerClient),
+            1);
   }
 
   @Test
@@ -96,12 +105,16 @@ final class StaleAccountExpirationTest {
     staleAccountExpiration.run();
 
     verify(mockMessageBrokerClient)
-        .publishDeactivationNotice(
-            user.getMail(),
-            user.getUsername(),
-            StaleAccountExpiration.INACTIVITY_PERIOD_YEARS,
-            StaleAccountExpiration.DAYS_IN_MONTH);
+        .publishMailerRequests(
+            ImmutableList.of(
+                MessageBrokerClient.createDeactivationNotice(
+                    user.getMail(),
+                    user.getUsername(),
+                    StaleAccountExpiration.INACTIVITY_PERIOD_YEARS,
+                    StaleAccountExpiration.DAYS_IN_MONTH)));
+    verify(mockMessageBrokerClient, atLeastOnce()).countUnacknowledgedMailerRequests();
     verifyNoMoreInteractions(mockMessageBrokerClient);
+    assertEquals(0, countOutboxEntries());
   }
 
   @Test
@@ -118,12 +131,78 @@ final class StaleAccountExpirationTest {
     staleAccountExpiration.run();
 
     verify(mockMessageBrokerClient)
-        .publishDeactivationNotice(
-            user.getMail(),
-            user.getUsername(),
-            StaleAccountExpiration.INACTIVITY_PERIOD_YEARS,
-            StaleAccountExpiration.DAYS_IN_WEEK);
+        .publishMailerRequests(
+            ImmutableList.of(
+                MessageBrokerClient.createDeactivationNotice(
+                    user.getMail(),
+                    user.getUsername(),
+                    StaleAccountExpiration.INACTIVITY_PERIOD_YEARS,
+                    StaleAccountExpiration.DAYS_IN_WEEK)));
+    verify(mockMessageBrokerClient, atLeastOnce()).countUnacknowledgedMailerRequests();
     verifyNoMoreInteractions(mockMessageBrokerClient);
+    assertEquals(0, countOutboxEntries());
+  }
+
+  @Test
+  @WithEntityManager
+  void severalFirstNotices_publishesPerChunk() {
+    Instant now = Instant.now();
+    User first =
+        new User()
+            .setUsername("first")
+            .setState(UserState.USER_ACTIVE)
+            .setMail(MAIL)
+            .setLastSession(dayAgo(inactivityPeriodAgo(now)));
+    persistEntity(first);
+    User second =
+        new User()
+            .setUsername("second")
+            .setState(UserState.USER_ACTIVE)
+            .setMail(MAIL)
+            .setLastSession(dayAgo(inactivityPeriodAgo(now)));
+    persistEntity(second);
+
+    staleAccountExpiration.run();
+
+    for (User user : ImmutableList.of(first, second)) {
+      verify(mockMessageBrokerClient)
+          .publishMailerRequests(
+              ImmutableList.of(
+                  MessageBrokerClient.createDeactivationNotice(
+                      user.getMail(),
+                      user.getUsername(),
+                      StaleAccountExpiration.INACTIVITY_PERIOD_YEARS,
+                      StaleAccountExpiration.DAYS_IN_MONTH)));
+    }
+    verify(mockMessageBrokerClient, atLeastOnce()).countUnacknowledgedMailerRequests();
+    verifyNoMoreInteractions(mockMessageBrokerClient);
+    assertEquals(0, countOutboxEntries());
+  }
+
+  @Test
+  @WithEntityManager
+  void firstNotice_streamBackedUp_keepsInOutbox() {
+    when(mockMessageBrokerClient.countUnacknowledgedMailerRequests())
+        .thenReturn(BrokerKeys.MAILER_MAX_LEN);
+    Instant now = Instant.now();
+    User user =
+        new User()
+            .setUsername("username")
+            .setState(UserState.USER_ACTIVE)
+            .setMail(MAIL)
+            .setLastSession(dayAgo(inactivityPeriodAgo(now)));
+    persistEntity(user);
+
+    staleAccountExpiration.run();
+
+    verify(mockMessageBrokerClient, never()).publishMailerRequests(any());
+    assertEquals(1, countOutboxEntries());
+  }
+
+  private long countOutboxEntries() {
+    return entityManager
+        .createQuery("SELECT COUNT(e) FROM MailerOutboxEntry e", Long.class)
+        .getSingleResult();
   }
 
   @WithEntityTransaction
@@ -8,7 +8,11 @@ import keyring.server.mailer.templates.TemplatesModule;
 @Component(modules = {AppModule.class, TemplatesModule.class})
 @Singleton
 interface AppComponent {
-  MessageConsumer messageConsumer();
+  MessageConsumer.Factory messageConsumerFactory();
+
+  BacklogMetrics backlogMetrics();
+
+  DeadLetters deadLetters();
 
   @Component.Builder
   interface Builder {
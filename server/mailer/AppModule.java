@@ -1,12 +1,21 @@
 package keyring.server.mailer;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import dagger.Module;
 import dagger.Provides;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
 import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -15,37 +24,65 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 import net.sargue.mailgun.Configuration;
 import net.sargue.mailgun.Mail;
+import net.sargue.mailgun.MailBuilder;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisClientConfig;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisSentinelPool;
 import redis.clients.jedis.Protocol;
+import redis.clients.jedis.StreamEntryID;
 import redis.clients.jedis.util.Pool;
 
 @Module
 class AppModule {
+  // Fails fast instead of blocking a consumer indefinitely if the pool is exhausted.
+  private static final Duration JEDIS_POOL_MAX_WAIT = Duration.ofSeconds(4);
+
   @Provides
   @Singleton
   static Pool<Jedis> provideJedisPool(Environment environment) {
+    JedisPoolConfig poolConfig = new JedisPoolConfig();
+    // Every consumer holds one connection to read and one to acknowledge, plus `BacklogMetrics`
+    // and a spare.
+    int maxTotal = 2 * environment.getConsumerCount() + 2;
+    poolConfig.setMaxTotal(maxTotal);
+    poolConfig.setMaxIdle(maxTotal);
+    poolConfig.setMaxWait(JEDIS_POOL_MAX_WAIT);
     if (environment.isProduction()) {
+      JedisClientConfig clientConfig =
+          DefaultJedisClientConfig.builder().password(environment.getRedisPassword()).build();
       return new JedisSentinelPool(
           "default",
           // https://github.com/bitnami/charts/tree/master/bitnami/redis#master-replicas-with-sentinel
           ImmutableSet.of(
-              String.format("%s:%d", environment.getRedisHost(), Protocol.DEFAULT_SENTINEL_PORT)),
-          environment.getRedisPassword(),
-          environment.getRedisPassword());
+              new HostAndPort(environment.getRedisHost(), Protocol.DEFAULT_SENTINEL_PORT)),
+          poolConfig,
+          clientConfig,
+          clientConfig);
     }
     return new JedisPool(
+        poolConfig,
         URI.create(
             String.format("redis://%s:%d", environment.getRedisHost(), Protocol.DEFAULT_PORT)));
   }
 
+  // Shared by all consumers of the process, so that none of them claims a sibling's entries.
+  @Provides
+  @Singleton
+  @Named("in_flight_entries")
+  static Set<StreamEntryID> provideInFlightEntries() {
+    return ConcurrentHashMap.newKeySet();
+  }
+
   @Provides
   static ListeningExecutorService provideMessageConsumerExecutorService() {
     return MoreExecutors.listeningDecorator(
         MoreExecutors.getExitingExecutorService(
             (ThreadPoolExecutor)
-                Executors.newFixedThreadPool(ConsumerSettings.MAX_MESSAGES_PER_READ),
+                Executors.newFixedThreadPool(ConsumerSettings.SEND_THREADS),
             ConsumerSettings.K8S_GRACE_PERIOD_MILLIS,
             TimeUnit.MILLISECONDS));
   }
@@ -57,9 +94,28 @@ class AppModule {
     public void send(String to, String head, String body) {
       logger.info(String.format("send(%s, %s, %s)", to, head, body));
     }
+
+    private static String substitute(String template, Map<String, String> variables) {
+      String result = template;
+      for (Map.Entry<String, String> variable : variables.entrySet()) {
+        result = result.replace(MailService.placeholder(variable.getKey()), variable.getValue());
+      }
+      return result;
+    }
+
+    @Override
+    public void sendBatch(
+        String head, String body, Map<String, Map<String, String>> recipientToVariables) {
+      logger.info(String.format("sendBatch(%d recipients)", recipientToVariables.size()));
+      recipientToVariables.forEach(
+          (to, variables) -> send(to, substitute(head, variables), substitute(body, variables)));
+    }
   }
 
   private static class MailgunService implements MailService {
+    // https://documentation.mailgun.com/docs/mailgun/user-manual/sending-messages/batch-sending
+    private static final int MAILGUN_MAX_RECIPIENTS = 1000;
+    private final ObjectMapper objectMapper = new ObjectMapper();
     private String fromName;
     private String fromAddress;
     private Configuration configuration;
@@ -80,6 +136,33 @@ class AppModule {
           .build()
           .send();
     }
+
+    @Override
+    public void sendBatch(
+        String head, String body, Map<String, Map<String, String>> recipientToVariables) {
+      for (List<String> recipients :
+          Iterables.partition(recipientToVariables.keySet(), MAILGUN_MAX_RECIPIENTS)) {
+        MailBuilder mailBuilder = Mail.using(configuration).from(fromName, fromAddress);
+        Map<String, Map<String, String>> batchVariables = new HashMap<>();
+        for (String recipient : recipients) {
+          mailBuilder.to(recipient);
+          batchVariables.put(recipient, recipientToVariables.get(recipient));
+        }
+        String recipientVariables;
+        try {
+          recipientVariables = objectMapper.writeValueAsString(batchVariables);
+        } catch (JsonProcessingException exception) {
+          throw new IllegalArgumentException(exception);
+        }
+        // Each recipient only sees their own address.
+        mailBuilder
+            .parameter("recipient-variables", recipientVariables)
+            .subject(head)
+            .html(body)
+            .build()
+            .send();
+      }
+    }
   }
 
   @Provides
@@ -97,6 +180,7 @@ class AppModule {
   }
 
   @Provides
+  @Singleton
   static MailClient provideMailClient(
       Environment environment,
       MailService mailService,
@@ -0,0 +1,86 @@
+package keyring.server.mailer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.inject.Inject;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.resps.StreamPendingSummary;
+import redis.clients.jedis.util.Pool;
+
+/** Exposes the backlog of `MAILER_STREAM` in the Prometheus text format. */
+class BacklogMetrics implements HttpHandler {
+  private static final Logger logger = Logger.getLogger(BacklogMetrics.class.getName());
+  private Pool<Jedis> jedisPool;
+
+  @Inject
+  BacklogMetrics(Pool<Jedis> jedisPool) {
+    this.jedisPool = jedisPool;
+  }
+
+  private static void appendGauge(StringBuilder builder, String name, String help, long value) {
+    builder
+        .append(String.format("# HELP %s %s\n", name, help))
+        .append(String.format("# TYPE %s gauge\n", name))
+        .append(String.format("%s %d\n", name, value));
+  }
+
+  String render() {
+    StreamPendingSummary pendingSummary;
+    long streamLength;
+    long deadLetterCount;
+    try (Jedis jedis = jedisPool.getResource()) {
+      pendingSummary = jedis.xpending(BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP);
+      streamLength = jedis.xlen(BrokerKeys.MAILER_STREAM);
+      deadLetterCount = jedis.xlen(BrokerKeys.MAILER_DLQ);
+    }
+    long oldestPendingAgeMillis =
+        pendingSummary.getMinId() == null
+            ? 0
+            : Math.max(0, System.currentTimeMillis() - pendingSummary.getMinId().getTime());
+    StringBuilder builder = new StringBuilder();
+    appendGauge(
+        builder,
+        "mailer_pending_messages",
+        "Delivered but unacknowledged messages.",
+        pendingSummary.getTotal());
+    appendGauge(
+        builder,
+        "mailer_oldest_pending_age_seconds",
+        "Time since the oldest unacknowledged message was published.",
+        oldestPendingAgeMillis / 1000);
+    appendGauge(builder, "mailer_stream_length", "Entries in the stream.", streamLength);
+    appendGauge(
+        builder,
+        "mailer_stream_max_length",
+        "Approximate cap on entries in the stream.",
+        BrokerKeys.MAILER_MAX_LEN);
+    appendGauge(
+        builder, "mailer_dead_letters", "Messages that ran out of deliveries.", deadLetterCount);
+    return builder.toString();
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    byte[] body;
+    int status;
+    try {
+      body = render().getBytes(StandardCharsets.UTF_8);
+      status = 200;
+    } catch (JedisException exception) {
+      logger.log(Level.WARNING, "Unable to read the backlog", exception);
+      body = new byte[0];
+      status = 503;
+    }
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(body);
+    }
+  }
+}
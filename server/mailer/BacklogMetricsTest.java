@@ -0,0 +1,58 @@
+package keyring.server.mailer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import keyring.server.main.messagebroker.MessageBrokerClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.params.XReadGroupParams;
+
+@Testcontainers
+class BacklogMetricsTest {
+  @Container
+  private GenericContainer redisContainer =
+      new GenericContainer(DockerImageName.parse("redis")).withExposedPorts(6379);
+
+  private JedisPool jedisPool;
+  private BacklogMetrics backlogMetrics;
+
+  @BeforeEach
+  void beforeEach() {
+    jedisPool =
+        new JedisPool(
+            new JedisPoolConfig(), redisContainer.getHost(), redisContainer.getFirstMappedPort());
+    backlogMetrics = new BacklogMetrics(jedisPool);
+  }
+
+  @Test
+  void render_reportsBacklog() {
+    MessageBrokerClient messageBrokerClient = new MessageBrokerClient(jedisPool);
+    messageBrokerClient.publishMailVc("mail@example.com", "username", "0");
+    messageBrokerClient.publishMailVc("mail@example.com", "username", "1");
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.xgroupCreate(
+          BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP, new StreamEntryID(), false);
+      jedis.xreadGroup(
+          BrokerKeys.DEFAULT_GROUP,
+          "default-0",
+          new XReadGroupParams().count(1),
+          ImmutableMap.of(BrokerKeys.MAILER_STREAM, StreamEntryID.UNRECEIVED_ENTRY));
+    }
+
+    String metrics = backlogMetrics.render();
+
+    assertTrue(metrics.contains("\nmailer_pending_messages 1\n"), metrics);
+    assertTrue(metrics.contains("\nmailer_stream_length 2\n"), metrics);
+    assertTrue(metrics.contains("\nmailer_stream_max_length 640\n"), metrics);
+    assertTrue(metrics.contains("\nmailer_dead_letters 0\n"), metrics);
+  }
+}
@@ -4,4 +4,11 @@ public class BrokerKeys {
   public static final String MAILER_STREAM = "mailer";
   public static final String DEFAULT_GROUP = "default";
   public static final String REQUEST_FIELD = "request";
+  public static final long MAILER_MAX_LEN = 640;
+  // Held by the consumer claiming idle entries in the current period.
+  public static final String CLAIM_LEASE = "mailer:claim-lease";
+  // Entries of `MAILER_STREAM` that ran out of deliveries.
+  public static final String MAILER_DLQ = "mailer:dlq";
+  public static final String SOURCE_ID_FIELD = "source_id";
+  public static final String DELIVERIES_FIELD = "deliveries";
 }
@@ -5,4 +5,16 @@ import org.apache.commons.lang3.time.DateUtils;
 class ConsumerSettings {
   static final long K8S_GRACE_PERIOD_MILLIS = 30 * DateUtils.MILLIS_PER_SECOND;
   static final int MAX_MESSAGES_PER_READ = 16;
+  static final int SEND_THREADS = MAX_MESSAGES_PER_READ;
+  // Bounds messages read but not yet sent, across reads. No more than `SEND_THREADS`, so that no
+  // message idles in the executor queue long enough to be claimed again.
+  static final int MAX_OUTSTANDING_MESSAGES = SEND_THREADS;
+  static final long ACK_FLUSH_INTERVAL_MILLIS = 100;
+  static final long MAX_MESSAGE_IDLE_MILLIS = 8 * DateUtils.MILLIS_PER_SECOND;
+  // At most one claim per period across all consumers of the group.
+  static final long CLAIM_INTERVAL_MILLIS = MAX_MESSAGE_IDLE_MILLIS / 2;
+  static final int MAX_PENDING_PER_SCAN = 256;
+  // Retries wait for 8s, 16s, ..., up to 2m8s between deliveries.
+  static final int MAX_BACKOFF_SHIFT = 4;
+  static final long MAX_DELIVERIES = 6;
 }
@@ -0,0 +1,89 @@
+package keyring.server.mailer;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.inject.Inject;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.params.XAddParams;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.util.Pool;
+
+/** Parks entries that have exhausted their deliveries in `MAILER_DLQ` until replayed. */
+class DeadLetters {
+  private static final Logger logger = Logger.getLogger(DeadLetters.class.getName());
+  private static final int REPLAY_CHUNK_SIZE = 64;
+  // The quarter of `MAILER_MAX_LEN` that `MailerOutboxRelay` leaves to replays.
+  static final long MAX_STREAM_BACKLOG = BrokerKeys.MAILER_MAX_LEN / 4;
+  private Pool<Jedis> jedisPool;
+
+  @Inject
+  DeadLetters(Pool<Jedis> jedisPool) {
+    this.jedisPool = jedisPool;
+  }
+
+  /** Moves a claimed `entry` from `MAILER_STREAM`, atomically. */
+  void bury(Jedis jedis, StreamEntry entry, long deliveries) {
+    logger.warning(
+        String.format("Moving `%s` to the DLQ after %d deliveries", entry.getID(), deliveries));
+    Transaction transaction = jedis.multi();
+    transaction.xadd(
+        BrokerKeys.MAILER_DLQ,
+        new XAddParams().id(StreamEntryID.NEW_ENTRY),
+        ImmutableMap.of(
+            BrokerKeys.REQUEST_FIELD,
+            entry.getFields().getOrDefault(BrokerKeys.REQUEST_FIELD, ""),
+            BrokerKeys.SOURCE_ID_FIELD,
+            entry.getID().toString(),
+            BrokerKeys.DELIVERIES_FIELD,
+            String.valueOf(deliveries)));
+    transaction.xack(BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP, entry.getID());
+    transaction.exec();
+  }
+
+  /**
+   * Publishes dead letters anew while `MAILER_STREAM` has room and returns their number.
+   *
+   * <p>Stops once the group lags by `MAX_STREAM_BACKLOG` entries, as trimming would otherwise drop
+   * replayed entries no consumer has read yet. The rest stays in `MAILER_DLQ`.
+   */
+  int replay() {
+    int count = 0;
+    try (Jedis jedis = jedisPool.getResource()) {
+      while (true) {
+        long headroom = MAX_STREAM_BACKLOG - StreamBacklog.countUnacknowledged(jedis);
+        if (headroom <= 0) {
+          return count;
+        }
+        List<StreamEntry> entries =
+            jedis.xrange(
+                BrokerKeys.MAILER_DLQ, "-", "+", (int) Math.min(REPLAY_CHUNK_SIZE, headroom));
+        if (entries.isEmpty()) {
+          return count;
+        }
+        for (StreamEntry entry : entries) {
+          Transaction transaction = jedis.multi();
+          transaction.xadd(
+              BrokerKeys.MAILER_STREAM,
+              new XAddParams()
+                  .id(StreamEntryID.NEW_ENTRY)
+                  .approximateTrimming()
+                  .maxLen(BrokerKeys.MAILER_MAX_LEN),
+              ImmutableMap.of(
+                  BrokerKeys.REQUEST_FIELD, entry.getFields().get(BrokerKeys.REQUEST_FIELD)));
+          transaction.xdel(BrokerKeys.MAILER_DLQ, entry.getID());
+          transaction.exec();
+          count += 1;
+        }
+      }
+    }
+  }
+
+  long countLeft() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.xlen(BrokerKeys.MAILER_DLQ);
+    }
+  }
+}
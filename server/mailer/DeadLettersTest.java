@@ -0,0 +1,114 @@
+package keyring.server.mailer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.util.List;
+import java.util.Map;
+import keyring.server.main.messagebroker.MessageBrokerClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+
+@Testcontainers
+class DeadLettersTest {
+  @Container
+  private GenericContainer redisContainer =
+      new GenericContainer(DockerImageName.parse("redis")).withExposedPorts(6379);
+
+  private JedisPool jedisPool;
+  private DeadLetters deadLetters;
+
+  @BeforeEach
+  void beforeEach() {
+    jedisPool =
+        new JedisPool(
+            new JedisPoolConfig(), redisContainer.getHost(), redisContainer.getFirstMappedPort());
+    deadLetters = new DeadLetters(jedisPool);
+  }
+
+  private StreamEntry publishAndReceive(Jedis jedis) {
+    new MessageBrokerClient(jedisPool).publishMailVc("mail@example.com", "username", "0");
+    jedis.xgroupCreate(
+        BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP, new StreamEntryID(), false);
+    List<Map.Entry<String, List<StreamEntry>>> streamToEntries =
+        jedis.xreadGroup(
+            BrokerKeys.DEFAULT_GROUP,
+            "default-0",
+            new XReadGroupParams().count(1),
+            ImmutableMap.of(BrokerKeys.MAILER_STREAM, StreamEntryID.UNRECEIVED_ENTRY));
+    return Iterables.getOnlyElement(Iterables.getOnlyElement(streamToEntries).getValue());
+  }
+
+  @Test
+  void bury_movesToDlq() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      StreamEntry entry = publishAndReceive(jedis);
+
+      deadLetters.bury(jedis, entry, 6);
+
+      assertEquals(
+          0L, jedis.xpending(BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP).getTotal());
+      StreamEntry deadLetter =
+          Iterables.getOnlyElement(jedis.xrange(BrokerKeys.MAILER_DLQ, "-", "+"));
+      assertEquals(
+          ImmutableMap.of(
+              BrokerKeys.REQUEST_FIELD,
+              entry.getFields().get(BrokerKeys.REQUEST_FIELD),
+              BrokerKeys.SOURCE_ID_FIELD,
+              entry.getID().toString(),
+              BrokerKeys.DELIVERIES_FIELD,
+              "6"),
+          deadLetter.getFields());
+    }
+  }
+
+  @Test
+  void replay_publishesAnew() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      StreamEntry entry = publishAndReceive(jedis);
+      deadLetters.bury(jedis, entry, 6);
+
+      assertEquals(1, deadLetters.replay());
+
+      assertEquals(0L, jedis.xlen(BrokerKeys.MAILER_DLQ));
+      StreamEntry replayed = Iterables.getLast(jedis.xrange(BrokerKeys.MAILER_STREAM, "-", "+"));
+      assertEquals(
+          entry.getFields().get(BrokerKeys.REQUEST_FIELD),
+          replayed.getFields().get(BrokerKeys.REQUEST_FIELD));
+    }
+  }
+
+  @Test
+  void replay_streamBackedUp_leavesRestInDlq() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      for (long index = 0; index < DeadLetters.MAX_STREAM_BACKLOG - 1; ++index) {
+        jedis.xadd(
+            BrokerKeys.MAILER_STREAM,
+            StreamEntryID.NEW_ENTRY,
+            ImmutableMap.of(BrokerKeys.REQUEST_FIELD, ""));
+      }
+      for (int index = 0; index < 2; ++index) {
+        jedis.xadd(
+            BrokerKeys.MAILER_DLQ,
+            StreamEntryID.NEW_ENTRY,
+            ImmutableMap.of(BrokerKeys.REQUEST_FIELD, ""));
+      }
+
+      assertEquals(1, deadLetters.replay());
+
+      assertEquals(DeadLetters.MAX_STREAM_BACKLOG, jedis.xlen(BrokerKeys.MAILER_STREAM));
+      assertEquals(1L, deadLetters.countLeft());
+    }
+  }
+}
@@ -9,6 +9,13 @@ class Environment {
   @Parameter(names = "--redis_host")
   private String redisHost = "localhost";
 
+  @Parameter(names = "--consumers")
+  private int consumerCount = 1;
+
+  // Zero disables the Prometheus endpoint.
+  @Parameter(names = "--metrics_port")
+  private int metricsPort = 0;
+
   @Parameter(names = "--mailgun_api_url")
   private String mailgunApiUrl = "";
 
@@ -57,6 +64,15 @@ class Environment {
     return getVariable("REDIS_PASSWORD");
   }
 
+  public int getConsumerCount() {
+    return consumerCount;
+  }
+
+  public int getMetricsPort() {
+    return metricsPort;
+  }
+
+  /** Unique across replicas; `MessageConsumer`s of one process append their index. */
   public String getConsumerName() {
     if (isProduction()) {
       return getVariable("K8S_POD_NAME");
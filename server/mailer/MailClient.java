@@ -1,9 +1,20 @@
 package keyring.server.mailer;
 
+import java.util.List;
+import keyring.server.mailer.requests.DeactivationNotice;
+import keyring.server.mailer.requests.MailVc;
+import keyring.server.mailer.requests.UncompletedAuthn;
+
 interface MailClient {
   void sendMailVc(String to, String username, String code);
 
   void sendUncompletedAuthn(String to, String username, String ipAddress);
 
   void sendDeactivationNotice(String to, String username, int inactivityPeriodYears, int daysLeft);
+
+  void sendMailVcs(List<MailVc> mailVcs);
+
+  void sendUncompletedAuthns(List<UncompletedAuthn> uncompletedAuthns);
+
+  void sendDeactivationNotices(List<DeactivationNotice> deactivationNotices);
 }
@@ -1,5 +1,18 @@
 package keyring.server.mailer;
 
+import java.util.Map;
+
 interface MailService{
   void send(String to, String head, String body);
+
+  /**
+   * Sends `head` and `body` to every address of `recipientToVariables` in as few provider calls
+   * as possible, substituting `placeholder(name)` with the value of `name` for that recipient.
+   * Values are substituted verbatim.
+   */
+  void sendBatch(String head, String body, Map<String, Map<String, String>> recipientToVariables);
+
+  static String placeholder(String name) {
+    return String.format("%%recipient.%s%%", name);
+  }
 }
@@ -2,31 +2,82 @@ package keyring.server.mailer;
 
 import com.beust.jcommander.JCommander;
 import com.google.common.util.concurrent.UncaughtExceptionHandlers;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 final class Mailer {
   private static final Logger logger = Logger.getLogger(Mailer.class.getName());
   private AppComponent appComponent;
 
-  public static void main(String[] args) throws InterruptedException {
+  public static void main(String[] args) throws InterruptedException, IOException {
     Environment environment = new Environment();
     JCommander.newBuilder().addObject(environment).build().parse(args);
     Mailer mailer = new Mailer();
     mailer.initialize(environment);
-    MessageConsumer messageConsumer = mailer.messageConsumer();
-    Runtime.getRuntime().addShutdownHook(new Thread(messageConsumer::stop));
-    Thread thread = new Thread(messageConsumer);
-    thread.setUncaughtExceptionHandler(UncaughtExceptionHandlers.systemExit());
-    logger.info("Running `MessageConsumer`");
-    thread.start();
-    thread.join();
+    if (environment.getMetricsPort() > 0) {
+      mailer.serveMetrics(environment.getMetricsPort());
+    }
+    List<MessageConsumer> messageConsumers = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int index = 0; index < environment.getConsumerCount(); ++index) {
+      MessageConsumer messageConsumer =
+          mailer.messageConsumer(
+              String.format("%s-%d", environment.getConsumerName(), index));
+      messageConsumers.add(messageConsumer);
+      Thread thread = new Thread(messageConsumer);
+      thread.setUncaughtExceptionHandler(UncaughtExceptionHandlers.systemExit());
+      threads.add(thread);
+    }
+    // The JVM halts once the hook returns, so it waits for in-flight sends to be acknowledged.
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  messageConsumers.forEach(MessageConsumer::stop);
+                  joinWithin(threads, ConsumerSettings.K8S_GRACE_PERIOD_MILLIS);
+                }));
+    logger.info(String.format("Running %d `MessageConsumer`s", threads.size()));
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  private static void joinWithin(List<Thread> threads, long timeoutMillis) {
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      for (Thread thread : threads) {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+          logger.warning("Grace period has elapsed before all consumers stopped");
+          return;
+        }
+        TimeUnit.NANOSECONDS.timedJoin(thread, remainingNanos);
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   private void initialize(Environment environment) {
     appComponent = DaggerAppComponent.builder().environment(environment).build();
   }
 
-  private MessageConsumer messageConsumer() {
-    return appComponent.messageConsumer();
+  private void serveMetrics(int port) throws IOException {
+    HttpServer httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+    httpServer.createContext("/metrics", appComponent.backlogMetrics());
+    httpServer.start();
+    logger.info(String.format("Serving metrics on %d", port));
+  }
+
+  private MessageConsumer messageConsumer(String consumerName) {
+    return appComponent.messageConsumerFactory().create(consumerName);
   }
 }
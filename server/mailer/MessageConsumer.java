@@ -7,31 +7,60 @@ import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.InvalidProtocolBufferException;
+import dagger.assisted.Assisted;
+import dagger.assisted.AssistedFactory;
+import dagger.assisted.AssistedInject;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.inject.Inject;
+import java.util.stream.Collectors;
+import javax.inject.Named;
 import keyring.server.mailer.requests.DeactivationNotice;
 import keyring.server.mailer.requests.MailVc;
 import keyring.server.mailer.requests.MailerRequest;
 import keyring.server.mailer.requests.UncompletedAuthn;
-import org.apache.commons.lang3.time.DateUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.StreamEntryID;
 import redis.clients.jedis.exceptions.JedisDataException;
-import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.params.XClaimParams;
+import redis.clients.jedis.params.XPendingParams;
 import redis.clients.jedis.params.XReadGroupParams;
 import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.resps.StreamPendingEntry;
 import redis.clients.jedis.util.Pool;
 
+/**
+ * Reads, sends and acknowledges as decoupled stages.
+ *
+ * <p>Reading continues while up to `MAX_OUTSTANDING_MESSAGES` sends are in flight. Sent entries are
+ * acknowledged by a single multi-ID `XACK` per flush. Every stage borrows its own connection.
+ * Entries in flight are shared by the consumers of the process, so claims skip all of them.
+ *
+ * <p>Failed sends stay pending and are claimed again with exponential backoff, counted by the
+ * delivery counter of `XPENDING`. Retries are not batched. After `MAX_DELIVERIES` they are moved to
+ * `DeadLetters`.
+ */
 class MessageConsumer implements Runnable {
   private static final Logger logger = Logger.getLogger(MessageConsumer.class.getName());
-  private static final long MAX_MESSAGE_IDLE_MILLIS = 8 * DateUtils.MILLIS_PER_SECOND;
   private volatile boolean running;
   private State state;
   private String consumerName;
@@ -39,6 +68,12 @@ class MessageConsumer implements Runnable {
   private Base64.Decoder base64Decoder;
   private ListeningExecutorService executorService;
   private MailClient mailClient;
+  private DeadLetters deadLetters;
+  private final Semaphore outstanding = new Semaphore(ConsumerSettings.MAX_OUTSTANDING_MESSAGES);
+  // From dispatch until acknowledgement, so that claims skip them.
+  private Set<StreamEntryID> inFlight;
+  private final Queue<StreamEntryID> sentEntries = new ConcurrentLinkedQueue<>();
+  private StreamEntryID backlogCursor;
 
   private enum State {
     READ_PENDING,
@@ -46,27 +81,48 @@ class MessageConsumer implements Runnable {
     READ_UNRECEIVED
   }
 
-  private static final class FailureLoggingCallback implements FutureCallback<Void> {
+  private final class SendCallback implements FutureCallback<Void> {
+    private final List<StreamEntryID> entryIds;
+
+    SendCallback(List<StreamEntryID> entryIds) {
+      this.entryIds = entryIds;
+    }
+
     @Override
-    public void onSuccess(Void result) {}
+    public void onSuccess(Void result) {
+      sentEntries.addAll(entryIds);
+      outstanding.release(entryIds.size());
+    }
 
     @Override
     public void onFailure(Throwable throwable) {
       logger.log(Level.SEVERE, throwable.getMessage(), throwable);
+      // Stays pending until claimed again, see `claim`.
+      inFlight.removeAll(entryIds);
+      outstanding.release(entryIds.size());
     }
   }
 
-  @Inject
+  @AssistedFactory
+  interface Factory {
+    MessageConsumer create(String consumerName);
+  }
+
+  @AssistedInject
   MessageConsumer(
-      Environment environment,
+      @Assisted String consumerName,
       Pool<Jedis> jedisPool,
       ListeningExecutorService executorService,
-      MailClient mailClient) {
-    this.consumerName = environment.getConsumerName();
+      MailClient mailClient,
+      DeadLetters deadLetters,
+      @Named("in_flight_entries") Set<StreamEntryID> inFlight) {
+    this.consumerName = consumerName;
     this.jedisPool = jedisPool;
     this.base64Decoder = Base64.getDecoder();
     this.executorService = executorService;
     this.mailClient = mailClient;
+    this.deadLetters = deadLetters;
+    this.inFlight = inFlight;
   }
 
   private void createGroup(Jedis jedis) {
@@ -81,36 +137,89 @@ class MessageConsumer implements Runnable {
     }
   }
 
-  private List<StreamEntry> autoClaim(Jedis jedis) {
-    Map.Entry<StreamEntryID, List<StreamEntry>> streamToEntries =
-        jedis.xautoclaim(
+  private boolean acquireClaimLease(Jedis jedis) {
+    return "OK"
+        .equals(
+            jedis.set(
+                BrokerKeys.CLAIM_LEASE,
+                consumerName,
+                new SetParams().nx().px(ConsumerSettings.CLAIM_INTERVAL_MILLIS)));
+  }
+
+  private static long backoffMillis(long deliveries) {
+    return ConsumerSettings.MAX_MESSAGE_IDLE_MILLIS
+        << Math.min(Math.max(deliveries - 1, 0), ConsumerSettings.MAX_BACKOFF_SHIFT);
+  }
+
+  private List<StreamEntry> xclaim(Jedis jedis, List<StreamEntryID> entryIds) {
+    if (entryIds.isEmpty()) {
+      return new ArrayList<>();
+    }
+    List<StreamEntry> entries = new ArrayList<>();
+    // Entries trimmed from the stream come back as `null`.
+    for (StreamEntry entry :
+        jedis.xclaim(
             BrokerKeys.MAILER_STREAM,
             BrokerKeys.DEFAULT_GROUP,
             consumerName,
-            MAX_MESSAGE_IDLE_MILLIS,
-            new StreamEntryID(),
-            new XAutoClaimParams().count(ConsumerSettings.MAX_MESSAGES_PER_READ));
-    return streamToEntries.getValue();
+            ConsumerSettings.MAX_MESSAGE_IDLE_MILLIS,
+            new XClaimParams(),
+            entryIds.toArray(new StreamEntryID[0]))) {
+      if (entry != null) {
+        entries.add(entry);
+      }
+    }
+    return entries;
   }
 
-  private List<StreamEntry> readBacklog(Jedis jedis) {
+  /** Claims up to `count` entries due for a retry and buries the exhausted ones. */
+  List<StreamEntry> claim(Jedis jedis, int count) {
+    List<StreamPendingEntry> pendingEntries =
+        jedis.xpending(
+            BrokerKeys.MAILER_STREAM,
+            BrokerKeys.DEFAULT_GROUP,
+            new XPendingParams()
+                .idle(ConsumerSettings.MAX_MESSAGE_IDLE_MILLIS)
+                .count(ConsumerSettings.MAX_PENDING_PER_SCAN));
+    List<StreamEntryID> retried = new ArrayList<>();
+    Map<StreamEntryID, Long> exhausted = new HashMap<>();
+    for (StreamPendingEntry pendingEntry : pendingEntries) {
+      StreamEntryID entryId = pendingEntry.getID();
+      long deliveries = pendingEntry.getDeliveredTimes();
+      if (inFlight.contains(entryId) || pendingEntry.getIdleTime() < backoffMillis(deliveries)) {
+        continue;
+      }
+      if (deliveries >= ConsumerSettings.MAX_DELIVERIES) {
+        exhausted.put(entryId, deliveries);
+      } else if (retried.size() < count) {
+        retried.add(entryId);
+      }
+    }
+    for (StreamEntry entry : xclaim(jedis, new ArrayList<>(exhausted.keySet()))) {
+      deadLetters.bury(jedis, entry, exhausted.get(entry.getID()));
+    }
+    return xclaim(jedis, retried);
+  }
+
+  private List<StreamEntry> readBacklog(Jedis jedis, int count) {
+    // Starts after the last entry read, as earlier ones may still be in flight.
     List<Map.Entry<String, List<StreamEntry>>> streamToEntries =
         jedis.xreadGroup(
             BrokerKeys.DEFAULT_GROUP,
             consumerName,
-            new XReadGroupParams().count(ConsumerSettings.MAX_MESSAGES_PER_READ),
-            ImmutableMap.of(BrokerKeys.MAILER_STREAM, new StreamEntryID()));
+            new XReadGroupParams().count(count),
+            ImmutableMap.of(BrokerKeys.MAILER_STREAM, backlogCursor));
     return Iterables.getOnlyElement(streamToEntries).getValue();
   }
 
-  private Optional<List<StreamEntry>> readUnreceived(Jedis jedis) {
+  private Optional<List<StreamEntry>> readUnreceived(Jedis jedis, int count) {
     List<Map.Entry<String, List<StreamEntry>>> streamToEntries =
         jedis.xreadGroup(
             BrokerKeys.DEFAULT_GROUP,
             consumerName,
             new XReadGroupParams()
                 .block((int) (ConsumerSettings.K8S_GRACE_PERIOD_MILLIS / 2))
-                .count(ConsumerSettings.MAX_MESSAGES_PER_READ),
+                .count(count),
             ImmutableMap.of(BrokerKeys.MAILER_STREAM, StreamEntryID.UNRECEIVED_ENTRY));
     if (streamToEntries == null) {
       return Optional.empty();
@@ -148,10 +257,61 @@ class MessageConsumer implements Runnable {
     return Optional.empty();
   }
 
-  private void consumeRequests(Jedis jedis, List<StreamEntry> entries) {
-    ImmutableList.Builder<ListenableFuture> futuresBuilder = ImmutableList.builder();
+  private Optional<Runnable> routeRequests(
+      MailerRequest.RequestCase requestCase, List<MailerRequest> mailerRequests) {
+    if (mailerRequests.size() == 1) {
+      return routeRequest(mailerRequests.get(0));
+    }
+    switch (requestCase) {
+      case MAIL_VC:
+        List<MailVc> mailVcs =
+            mailerRequests.stream().map(MailerRequest::getMailVc).collect(Collectors.toList());
+        return Optional.of(() -> mailClient.sendMailVcs(mailVcs));
+      case UNCOMPLETED_AUTHN:
+        List<UncompletedAuthn> uncompletedAuthns =
+            mailerRequests.stream()
+                .map(MailerRequest::getUncompletedAuthn)
+                .collect(Collectors.toList());
+        return Optional.of(() -> mailClient.sendUncompletedAuthns(uncompletedAuthns));
+      case DEACTIVATION_NOTICE:
+        List<DeactivationNotice> deactivationNotices =
+            mailerRequests.stream()
+                .map(MailerRequest::getDeactivationNotice)
+                .collect(Collectors.toList());
+        return Optional.of(() -> mailClient.sendDeactivationNotices(deactivationNotices));
+      default:
+        logger.severe(String.format("Unsupported `RequestCase`: %s", requestCase.name()));
+    }
+    return Optional.empty();
+  }
+
+  private int dispatch(List<StreamEntryID> entryIds, Optional<Runnable> route) {
+    if (!route.isPresent()) {
+      return 0;
+    }
+    inFlight.addAll(entryIds);
+    ListenableFuture<Void> future = executorService.submit(route.get(), null);
+    Futures.addCallback(future, new SendCallback(entryIds), MoreExecutors.directExecutor());
+    return entryIds.size();
+  }
+
+  /**
+   * Submits sends and returns how many of `entries` took a slot of `outstanding`.
+   *
+   * <p>If `batched`, requests of the same type share a single send, so that `MailClient` can batch
+   * them. Redeliveries are sent one by one, so that a single poison request only fails itself.
+   */
+  private int consumeRequests(List<StreamEntry> entries, boolean batched) {
+    Map<MailerRequest.RequestCase, List<StreamEntryID>> caseToEntryIds =
+        new EnumMap<>(MailerRequest.RequestCase.class);
+    Map<MailerRequest.RequestCase, List<MailerRequest>> caseToRequests =
+        new EnumMap<>(MailerRequest.RequestCase.class);
+    int dispatched = 0;
     for (StreamEntry entry : entries) {
       StreamEntryID entryId = entry.getID();
+      if (inFlight.contains(entryId)) {
+        continue;
+      }
       MailerRequest mailerRequest = MailerRequest.getDefaultInstance();
       try {
         mailerRequest =
@@ -163,26 +323,87 @@ class MessageConsumer implements Runnable {
                 "Unable to parse `MailerRequest` from `%s`: %s", entryId, exception.getMessage()));
         continue;
       }
-      Optional<Runnable> route = routeRequest(mailerRequest);
-      if (!route.isPresent()) {
+      if (!batched) {
+        dispatched += dispatch(ImmutableList.of(entryId), routeRequest(mailerRequest));
         continue;
       }
-      ListenableFuture<Void> future =
-          executorService.submit(
-              () -> {
-                route.get().run();
-                acknowledge(jedis, entryId);
-              },
-              null);
-      Futures.addCallback(future, new FailureLoggingCallback(), executorService);
-      futuresBuilder.add(future);
+      MailerRequest.RequestCase requestCase = mailerRequest.getRequestCase();
+      caseToEntryIds.computeIfAbsent(requestCase, key -> new ArrayList<>()).add(entryId);
+      caseToRequests.computeIfAbsent(requestCase, key -> new ArrayList<>()).add(mailerRequest);
+    }
+    for (Map.Entry<MailerRequest.RequestCase, List<StreamEntryID>> caseAndEntryIds :
+        caseToEntryIds.entrySet()) {
+      MailerRequest.RequestCase requestCase = caseAndEntryIds.getKey();
+      dispatched +=
+          dispatch(
+              caseAndEntryIds.getValue(),
+              routeRequests(requestCase, caseToRequests.get(requestCase)));
+    }
+    return dispatched;
+  }
+
+  private void flushAcknowledgements() {
+    List<StreamEntryID> entryIds = new ArrayList<>();
+    for (StreamEntryID entryId = sentEntries.poll();
+        entryId != null;
+        entryId = sentEntries.poll()) {
+      entryIds.add(entryId);
+    }
+    if (entryIds.isEmpty()) {
+      return;
+    }
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.xack(
+          BrokerKeys.MAILER_STREAM,
+          BrokerKeys.DEFAULT_GROUP,
+          entryIds.toArray(new StreamEntryID[0]));
+      inFlight.removeAll(entryIds);
+    } catch (JedisException exception) {
+      logger.log(Level.WARNING, "Unable to acknowledge sent messages", exception);
+      sentEntries.addAll(entryIds);
     }
-    Futures.getUnchecked(
-        Futures.successfulAsList(futuresBuilder.build().toArray(new ListenableFuture[0])));
   }
 
-  private void acknowledge(Jedis jedis, StreamEntryID entryId) {
-    jedis.xack(BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP, entryId);
+  /** Blocks until a slot is free, then takes up to `MAX_MESSAGES_PER_READ` of them. */
+  private int acquireWindow() throws InterruptedException {
+    outstanding.acquire();
+    int permits = 1 + outstanding.drainPermits();
+    int count = Math.min(permits, ConsumerSettings.MAX_MESSAGES_PER_READ);
+    outstanding.release(permits - count);
+    return count;
+  }
+
+  private int consumeNext(Jedis jedis, int count) {
+    if (Objects.equals(state, State.READ_PENDING)) {
+      List<StreamEntry> entries = readBacklog(jedis, count);
+      logger.info(String.format("Received %d pending messages", entries.size()));
+      if (!entries.isEmpty()) {
+        backlogCursor = Iterables.getLast(entries).getID();
+        // Delivered before a restart, possibly failed.
+        return consumeRequests(entries, /* batched */ false);
+      }
+      state = State.CLAIM;
+    } else if (Objects.equals(state, State.CLAIM)) {
+      state = State.READ_UNRECEIVED;
+      if (!acquireClaimLease(jedis)) {
+        return 0;
+      }
+      List<StreamEntry> claimed = claim(jedis, count);
+      if (!claimed.isEmpty()) {
+        logger.info(String.format("Claimed %d messages", claimed.size()));
+        return consumeRequests(claimed, /* batched */ false);
+      }
+    } else if (Objects.equals(state, State.READ_UNRECEIVED)) {
+      Optional<List<StreamEntry>> entries = readUnreceived(jedis, count);
+      state = State.CLAIM;
+      if (entries.isPresent()) {
+        logger.info(String.format("Received %d new messages", entries.get().size()));
+        return consumeRequests(entries.get(), /* batched */ true);
+      }
+    } else {
+      logger.severe(String.format("Unknown `State`: %s", state.name()));
+    }
+    return 0;
   }
 
   public void run() {
@@ -191,37 +412,39 @@ class MessageConsumer implements Runnable {
     try (Jedis jedis = jedisPool.getResource()) {
       createGroup(jedis);
     }
+    ScheduledExecutorService ackExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("message-consumer-ack")
+                .setDaemon(true)
+                .build());
+    ackExecutor.scheduleWithFixedDelay(
+        this::flushAcknowledgements,
+        ConsumerSettings.ACK_FLUSH_INTERVAL_MILLIS,
+        ConsumerSettings.ACK_FLUSH_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
     state = State.READ_PENDING;
-    while (running) {
-      try (Jedis jedis = jedisPool.getResource()) {
-        if (Objects.equals(state, State.READ_PENDING)) {
-          List<StreamEntry> entries = readBacklog(jedis);
-          logger.info(String.format("Received %d pending messages", entries.size()));
-          if (!entries.isEmpty()) {
-            consumeRequests(jedis, entries);
-          } else {
-            state = State.CLAIM;
-          }
-        } else if (Objects.equals(state, State.CLAIM)) {
-          List<StreamEntry> claimed = autoClaim(jedis);
-          int count = claimed.size();
-          if (count > 0) {
-            logger.info(String.format("Claimed %d messages", count));
-            consumeRequests(jedis, claimed);
-          }
-          state = State.READ_UNRECEIVED;
-        } else if (Objects.equals(state, State.READ_UNRECEIVED)) {
-          Optional<List<StreamEntry>> entries = readUnreceived(jedis);
-          if (entries.isPresent()) {
-            int count = entries.get().size();
-            logger.info(String.format("Received %d new messages", count));
-          }
-          entries.ifPresent(items -> consumeRequests(jedis, items));
-          state = State.CLAIM;
-        } else {
-          logger.severe(String.format("Unknown `State`: %s", state.name()));
+    backlogCursor = new StreamEntryID();
+    try {
+      while (running) {
+        int count = acquireWindow();
+        int dispatched = 0;
+        try (Jedis jedis = jedisPool.getResource()) {
+          dispatched = consumeNext(jedis, count);
+        } finally {
+          outstanding.release(count - dispatched);
         }
       }
+      // Lets in-flight sends complete so that they are acknowledged below.
+      outstanding.tryAcquire(
+          ConsumerSettings.MAX_OUTSTANDING_MESSAGES,
+          ConsumerSettings.K8S_GRACE_PERIOD_MILLIS / 2,
+          TimeUnit.MILLISECONDS);
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    } finally {
+      ackExecutor.shutdown();
+      flushAcknowledgements();
     }
   }
 
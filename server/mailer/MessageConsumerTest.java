@@ -1,10 +1,23 @@
 package keyring.server.mailer;
 
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import keyring.server.mailer.requests.MailVc;
 import keyring.server.main.messagebroker.MessageBrokerClient;
 import name.falgout.jeffrey.testing.junit5.MockitoExtension;
 import org.junit.jupiter.api.BeforeEach;
@@ -15,8 +28,13 @@ import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.params.XClaimParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
 
 @ExtendWith(MockitoExtension.class)
 @Testcontainers
@@ -29,22 +47,27 @@ class MessageConsumerTest {
   private static final String USERNAME = "username";
   private static final String CODE = "0";
 
-  @Mock private Environment mockEnvironment;
   private static JedisPool jedisPool;
   @Mock private MailClient mockMailClient;
   private MessageBrokerClient messageBrokerClient;
+  private Set<StreamEntryID> inFlight;
   private MessageConsumer messageConsumer;
 
   @BeforeEach
   void beforeEach() {
-    when(mockEnvironment.getConsumerName()).thenReturn("default");
     jedisPool =
         new JedisPool(
             new JedisPoolConfig(), redisContainer.getHost(), redisContainer.getFirstMappedPort());
     messageBrokerClient = new MessageBrokerClient(jedisPool);
+    inFlight = ConcurrentHashMap.newKeySet();
     messageConsumer =
         new MessageConsumer(
-            mockEnvironment, jedisPool, MoreExecutors.newDirectExecutorService(), mockMailClient);
+            "default-0",
+            jedisPool,
+            MoreExecutors.newDirectExecutorService(),
+            mockMailClient,
+            new DeadLetters(jedisPool),
+            inFlight);
   }
 
   @Test
@@ -64,4 +87,142 @@ class MessageConsumerTest {
 
     verify(mockMailClient).sendMailVc(MAIL, USERNAME, CODE);
   }
+
+  @Test
+  void consumesSeveralRequests_batchesAndAcknowledgesAll() throws InterruptedException {
+    doAnswer(
+            (invocation) -> {
+              messageConsumer.stop();
+              return null;
+            })
+        .when(mockMailClient)
+        .sendMailVcs(any());
+    messageBrokerClient.publishMailVc(MAIL, USERNAME, "0");
+    messageBrokerClient.publishMailVc(MAIL, USERNAME, "1");
+    messageBrokerClient.publishMailVc(MAIL, USERNAME, "2");
+
+    Thread thread = new Thread(messageConsumer);
+    thread.start();
+    thread.join();
+
+    verify(mockMailClient)
+        .sendMailVcs(
+            ImmutableList.of(
+                MailVc.newBuilder().setMail(MAIL).setUsername(USERNAME).setCode("0").build(),
+                MailVc.newBuilder().setMail(MAIL).setUsername(USERNAME).setCode("1").build(),
+                MailVc.newBuilder().setMail(MAIL).setUsername(USERNAME).setCode("2").build()));
+    try (Jedis jedis = jedisPool.getResource()) {
+      assertEquals(
+          0L, jedis.xpending(BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP).getTotal());
+    }
+  }
+
+  @Test
+  void consumesRedeliveredRequests_sendsOneByOne() throws InterruptedException {
+    doAnswer(
+            (invocation) -> {
+              messageConsumer.stop();
+              return null;
+            })
+        .when(mockMailClient)
+        .sendMailVc(MAIL, USERNAME, "1");
+    messageBrokerClient.publishMailVc(MAIL, USERNAME, "0");
+    messageBrokerClient.publishMailVc(MAIL, USERNAME, "1");
+    try (Jedis jedis = jedisPool.getResource()) {
+      createGroup(jedis);
+      // Delivered to the same consumer before a restart.
+      jedis.xreadGroup(
+          BrokerKeys.DEFAULT_GROUP,
+          "default-0",
+          new XReadGroupParams().count(2),
+          ImmutableMap.of(BrokerKeys.MAILER_STREAM, StreamEntryID.UNRECEIVED_ENTRY));
+    }
+
+    Thread thread = new Thread(messageConsumer);
+    thread.start();
+    thread.join();
+
+    verify(mockMailClient).sendMailVc(MAIL, USERNAME, "0");
+    verify(mockMailClient).sendMailVc(MAIL, USERNAME, "1");
+    verify(mockMailClient, never()).sendMailVcs(any());
+  }
+
+  @Test
+  void claim_followsBackoffSchedule() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      createGroup(jedis);
+      // Backoffs are 8s, 16s, 32s, 64s and then 128s.
+      StreamEntryID firstRetry = publishPending(jedis, 1, Duration.ofSeconds(9));
+      publishPending(jedis, 2, Duration.ofSeconds(9));
+      StreamEntryID thirdRetry = publishPending(jedis, 3, Duration.ofSeconds(33));
+      publishPending(jedis, 5, Duration.ofSeconds(127));
+
+      List<StreamEntry> claimed = messageConsumer.claim(jedis, 16);
+
+      assertEquals(
+          ImmutableList.of(firstRetry, thirdRetry),
+          claimed.stream().map(StreamEntry::getID).collect(toList()));
+    }
+  }
+
+  @Test
+  void claim_inFlight_skipsEntry() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      createGroup(jedis);
+      StreamEntryID entryId = publishPending(jedis, 1, Duration.ofSeconds(9));
+      inFlight.add(entryId);
+
+      assertTrue(messageConsumer.claim(jedis, 16).isEmpty());
+      assertEquals(
+          1L, jedis.xpending(BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP).getTotal());
+    }
+  }
+
+  @Test
+  void claim_maxDeliveries_movesToDeadLetters() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      createGroup(jedis);
+      StreamEntryID entryId =
+          publishPending(jedis, ConsumerSettings.MAX_DELIVERIES, Duration.ofMinutes(5));
+
+      assertTrue(messageConsumer.claim(jedis, 16).isEmpty());
+      assertEquals(
+          0L, jedis.xpending(BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP).getTotal());
+      List<StreamEntry> deadLetters = jedis.xrange(BrokerKeys.MAILER_DLQ, "-", "+", 16);
+      assertEquals(1, deadLetters.size());
+      Map<String, String> fields = deadLetters.get(0).getFields();
+      assertEquals(entryId.toString(), fields.get(BrokerKeys.SOURCE_ID_FIELD));
+      assertEquals(
+          String.valueOf(ConsumerSettings.MAX_DELIVERIES), fields.get(BrokerKeys.DELIVERIES_FIELD));
+    }
+  }
+
+  private void createGroup(Jedis jedis) {
+    jedis.xgroupCreate(
+        BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP, new StreamEntryID(), true);
+  }
+
+  /** Publishes a request and leaves it pending with a given delivery count and idle time. */
+  private StreamEntryID publishPending(Jedis jedis, long deliveries, Duration idle) {
+    messageBrokerClient.publishMailVc(MAIL, USERNAME, CODE);
+    StreamEntryID entryId =
+        Iterables.getOnlyElement(
+                Iterables.getOnlyElement(
+                        jedis.xreadGroup(
+                            BrokerKeys.DEFAULT_GROUP,
+                            "default-1",
+                            new XReadGroupParams().count(1),
+                            ImmutableMap.of(
+                                BrokerKeys.MAILER_STREAM, StreamEntryID.UNRECEIVED_ENTRY)))
+                    .getValue())
+            .getID();
+    jedis.xclaimJustId(
+        BrokerKeys.MAILER_STREAM,
+        BrokerKeys.DEFAULT_GROUP,
+        "default-1",
+        0,
+        new XClaimParams().idle(idle.toMillis()).retryCount((int) deliveries),
+        entryId);
+    return entryId;
+  }
 }
@@ -0,0 +1,146 @@
+package keyring.server.mailer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.escape.Escaper;
+import com.google.common.escape.Escapers;
+import com.google.common.html.HtmlEscapers;
+import io.pebbletemplates.pebble.template.PebbleTemplate;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.html.HtmlRenderer;
+
+/**
+ * Evaluates a Pebble template once into static segments with variable slots in between.
+ *
+ * <p>Every variable is bound to a unique token, and Markdown templates are converted to HTML right
+ * away. A send then only joins the segments with escaped values, which are never interpreted as
+ * Markdown.
+ */
+final class PrecompiledTemplate {
+  // Both are immutable and safe to share between threads.
+  private static final Parser MARKDOWN_PARSER = Parser.builder().build();
+  private static final HtmlRenderer HTML_RENDERER = HtmlRenderer.builder().build();
+  private static final String SLOT_FORMAT = "PRECOMPILEDSLOT%dEND";
+  private static final Pattern SLOT_PATTERN = Pattern.compile("PRECOMPILEDSLOT(\\d+)END");
+
+  private final ImmutableList<String> segments;
+  // The variable of the slot after `segments.get(index)`.
+  private final ImmutableList<String> slots;
+  private final Escaper escaper;
+  private final int staticLength;
+
+  private PrecompiledTemplate(
+      PebbleTemplate template,
+      List<String> variables,
+      UnaryOperator<String> converter,
+      Escaper escaper) {
+    Map<String, Object> context = new HashMap<>();
+    for (int index = 0; index < variables.size(); ++index) {
+      context.put(variables.get(index), String.format(SLOT_FORMAT, index));
+    }
+    String skeleton = converter.apply(evaluate(template, context));
+    ImmutableList.Builder<String> segmentsBuilder = ImmutableList.builder();
+    List<String> slots = new ArrayList<>();
+    Matcher matcher = SLOT_PATTERN.matcher(skeleton);
+    int segmentStart = 0;
+    int staticLength = 0;
+    while (matcher.find()) {
+      int variableIndex = Integer.parseInt(matcher.group(1));
+      if (variableIndex >= variables.size()) {
+        throw new IllegalArgumentException(
+            String.format("Template `%s` contains a foreign slot", template.getName()));
+      }
+      segmentsBuilder.add(skeleton.substring(segmentStart, matcher.start()));
+      staticLength += matcher.start() - segmentStart;
+      slots.add(variables.get(variableIndex));
+      segmentStart = matcher.end();
+    }
+    segmentsBuilder.add(skeleton.substring(segmentStart));
+    staticLength += skeleton.length() - segmentStart;
+    for (String variable : variables) {
+      if (!slots.contains(variable)) {
+        // E.g. a filter or a link destination transformed the token.
+        throw new IllegalArgumentException(
+            String.format(
+                "Variable `%s` of template `%s` cannot be precompiled",
+                variable, template.getName()));
+      }
+    }
+    this.segments = segmentsBuilder.build();
+    this.slots = ImmutableList.copyOf(slots);
+    this.escaper = escaper;
+    this.staticLength = staticLength;
+  }
+
+  private static String evaluate(PebbleTemplate template, Map<String, Object> context) {
+    StringWriter writer = new StringWriter();
+    try {
+      template.evaluate(writer, context);
+    } catch (IOException exception) {
+      throw new RuntimeException(exception);
+    }
+    return writer.toString();
+  }
+
+  /** For plain text such as subjects, values are substituted as is. */
+  static PrecompiledTemplate text(PebbleTemplate template, String... variables) {
+    return new PrecompiledTemplate(
+        template,
+        ImmutableList.copyOf(variables),
+        UnaryOperator.identity(),
+        Escapers.nullEscaper());
+  }
+
+  /** Converts Markdown to HTML; values are HTML-escaped. */
+  static PrecompiledTemplate markdown(PebbleTemplate template, String... variables) {
+    return new PrecompiledTemplate(
+        template,
+        ImmutableList.copyOf(variables),
+        markdown -> HTML_RENDERER.render(MARKDOWN_PARSER.parse(markdown)),
+        HtmlEscapers.htmlEscaper());
+  }
+
+  /** Renders every slot as `placeholder.apply(variable)` with no escaping. */
+  String renderPlaceholders(UnaryOperator<String> placeholder) {
+    StringBuilder builder = new StringBuilder(staticLength + 32 * slots.size());
+    for (int index = 0; index < slots.size(); ++index) {
+      builder.append(segments.get(index)).append(placeholder.apply(slots.get(index)));
+    }
+    return builder.append(segments.get(slots.size())).toString();
+  }
+
+  /** Escapes the values of `context` for substitution into `renderPlaceholders`. */
+  Map<String, String> escape(Map<String, Object> context) {
+    Map<String, String> variableToValue = new HashMap<>();
+    for (String variable : slots) {
+      Object value = context.get(variable);
+      if (value == null) {
+        throw new IllegalArgumentException(String.format("Missing a value for `%s`", variable));
+      }
+      variableToValue.put(variable, escaper.escape(value.toString()));
+    }
+    return variableToValue;
+  }
+
+  String render(Map<String, Object> context) {
+    StringBuilder builder = new StringBuilder(staticLength + 32 * slots.size());
+    for (int index = 0; index < slots.size(); ++index) {
+      builder.append(segments.get(index));
+      Object value = context.get(slots.get(index));
+      if (value == null) {
+        throw new IllegalArgumentException(
+            String.format("Missing a value for `%s`", slots.get(index)));
+      }
+      builder.append(escaper.escape(value.toString()));
+    }
+    return builder.append(segments.get(slots.size())).toString();
+  }
+}
@@ -0,0 +1,28 @@
+package keyring.server.mailer;
+
+import com.beust.jcommander.JCommander;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the entries of `MAILER_DLQ` to `MAILER_STREAM` again, e.g. after an outage.
+ *
+ * <p>Replays only as many as the stream has room for, see `DeadLetters.replay`.
+ */
+final class ReplayDeadLetters {
+  private static final Logger logger = Logger.getLogger(ReplayDeadLetters.class.getName());
+
+  public static void main(String[] args) {
+    Environment environment = new Environment();
+    JCommander.newBuilder().addObject(environment).build().parse(args);
+    AppComponent appComponent = DaggerAppComponent.builder().environment(environment).build();
+    DeadLetters deadLetters = appComponent.deadLetters();
+    int count = deadLetters.replay();
+    logger.info(String.format("Replayed %d dead letters", count));
+    long left = deadLetters.countLeft();
+    if (left > 0) {
+      logger.warning(
+          String.format(
+              "The mailer stream is backed up, run again for the %d dead letters left", left));
+    }
+  }
+}
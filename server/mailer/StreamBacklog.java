@@ -0,0 +1,42 @@
+package keyring.server.mailer;
+
+import java.util.List;
+import java.util.Optional;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.resps.StreamGroupInfo;
+
+/** Measures how far `DEFAULT_GROUP` lags behind `MAILER_STREAM`, which is trimmed to a cap. */
+public final class StreamBacklog {
+  private static final String LAG_FIELD = "lag";
+
+  private StreamBacklog() {}
+
+  /**
+   * Counts entries the group is yet to acknowledge: pending ones plus undelivered ones.
+   *
+   * <p>Anything beyond `MAILER_MAX_LEN` of them is lost to trimming. Undelivered ones are read off
+   * the `lag` of the group; where Redis cannot tell it, the whole stream is counted instead.
+   */
+  public static long countUnacknowledged(Jedis jedis) {
+    Pipeline pipeline = jedis.pipelined();
+    Response<Long> streamLength = pipeline.xlen(BrokerKeys.MAILER_STREAM);
+    // Replies with an error if there is no stream, so it is only read for a non-empty one.
+    Response<List<StreamGroupInfo>> groups = pipeline.xinfoGroup(BrokerKeys.MAILER_STREAM);
+    pipeline.sync();
+    if (streamLength.get() == 0) {
+      return 0;
+    }
+    Optional<StreamGroupInfo> group =
+        groups.get().stream()
+            .filter(groupInfo -> BrokerKeys.DEFAULT_GROUP.equals(groupInfo.getName()))
+            .findAny();
+    if (!group.isPresent()) {
+      return streamLength.get();
+    }
+    // Absent before Redis 7.0, and `null` whenever Redis cannot tell it.
+    Object lag = group.get().getGroupInfo().get(LAG_FIELD);
+    return group.get().getPending() + (lag instanceof Long ? (Long) lag : streamLength.get());
+  }
+}
@@ -2,21 +2,34 @@ package keyring.server.mailer;
 
 import com.google.common.collect.ImmutableMap;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
-import java.io.IOException;
-import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import org.commonmark.node.Node;
-import org.commonmark.parser.Parser;
-import org.commonmark.renderer.html.HtmlRenderer;
+import java.util.Set;
+import java.util.function.Function;
+import keyring.server.mailer.requests.DeactivationNotice;
+import keyring.server.mailer.requests.MailVc;
+import keyring.server.mailer.requests.UncompletedAuthn;
 
+/**
+ * Renders precompiled templates, so that a send neither evaluates Pebble nor parses Markdown.
+ *
+ * <p>Batches render the templates once with placeholders and leave substitution to `MailService`.
+ */
 class TemplatedMailClient implements MailClient {
+  private static final String HEAD_PREFIX = "head_";
+  private static final String BODY_PREFIX = "body_";
+
   private MailService mailService;
-  private PebbleTemplate mailVcHeadTemplate;
-  private PebbleTemplate mailVcBodyTemplate;
-  private PebbleTemplate uncompletedAuthnHeadTemplate;
-  private PebbleTemplate uncompletedAuthnBodyTemplate;
-  private PebbleTemplate deactivationNoticeHeadTemplate;
-  private PebbleTemplate deactivationNoticeBodyTemplate;
+  private PrecompiledTemplate mailVcHeadTemplate;
+  private PrecompiledTemplate mailVcBodyTemplate;
+  private PrecompiledTemplate uncompletedAuthnHeadTemplate;
+  private PrecompiledTemplate uncompletedAuthnBodyTemplate;
+  private PrecompiledTemplate deactivationNoticeHeadTemplate;
+  private PrecompiledTemplate deactivationNoticeBodyTemplate;
 
   TemplatedMailClient(
       MailService mailService,
@@ -27,68 +40,157 @@ class TemplatedMailClient implements MailClient {
       PebbleTemplate deactivationNoticeHeadTemplate,
       PebbleTemplate deactivationNoticeBodyTemplate) {
     this.mailService = mailService;
-    this.mailVcHeadTemplate = mailVcHeadTemplate;
-    this.mailVcBodyTemplate = mailVcBodyTemplate;
-    this.uncompletedAuthnHeadTemplate = uncompletedAuthnHeadTemplate;
-    this.uncompletedAuthnBodyTemplate = uncompletedAuthnBodyTemplate;
-    this.deactivationNoticeHeadTemplate = deactivationNoticeHeadTemplate;
-    this.deactivationNoticeBodyTemplate = deactivationNoticeBodyTemplate;
-  }
-
-  private String convertMarkdownToHtml(String markdown) {
-    Parser parser = Parser.builder().build();
-    Node document = parser.parse(markdown);
-    HtmlRenderer renderer = HtmlRenderer.builder().build();
-    return renderer.render(document);
-  }
-
-  private String renderTemplate(PebbleTemplate template, Map<String, Object> context) {
-    StringWriter writer = new StringWriter();
-    try {
-      template.evaluate(writer, context);
-    } catch (IOException exception) {
-      throw new RuntimeException(exception);
-    }
-    return writer.toString();
+    this.mailVcHeadTemplate = PrecompiledTemplate.text(mailVcHeadTemplate, "code");
+    this.mailVcBodyTemplate = PrecompiledTemplate.markdown(mailVcBodyTemplate, "username", "code");
+    this.uncompletedAuthnHeadTemplate = PrecompiledTemplate.text(uncompletedAuthnHeadTemplate);
+    this.uncompletedAuthnBodyTemplate =
+        PrecompiledTemplate.markdown(uncompletedAuthnBodyTemplate, "username", "ipAddress");
+    this.deactivationNoticeHeadTemplate = PrecompiledTemplate.text(deactivationNoticeHeadTemplate);
+    this.deactivationNoticeBodyTemplate =
+        PrecompiledTemplate.markdown(
+            deactivationNoticeBodyTemplate, "username", "inactivityPeriodYears", "daysLeft");
   }
 
   @Override
   public void sendMailVc(String to, String username, String code) {
-    String head = renderTemplate(mailVcHeadTemplate, ImmutableMap.of("code", code));
-    String body =
-        convertMarkdownToHtml(
-            renderTemplate(
-                mailVcBodyTemplate, ImmutableMap.of("username", username, "code", code)));
+    String head = mailVcHeadTemplate.render(ImmutableMap.of("code", code));
+    String body = mailVcBodyTemplate.render(ImmutableMap.of("username", username, "code", code));
 
     this.mailService.send(to, head, body);
   }
 
   @Override
   public void sendUncompletedAuthn(String to, String username, String ipAddress) {
-    String head = renderTemplate(uncompletedAuthnHeadTemplate, ImmutableMap.of());
+    String head = uncompletedAuthnHeadTemplate.render(ImmutableMap.of());
     String body =
-        convertMarkdownToHtml(
-            renderTemplate(
-                uncompletedAuthnBodyTemplate,
-                ImmutableMap.of("username", username, "ipAddress", ipAddress)));
+        uncompletedAuthnBodyTemplate.render(
+            ImmutableMap.of("username", username, "ipAddress", ipAddress));
     this.mailService.send(to, head, body);
   }
 
   @Override
   public void sendDeactivationNotice(
       String to, String username, int inactivityPeriodYears, int daysLeft) {
-    String head = renderTemplate(deactivationNoticeHeadTemplate, ImmutableMap.of());
+    String head = deactivationNoticeHeadTemplate.render(ImmutableMap.of());
     String body =
-        convertMarkdownToHtml(
-            renderTemplate(
-                deactivationNoticeBodyTemplate,
+        deactivationNoticeBodyTemplate.render(
+            ImmutableMap.of(
+                "username",
+                username,
+                "inactivityPeriodYears",
+                inactivityPeriodYears,
+                "daysLeft",
+                daysLeft));
+    this.mailService.send(to, head, body);
+  }
+
+  private static final class Recipient {
+    private final String to;
+    private final Map<String, Object> context;
+
+    Recipient(String to, Map<String, Object> context) {
+      this.to = to;
+      this.context = context;
+    }
+  }
+
+  private void flushBatch(
+      PrecompiledTemplate headTemplate,
+      PrecompiledTemplate bodyTemplate,
+      List<Recipient> recipients) {
+    if (recipients.size() == 1) {
+      Recipient recipient = recipients.get(0);
+      this.mailService.send(
+          recipient.to,
+          headTemplate.render(recipient.context),
+          bodyTemplate.render(recipient.context));
+      return;
+    }
+    Map<String, Map<String, String>> recipientToVariables = new LinkedHashMap<>();
+    for (Recipient recipient : recipients) {
+      Map<String, String> variables = new HashMap<>();
+      headTemplate
+          .escape(recipient.context)
+          .forEach((variable, value) -> variables.put(HEAD_PREFIX + variable, value));
+      bodyTemplate
+          .escape(recipient.context)
+          .forEach((variable, value) -> variables.put(BODY_PREFIX + variable, value));
+      recipientToVariables.put(recipient.to, variables);
+    }
+    this.mailService.sendBatch(
+        headTemplate.renderPlaceholders(
+            variable -> MailService.placeholder(HEAD_PREFIX + variable)),
+        bodyTemplate.renderPlaceholders(
+            variable -> MailService.placeholder(BODY_PREFIX + variable)),
+        recipientToVariables);
+  }
+
+  /** Recipients are unique within a provider batch, so repeated addresses start a new one. */
+  private <T> void sendBatches(
+      PrecompiledTemplate headTemplate,
+      PrecompiledTemplate bodyTemplate,
+      List<T> requests,
+      Function<T, Recipient> toRecipient) {
+    List<Recipient> batch = new ArrayList<>();
+    Set<String> addresses = new HashSet<>();
+    for (T request : requests) {
+      Recipient recipient = toRecipient.apply(request);
+      if (addresses.contains(recipient.to)) {
+        flushBatch(headTemplate, bodyTemplate, batch);
+        batch = new ArrayList<>();
+        addresses.clear();
+      }
+      batch.add(recipient);
+      addresses.add(recipient.to);
+    }
+    if (!batch.isEmpty()) {
+      flushBatch(headTemplate, bodyTemplate, batch);
+    }
+  }
+
+  @Override
+  public void sendMailVcs(List<MailVc> mailVcs) {
+    sendBatches(
+        mailVcHeadTemplate,
+        mailVcBodyTemplate,
+        mailVcs,
+        mailVc ->
+            new Recipient(
+                mailVc.getMail(),
+                ImmutableMap.of("username", mailVc.getUsername(), "code", mailVc.getCode())));
+  }
+
+  @Override
+  public void sendUncompletedAuthns(List<UncompletedAuthn> uncompletedAuthns) {
+    sendBatches(
+        uncompletedAuthnHeadTemplate,
+        uncompletedAuthnBodyTemplate,
+        uncompletedAuthns,
+        uncompletedAuthn ->
+            new Recipient(
+                uncompletedAuthn.getMail(),
+                ImmutableMap.of(
+                    "username",
+                    uncompletedAuthn.getUsername(),
+                    "ipAddress",
+                    uncompletedAuthn.getIpAddress())));
+  }
+
+  @Override
+  public void sendDeactivationNotices(List<DeactivationNotice> deactivationNotices) {
+    sendBatches(
+        deactivationNoticeHeadTemplate,
+        deactivationNoticeBodyTemplate,
+        deactivationNotices,
+        deactivationNotice ->
+            new Recipient(
+                deactivationNotice.getMail(),
                 ImmutableMap.of(
                     "username",
-                    username,
+                    deactivationNotice.getUsername(),
                     "inactivityPeriodYears",
-                    inactivityPeriodYears,
+                    deactivationNotice.getInactivityPeriodYears(),
                     "daysLeft",
-                    daysLeft)));
-    this.mailService.send(to, head, body);
+                    deactivationNotice.getDaysLeft())));
   }
 }
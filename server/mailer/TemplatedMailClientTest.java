@@ -0,0 +1,174 @@
+package keyring.server.mailer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.pebbletemplates.pebble.PebbleEngine;
+import io.pebbletemplates.pebble.loader.ClasspathLoader;
+import io.pebbletemplates.pebble.template.PebbleTemplate;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import keyring.server.mailer.requests.DeactivationNotice;
+import keyring.server.mailer.requests.MailVc;
+import name.falgout.jeffrey.testing.junit5.MockitoExtension;
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.html.HtmlRenderer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+
+@ExtendWith(MockitoExtension.class)
+class TemplatedMailClientTest {
+  private static final String MAIL = "mail@example.com";
+
+  @Mock private MailService mockMailService;
+  @Captor private ArgumentCaptor<String> headCaptor;
+  @Captor private ArgumentCaptor<String> bodyCaptor;
+  @Captor private ArgumentCaptor<Map<String, Map<String, String>>> recipientsCaptor;
+
+  private PebbleEngine pebbleEngine;
+  private TemplatedMailClient templatedMailClient;
+
+  @BeforeEach
+  void beforeEach() {
+    ClasspathLoader loader = new ClasspathLoader();
+    loader.setPrefix("templates");
+    pebbleEngine = new PebbleEngine.Builder().loader(loader).build();
+    templatedMailClient =
+        new TemplatedMailClient(
+            mockMailService,
+            pebbleEngine.getTemplate("mail_vc_head.text.pebble"),
+            pebbleEngine.getTemplate("mail_vc_body.md.pebble"),
+            pebbleEngine.getTemplate("uncompleted_authn_head.text.pebble"),
+            pebbleEngine.getTemplate("uncompleted_authn_body.md.pebble"),
+            pebbleEngine.getTemplate("deactivation_notice_head.text.pebble"),
+            pebbleEngine.getTemplate("deactivation_notice_body.md.pebble"));
+  }
+
+  private String evaluate(String name, Map<String, Object> context) {
+    PebbleTemplate template = pebbleEngine.getTemplate(name);
+    StringWriter writer = new StringWriter();
+    try {
+      template.evaluate(writer, context);
+    } catch (IOException exception) {
+      throw new RuntimeException(exception);
+    }
+    return writer.toString();
+  }
+
+  private String evaluateMarkdown(String name, Map<String, Object> context) {
+    return HtmlRenderer.builder()
+        .build()
+        .render(Parser.builder().build().parse(evaluate(name, context)));
+  }
+
+  private void verifySend(String head, String body) {
+    verify(mockMailService).send(eq(MAIL), headCaptor.capture(), bodyCaptor.capture());
+    assertEquals(head, headCaptor.getValue());
+    assertEquals(body, bodyCaptor.getValue());
+  }
+
+  @Test
+  void sendMailVc_matchesEvaluation() {
+    templatedMailClient.sendMailVc(MAIL, "username", "0123");
+
+    verifySend(
+        evaluate("mail_vc_head.text.pebble", ImmutableMap.of("code", "0123")),
+        evaluateMarkdown(
+            "mail_vc_body.md.pebble", ImmutableMap.of("username", "username", "code", "0123")));
+  }
+
+  @Test
+  void sendUncompletedAuthn_matchesEvaluation() {
+    templatedMailClient.sendUncompletedAuthn(MAIL, "username", "127.0.0.1");
+
+    verifySend(
+        evaluate("uncompleted_authn_head.text.pebble", ImmutableMap.of()),
+        evaluateMarkdown(
+            "uncompleted_authn_body.md.pebble",
+            ImmutableMap.of("username", "username", "ipAddress", "127.0.0.1")));
+  }
+
+  @Test
+  void sendDeactivationNotice_matchesEvaluation() {
+    templatedMailClient.sendDeactivationNotice(MAIL, "username", 2, 7);
+
+    verifySend(
+        evaluate("deactivation_notice_head.text.pebble", ImmutableMap.of()),
+        evaluateMarkdown(
+            "deactivation_notice_body.md.pebble",
+            ImmutableMap.of("username", "username", "inactivityPeriodYears", 2, "daysLeft", 7)));
+  }
+
+  @Test
+  void sendMailVc_markup_escapesValues() {
+    templatedMailClient.sendMailVc(MAIL, "<b>`*user*`</b>", "0123");
+
+    verify(mockMailService).send(eq(MAIL), headCaptor.capture(), bodyCaptor.capture());
+    assertTrue(
+        bodyCaptor.getValue().contains("<code>&lt;b&gt;`*user*`&lt;/b&gt;</code>"),
+        bodyCaptor.getValue());
+  }
+
+  private static String substitute(String template, Map<String, String> variables) {
+    String result = template;
+    for (Map.Entry<String, String> variable : variables.entrySet()) {
+      result = result.replace(MailService.placeholder(variable.getKey()), variable.getValue());
+    }
+    return result;
+  }
+
+  @Test
+  void sendDeactivationNotices_distinctRecipients_sendsBatch() {
+    templatedMailClient.sendDeactivationNotices(
+        ImmutableList.of(
+            DeactivationNotice.newBuilder()
+                .setMail("first@example.com")
+                .setUsername("first")
+                .setInactivityPeriodYears(2)
+                .setDaysLeft(7)
+                .build(),
+            DeactivationNotice.newBuilder()
+                .setMail("second@example.com")
+                .setUsername("<second>")
+                .setInactivityPeriodYears(2)
+                .setDaysLeft(1)
+                .build()));
+
+    verify(mockMailService)
+        .sendBatch(headCaptor.capture(), bodyCaptor.capture(), recipientsCaptor.capture());
+    Map<String, Map<String, String>> recipientToVariables = recipientsCaptor.getValue();
+    assertEquals(
+        ImmutableList.of("first@example.com", "second@example.com"),
+        ImmutableList.copyOf(recipientToVariables.keySet()));
+    assertEquals(
+        evaluateMarkdown(
+            "deactivation_notice_body.md.pebble",
+            ImmutableMap.of("username", "first", "inactivityPeriodYears", 2, "daysLeft", 7)),
+        substitute(bodyCaptor.getValue(), recipientToVariables.get("first@example.com")));
+    assertTrue(
+        substitute(bodyCaptor.getValue(), recipientToVariables.get("second@example.com"))
+            .contains("<code>&lt;second&gt;</code>"));
+  }
+
+  @Test
+  void sendMailVcs_repeatedRecipient_splitsBatch() {
+    MailVc mailVc = MailVc.newBuilder().setMail(MAIL).setUsername("username").setCode("0").build();
+
+    templatedMailClient.sendMailVcs(ImmutableList.of(mailVc, mailVc));
+
+    verify(mockMailService, times(2)).send(eq(MAIL), any(), any());
+    verify(mockMailService, never()).sendBatch(any(), any(), any());
+  }
+}
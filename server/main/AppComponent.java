@@ -2,14 +2,20 @@ package keyring.server.main;
 
 import dagger.BindsInstance;
 import dagger.Component;
+import java.util.Optional;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.persistence.EntityManagerFactory;
+import keyring.server.main.aspects.ReadReplicaGuard;
 import keyring.server.main.geolocation.GeolocationModule;
 import keyring.server.main.interceptors.AgentInterceptor;
 import keyring.server.main.interceptors.SessionAccessor;
 import keyring.server.main.interceptors.SessionInterceptor;
 import keyring.server.main.interceptors.VersionInterceptor;
+import keyring.server.main.keyvalue.KeyValueClient;
 import keyring.server.main.keyvalue.KeyValueModule;
+import keyring.server.main.keyvalue.KvSessionCache;
+import keyring.server.main.messagebroker.MailerOutboxRelay;
 import keyring.server.main.services.AdministrationService;
 import keyring.server.main.services.AuthenticationService;
 import keyring.server.main.storage.AccountOperationsInterface;
@@ -34,12 +40,23 @@ interface AppComponent {
 
   EntityManagerFactory entityManagerFactory();
 
+  @Named("replica")
+  Optional<EntityManagerFactory> replicaEntityManagerFactory();
+
+  ReadReplicaGuard readReplicaGuard();
+
   AccountOperationsInterface accountOperationsInterface();
 
   AgentInterceptor agentInterceptor();
 
   VersionInterceptor versionInterceptor();
 
+  KvSessionCache kvSessionCache();
+
+  KeyValueClient keyValueClient();
+
+  MailerOutboxRelay mailerOutboxRelay();
+
   @Component.Builder
   interface Builder {
     @BindsInstance
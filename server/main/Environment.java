@@ -9,12 +9,40 @@ public class Environment {
   @Parameter(names = "--environment")
   private String type = "development";
 
+  // Zero keeps gRPC's default unbounded cached pool.
+  @Parameter(names = "--grpc_handler_threads")
+  private int grpcHandlerThreads = 0;
+
   @Parameter(names = "--redis_host")
   private String redisHost = "localhost";
 
+  @Parameter(names = "--redis_tombstone_chunk_size")
+  private int redisTombstoneChunkSize = 256;
+
+  // Opt-in: Redis windows are charged before the transaction commits and are never refunded, so
+  // rejected or rolled back requests still use up quota.
+  @Parameter(names = "--kv_limiters", arity = 1)
+  private boolean kvLimiters = false;
+
+  // Writes headered raw protos instead of Base64; to be enabled once every replica reads both.
+  @Parameter(names = "--kv_raw_values", arity = 1)
+  private boolean kvRawValues = false;
+
+  // Exceeds the expected replication lag; zero sends every `ReadOnly` operation to the replica.
+  @Parameter(names = "--replica_staleness_window_s")
+  private int replicaStalenessWindowS = 5;
+
   @Parameter(names = "--geolocation_address")
   private String geolocationAddress = "localhost:5003";
 
+  // Resolves addresses in-process instead of calling `--geolocation_address`.
+  @Parameter(names = "--geolocation_mmdb_path")
+  private String geolocationMmdbPath = "";
+
+  // Delay between drains of the mailer outbox, bounds the latency of verification mails.
+  @Parameter(names = "--mailer_outbox_relay_interval_ms")
+  private long mailerOutboxRelayIntervalMs = 250;
+
   private String mrgnVersion = "";
 
   public Environment(String mrgnVersion) {
@@ -33,18 +61,50 @@ public class Environment {
     return "production".equals(type);
   }
 
+  public int getGrpcHandlerThreads() {
+    return grpcHandlerThreads;
+  }
+
   public String getRedisHost() {
     return redisHost;
   }
 
+  public int getRedisTombstoneChunkSize() {
+    return redisTombstoneChunkSize;
+  }
+
+  public boolean areKvLimitersEnabled() {
+    return kvLimiters;
+  }
+
+  public boolean areKvRawValuesEnabled() {
+    return kvRawValues;
+  }
+
+  public int getReplicaStalenessWindowS() {
+    return replicaStalenessWindowS;
+  }
+
   public String getGeolocationAddress() {
     return geolocationAddress;
   }
 
+  public String getGeolocationMmdbPath() {
+    return geolocationMmdbPath;
+  }
+
+  public long getMailerOutboxRelayIntervalMs() {
+    return mailerOutboxRelayIntervalMs;
+  }
+
   public String getPostgresJdbcUri() {
     return getVariable("POSTGRES_JDBC_URI");
   }
 
+  public String getPostgresReplicaJdbcUri() {
+    return getVariable("POSTGRES_REPLICA_JDBC_URI");
+  }
+
   public String getPostgresUsername() {
     return getVariable("POSTGRES_USERNAME");
   }
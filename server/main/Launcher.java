@@ -3,19 +3,29 @@ package keyring.server.main;
 import com.beust.jcommander.JCommander;
 import com.google.common.base.Charsets;
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
 import io.grpc.ServerInterceptors;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import keyring.server.main.aspects.StorageManagerAspect;
 import keyring.server.main.aspects.ValidateUserAspect;
+import keyring.server.main.messagebroker.MailerOutboxRelay;
+import keyring.server.main.storage.Queries;
 import org.aspectj.lang.Aspects;
 
 class Launcher {
   private static final Logger logger = Logger.getLogger(Launcher.class.getName());
   private Server server;
+  private ExecutorService handlerExecutor;
+  private ScheduledExecutorService relayExecutor;
   private AppComponent appComponent;
 
   public static void main(String[] args) throws IOException, InterruptedException {
@@ -29,7 +39,7 @@ class Launcher {
     Launcher launcher = new Launcher();
     launcher.initialize(environment);
     Runtime.getRuntime().addShutdownHook(new Thread(launcher::cleanUp));
-    launcher.startServer(environment.getPort());
+    launcher.startServer(environment.getPort(), environment.getGrpcHandlerThreads());
     launcher.awaitTermination();
   }
 
@@ -37,12 +47,55 @@ class Launcher {
     appComponent = DaggerAppComponent.builder().environment(environment).build();
     Aspects.aspectOf(ValidateUserAspect.class)
         .initialize(appComponent.sessionAccessor(), appComponent.accountOperationsInterface());
-    Aspects.aspectOf(StorageManagerAspect.class).initialize(appComponent.entityManagerFactory());
+    Aspects.aspectOf(StorageManagerAspect.class)
+        .initialize(
+            appComponent.entityManagerFactory(),
+            appComponent.replicaEntityManagerFactory(),
+            appComponent.readReplicaGuard());
+    Queries.precompile(appComponent.entityManagerFactory());
+    appComponent.replicaEntityManagerFactory().ifPresent(Queries::precompile);
+    appComponent.keyValueClient().preloadScripts();
+    Thread kvSessionCacheThread = new Thread(appComponent.kvSessionCache()::subscribe);
+    kvSessionCacheThread.setDaemon(true);
+    kvSessionCacheThread.start();
+    startMailerOutboxRelay(environment.getMailerOutboxRelayIntervalMs());
   }
 
-  private void startServer(int port) throws IOException {
+  private void startMailerOutboxRelay(long intervalMs) {
+    MailerOutboxRelay mailerOutboxRelay = appComponent.mailerOutboxRelay();
+    relayExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("mailer-outbox-relay")
+                .setDaemon(true)
+                .build());
+    relayExecutor.scheduleWithFixedDelay(
+        () -> {
+          // An exception would cancel the subsequent runs.
+          try {
+            mailerOutboxRelay.run();
+          } catch (RuntimeException exception) {
+            logger.log(Level.WARNING, "Unable to relay the mailer outbox", exception);
+          }
+        },
+        0,
+        intervalMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void startServer(int port, int handlerThreads) throws IOException {
+    ServerBuilder<?> serverBuilder = ServerBuilder.forPort(port);
+    if (handlerThreads > 0) {
+      // Handlers block on JDBC and Redis, so the pools are sized to match, see `StorageModule`
+      // and `KeyValueModule`. Excess calls queue up instead of spawning threads.
+      handlerExecutor =
+          Executors.newFixedThreadPool(
+              handlerThreads,
+              new ThreadFactoryBuilder().setNameFormat("grpc-handler-%d").setDaemon(true).build());
+      serverBuilder.executor(handlerExecutor);
+    }
     server =
-        ServerBuilder.forPort(port)
+        serverBuilder
             .addService(
                 ServerInterceptors.interceptForward(
                     appComponent.authenticationService(),
@@ -63,6 +116,12 @@ class Launcher {
     if (server != null) {
       server.shutdown();
     }
+    if (handlerExecutor != null) {
+      handlerExecutor.shutdown();
+    }
+    if (relayExecutor != null) {
+      relayExecutor.shutdown();
+    }
   }
 
   private void awaitTermination() throws InterruptedException {
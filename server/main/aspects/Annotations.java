@@ -35,6 +35,18 @@ public class Annotations {
   @Target(ElementType.METHOD)
   public @interface WithEntityTransaction {}
 
+  /**
+   * Like `WithEntityTransaction`, but the transaction is `READ ONLY` and nothing gets flushed or
+   * snapshotted for dirty checking. Joins the enclosing transaction if there is one.
+   *
+   * <p>Otherwise runs against the read replica, if any, unless `ReadReplicaGuard` objects or the
+   * enclosing `WithEntityManager` has already committed a write. Returned entities must not be
+   * passed to writing operations.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.METHOD)
+  public @interface ReadOnly {}
+
   @Retention(RetentionPolicy.RUNTIME)
   @Target(ElementType.METHOD)
   public @interface LockEntity {
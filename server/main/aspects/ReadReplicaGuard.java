@@ -0,0 +1,9 @@
+package keyring.server.main.aspects;
+
+/** Decides whether `ReadOnly` operations may tolerate replication lag. */
+public interface ReadReplicaGuard {
+  boolean allowsReplica();
+
+  /** Invoked after every committed `WithEntityTransaction` on the primary. */
+  void recordWrite();
+}
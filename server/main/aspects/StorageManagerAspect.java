@@ -1,6 +1,7 @@
 package keyring.server.main.aspects;
 
 import com.google.common.base.Preconditions;
+import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.persistence.EntityManager;
@@ -9,6 +10,7 @@ import javax.persistence.EntityTransaction;
 import javax.persistence.LockModeType;
 import keyring.server.main.aspects.Annotations.ContextualEntityManager;
 import keyring.server.main.aspects.Annotations.LockEntity;
+import keyring.server.main.aspects.Annotations.ReadOnly;
 import keyring.server.main.aspects.Annotations.WithEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityTransaction;
 import keyring.server.main.storage.StorageException;
@@ -17,19 +19,38 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Before;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 
 @Aspect
 public class StorageManagerAspect {
   private static final Logger logger = Logger.getLogger(StorageManagerAspect.class.getName());
   private EntityManagerFactory entityManagerFactory;
+  private Optional<EntityManagerFactory> replicaEntityManagerFactory;
+  private ReadReplicaGuard readReplicaGuard;
   private ThreadLocal<EntityManager> threadLocalEntityManager;
+  private ThreadLocal<EntityManager> threadLocalReplicaEntityManager;
   private ThreadLocal<EntityTransaction> threadLocalEntityTransaction;
+  private ThreadLocal<Boolean> threadLocalHasCommittedWrite;
 
   // https://www.eclipse.org/aspectj/doc/next/progguide/semantics-advice.html > Advice precedence
   public void initialize(EntityManagerFactory entityManagerFactory) {
+    initialize(entityManagerFactory, Optional.empty(), null);
+  }
+
+  public void initialize(
+      EntityManagerFactory entityManagerFactory,
+      Optional<EntityManagerFactory> replicaEntityManagerFactory,
+      ReadReplicaGuard readReplicaGuard) {
+    Preconditions.checkArgument(
+        !replicaEntityManagerFactory.isPresent() || readReplicaGuard != null);
     this.entityManagerFactory = entityManagerFactory;
+    this.replicaEntityManagerFactory = replicaEntityManagerFactory;
+    this.readReplicaGuard = readReplicaGuard;
     threadLocalEntityManager = new ThreadLocal<>();
+    threadLocalReplicaEntityManager = new ThreadLocal<>();
     threadLocalEntityTransaction = new ThreadLocal<>();
+    threadLocalHasCommittedWrite = new ThreadLocal<>();
   }
 
   @Around("@annotation(contextualEntityManager) && get(* *)")
@@ -50,6 +71,10 @@ public class StorageManagerAspect {
     } finally {
       entityManager.close();
       threadLocalEntityManager.remove();
+      // Replica entities stay attached for as long as primary ones do.
+      Optional.ofNullable(threadLocalReplicaEntityManager.get()).ifPresent(EntityManager::close);
+      threadLocalReplicaEntityManager.remove();
+      threadLocalHasCommittedWrite.remove();
     }
   }
 
@@ -59,15 +84,56 @@ public class StorageManagerAspect {
     if (threadLocalEntityTransaction.get() != null) {
       return joinPoint.proceed();
     }
+    return proceedInTransaction(joinPoint, /* readOnly */ false);
+  }
+
+  @Around("@annotation(readOnly) && execution(* *(..))")
+  public Object executeReadOnly(ReadOnly readOnly, ProceedingJoinPoint joinPoint) throws Throwable {
+    if (threadLocalEntityTransaction.get() != null) {
+      return joinPoint.proceed();
+    }
+    if (!replicaEntityManagerFactory.isPresent()
+        || threadLocalHasCommittedWrite.get() != null
+        || !readReplicaGuard.allowsReplica()) {
+      return proceedInTransaction(joinPoint, /* readOnly */ true);
+    }
+    EntityManager entityManager = threadLocalEntityManager.get();
+    Preconditions.checkNotNull(entityManager);
+    EntityManager replicaEntityManager = threadLocalReplicaEntityManager.get();
+    if (replicaEntityManager == null) {
+      replicaEntityManager = replicaEntityManagerFactory.get().createEntityManager();
+      threadLocalReplicaEntityManager.set(replicaEntityManager);
+    }
+    threadLocalEntityManager.set(replicaEntityManager);
+    try {
+      return proceedInTransaction(joinPoint, /* readOnly */ true);
+    } finally {
+      threadLocalEntityManager.set(entityManager);
+    }
+  }
 
+  private Object proceedInTransaction(ProceedingJoinPoint joinPoint, boolean readOnly)
+      throws Throwable {
     EntityManager entityManager = threadLocalEntityManager.get();
     Preconditions.checkNotNull(entityManager);
     EntityTransaction entityTransaction = entityManager.getTransaction();
     threadLocalEntityTransaction.set(entityTransaction);
 
+    Session session = null;
+    FlushMode flushMode = null;
+    boolean defaultReadOnly = false;
     Object value;
     try {
       entityTransaction.begin();
+      if (readOnly) {
+        session = entityManager.unwrap(Session.class);
+        flushMode = session.getHibernateFlushMode();
+        defaultReadOnly = session.isDefaultReadOnly();
+        session.setHibernateFlushMode(FlushMode.MANUAL);
+        session.setDefaultReadOnly(true);
+        // Must precede any other statement of the transaction.
+        entityManager.createNativeQuery("SET TRANSACTION READ ONLY").executeUpdate();
+      }
       value = joinPoint.proceed();
       entityTransaction.commit();
     } catch (Throwable throwable) {
@@ -80,8 +146,21 @@ public class StorageManagerAspect {
       }
       throw new StorageException(throwable);
     } finally {
+      if (session != null) {
+        session.setHibernateFlushMode(flushMode);
+        session.setDefaultReadOnly(defaultReadOnly);
+      }
       threadLocalEntityTransaction.remove();
     }
+    if (!readOnly && replicaEntityManagerFactory.isPresent()) {
+      threadLocalHasCommittedWrite.set(true);
+      try {
+        readReplicaGuard.recordWrite();
+      } catch (RuntimeException exception) {
+        // The write itself has been committed, only later requests may see lagging reads.
+        logger.log(Level.WARNING, "Unable to record a write", exception);
+      }
+    }
     return value;
   }
 
@@ -3,16 +3,19 @@ package keyring.server.main.aspects;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.lang.annotation.Annotation;
+import java.util.Optional;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.LockModeType;
+import javax.persistence.Query;
 import keyring.server.main.aspects.Annotations.LockEntity;
 import keyring.server.main.entities.User;
 import keyring.server.main.storage.StorageException;
@@ -20,9 +23,12 @@ import name.falgout.jeffrey.testing.junit5.MockitoExtension;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 
 @ExtendWith(MockitoExtension.class)
@@ -187,6 +193,104 @@ class StorageManagerAspectTest {
     verify(mockEntityTransaction).commit();
   }
 
+  @Test
+  void executeReadOnly_restoresSessionSettings() throws Throwable {
+    Session mockSession = mock(Session.class);
+    Query mockQuery = mock(Query.class);
+    when(mockEntityManager.unwrap(Session.class)).thenReturn(mockSession);
+    when(mockSession.getHibernateFlushMode()).thenReturn(FlushMode.AUTO);
+    when(mockEntityManager.createNativeQuery("SET TRANSACTION READ ONLY")).thenReturn(mockQuery);
+    when(mockManagerJoinPoint.proceed())
+        .then(
+            (Void) -> {
+              storageManagerAspect.executeReadOnly(null, mockTransactionJoinPoint);
+              return null;
+            });
+
+    storageManagerAspect.executeWithEntityManager(null, mockManagerJoinPoint);
+
+    InOrder inOrder = inOrder(mockEntityTransaction, mockSession, mockQuery);
+    inOrder.verify(mockEntityTransaction).begin();
+    inOrder.verify(mockSession).setHibernateFlushMode(FlushMode.MANUAL);
+    inOrder.verify(mockSession).setDefaultReadOnly(true);
+    inOrder.verify(mockQuery).executeUpdate();
+    inOrder.verify(mockEntityTransaction).commit();
+    inOrder.verify(mockSession).setHibernateFlushMode(FlushMode.AUTO);
+    inOrder.verify(mockSession).setDefaultReadOnly(false);
+  }
+
+  @Test
+  void executeReadOnly_replicaAllowed_bindsReplicaEntityManager() throws Throwable {
+    EntityManagerFactory mockReplicaEntityManagerFactory = mock(EntityManagerFactory.class);
+    EntityManager mockReplicaEntityManager = mock(EntityManager.class);
+    ReadReplicaGuard mockReadReplicaGuard = mock(ReadReplicaGuard.class);
+    storageManagerAspect.initialize(
+        mockEntityManagerFactory,
+        Optional.of(mockReplicaEntityManagerFactory),
+        mockReadReplicaGuard);
+    when(mockReplicaEntityManagerFactory.createEntityManager())
+        .thenReturn(mockReplicaEntityManager);
+    when(mockReplicaEntityManager.getTransaction()).thenReturn(mockEntityTransaction);
+    when(mockReplicaEntityManager.unwrap(Session.class)).thenReturn(mock(Session.class));
+    when(mockReplicaEntityManager.createNativeQuery("SET TRANSACTION READ ONLY"))
+        .thenReturn(mock(Query.class));
+    when(mockReadReplicaGuard.allowsReplica()).thenReturn(true);
+    when(mockTransactionJoinPoint.proceed())
+        .then(
+            (Void) -> {
+              assertEquals(
+                  mockReplicaEntityManager, storageManagerAspect.getContextualEntityManager(null));
+              return null;
+            });
+    when(mockManagerJoinPoint.proceed())
+        .then(
+            (Void) -> {
+              storageManagerAspect.executeReadOnly(null, mockTransactionJoinPoint);
+              assertEquals(
+                  mockEntityManager, storageManagerAspect.getContextualEntityManager(null));
+              return null;
+            });
+
+    storageManagerAspect.executeWithEntityManager(null, mockManagerJoinPoint);
+
+    verify(mockTransactionJoinPoint).proceed();
+    verify(mockReplicaEntityManager).close();
+  }
+
+  @Test
+  void executeReadOnly_afterCommittedWrite_staysOnPrimary() throws Throwable {
+    EntityManagerFactory mockReplicaEntityManagerFactory = mock(EntityManagerFactory.class);
+    ReadReplicaGuard mockReadReplicaGuard = mock(ReadReplicaGuard.class);
+    storageManagerAspect.initialize(
+        mockEntityManagerFactory,
+        Optional.of(mockReplicaEntityManagerFactory),
+        mockReadReplicaGuard);
+    when(mockEntityManager.unwrap(Session.class)).thenReturn(mock(Session.class));
+    when(mockEntityManager.createNativeQuery("SET TRANSACTION READ ONLY"))
+        .thenReturn(mock(Query.class));
+    ProceedingJoinPoint mockReadOnlyJoinPoint = mock(ProceedingJoinPoint.class);
+    when(mockReadOnlyJoinPoint.proceed())
+        .then(
+            (Void) -> {
+              assertEquals(
+                  mockEntityManager, storageManagerAspect.getContextualEntityManager(null));
+              return null;
+            });
+    when(mockManagerJoinPoint.proceed())
+        .then(
+            (Void) -> {
+              storageManagerAspect.executeWithEntityTransaction(null, mockTransactionJoinPoint);
+              storageManagerAspect.executeReadOnly(null, mockReadOnlyJoinPoint);
+              return null;
+            });
+
+    storageManagerAspect.executeWithEntityManager(null, mockManagerJoinPoint);
+
+    verify(mockReadReplicaGuard).recordWrite();
+    verify(mockReadOnlyJoinPoint).proceed();
+    verify(mockReplicaEntityManagerFactory, never()).createEntityManager();
+  }
+
   @Test
   void executeLockEntity_locksMatchingArgument() throws Throwable {
     when(mockManagerJoinPoint.proceed())
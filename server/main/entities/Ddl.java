@@ -15,8 +15,10 @@ final class Ddl {
     MetadataSources metadataSources = new MetadataSources(serviceRegistry);
     metadataSources.addAnnotatedClass(FeaturePrompts.class);
     metadataSources.addAnnotatedClass(Key.class);
+    metadataSources.addAnnotatedClass(KeyTombstone.class);
     metadataSources.addAnnotatedClass(MailToken.class);
     metadataSources.addAnnotatedClass(MailTokenStateConverter.class);
+    metadataSources.addAnnotatedClass(MailerOutboxEntry.class);
     metadataSources.addAnnotatedClass(OtpParams.class);
     metadataSources.addAnnotatedClass(OtpToken.class);
     metadataSources.addAnnotatedClass(Session.class);
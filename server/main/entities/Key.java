@@ -37,7 +37,8 @@ import org.hibernate.annotations.TypeDef;
     indexes = {
       @Index(columnList = "user_identifier"),
       @Index(columnList = "parent_identifier"),
-      @Index(columnList = "uuid", unique = true)
+      @Index(columnList = "uuid", unique = true),
+      @Index(columnList = "user_identifier, change_sequence")
     })
 @TypeDef(name = "string-array", typeClass = StringArrayType.class)
 public class Key {
@@ -80,6 +81,11 @@ public class Key {
   @Column(name = "is_pinned")
   private boolean isPinned;
 
+  // `User.keysSequence` as of the latest change.
+  @Column(name = "change_sequence")
+  @ColumnDefault("0")
+  private long changeSequence;
+
   public long getIdentifier() {
     return identifier;
   }
@@ -151,6 +157,15 @@ public class Key {
     return this;
   }
 
+  public long getChangeSequence() {
+    return changeSequence;
+  }
+
+  public Key setChangeSequence(long changeSequence) {
+    this.changeSequence = changeSequence;
+    return this;
+  }
+
   public Key mergeFromPassword(Password password) {
     setValue(password.getValue());
     setTags(password.getTagsList());
@@ -161,21 +176,36 @@ public class Key {
     return Password.newBuilder().setValue(getValue()).addAllTags(getTags()).build();
   }
 
-  public KeyProto toKeyProto() {
+  /** Builds `KeyProto` from column values, e.g. of a projection. */
+  public static KeyProto toKeyProto(
+      UUID uuid,
+      Optional<Timestamp> creationTimestamp,
+      Password password,
+      boolean isShadow,
+      Optional<UUID> parentUuid,
+      boolean isPinned) {
     KeyProto.Builder builder = KeyProto.newBuilder();
-    builder.setUid(String.valueOf(getUuid()));
-    getCreationTimestamp()
-        .ifPresent(
-            (timestamp) -> {
-              builder.setCreationTimeInMillis(timestamp.getTime());
-            });
-    builder.setPassword(toPassword());
+    builder.setUid(String.valueOf(uuid));
+    creationTimestamp.ifPresent(
+        (timestamp) -> {
+          builder.setCreationTimeInMillis(timestamp.getTime());
+        });
+    builder.setPassword(password);
     builder.setAttrs(
         KeyAttrs.newBuilder()
-            .setIsShadow(getIsShadow())
-            .setParentUid(
-                Optional.ofNullable(getParent()).map(Key::getUuid).map(String::valueOf).orElse(""))
-            .setIsPinned(getIsPinned()));
+            .setIsShadow(isShadow)
+            .setParentUid(parentUuid.map(String::valueOf).orElse(""))
+            .setIsPinned(isPinned));
     return builder.build();
   }
+
+  public KeyProto toKeyProto() {
+    return toKeyProto(
+        getUuid(),
+        getCreationTimestamp(),
+        toPassword(),
+        getIsShadow(),
+        Optional.ofNullable(getParent()).map(Key::getUuid),
+        getIsPinned());
+  }
 }
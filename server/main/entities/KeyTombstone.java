@@ -0,0 +1,70 @@
+package keyring.server.main.entities;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+/** Records a `Key` deletion for clients synchronizing by `User.keysSequence`. */
+@Entity
+@Table(
+    name = "key_tombstones",
+    indexes = {
+      @Index(columnList = "user_identifier, change_sequence"),
+      @Index(columnList = "timestamp")
+    })
+public class KeyTombstone {
+  public static final long KEY_TOMBSTONE_STORAGE_EVICTION_D = 28;
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private long identifier;
+
+  @CreationTimestamp private Timestamp timestamp;
+
+  @ManyToOne
+  @OnDelete(action = OnDeleteAction.CASCADE)
+  private User user;
+
+  @Column(name = "key_uuid", columnDefinition = "uuid")
+  private UUID keyUuid;
+
+  @Column(name = "change_sequence")
+  private long changeSequence;
+
+  public User getUser() {
+    return user;
+  }
+
+  public KeyTombstone setUser(User user) {
+    this.user = user;
+    return this;
+  }
+
+  public UUID getKeyUuid() {
+    return keyUuid;
+  }
+
+  public KeyTombstone setKeyUuid(UUID keyUuid) {
+    this.keyUuid = keyUuid;
+    return this;
+  }
+
+  public long getChangeSequence() {
+    return changeSequence;
+  }
+
+  public KeyTombstone setChangeSequence(long changeSequence) {
+    this.changeSequence = changeSequence;
+    return this;
+  }
+}
@@ -0,0 +1,56 @@
+package keyring.server.main.entities;
+
+import java.sql.Timestamp;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import org.hibernate.annotations.CreationTimestamp;
+
+/**
+ * A serialized `MailerRequest` awaiting `MailerOutboxRelay`.
+ *
+ * <p>Written in the transaction that decides to send the mail, so that nothing is published for a
+ * rolled back change and nothing is lost if Redis is down at the time.
+ */
+@Entity
+@Table(name = "mailer_outbox", indexes = {@Index(columnList = "urgent, identifier")})
+public class MailerOutboxEntry {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private long identifier;
+
+  @CreationTimestamp private Timestamp timestamp;
+
+  @Column(columnDefinition = "bytea")
+  private byte[] request;
+
+  // Someone is waiting for the mail, so it goes ahead of the bulk ones.
+  @Column(nullable = false)
+  private boolean urgent;
+
+  public long getIdentifier() {
+    return identifier;
+  }
+
+  public byte[] getRequest() {
+    return request;
+  }
+
+  public MailerOutboxEntry setRequest(byte[] request) {
+    this.request = request;
+    return this;
+  }
+
+  public boolean getUrgent() {
+    return urgent;
+  }
+
+  public MailerOutboxEntry setUrgent(boolean urgent) {
+    this.urgent = urgent;
+    return this;
+  }
+}
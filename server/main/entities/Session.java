@@ -23,7 +23,12 @@ import org.hibernate.annotations.OnDeleteAction;
 @Entity
 @Table(
     name = "sessions",
-    indexes = {@Index(columnList = "user_identifier")})
+    indexes = {
+      @Index(columnList = "user_identifier"),
+      @Index(
+          name = "sessions_user_identifier_timestamp_index",
+          columnList = "user_identifier, timestamp")
+    })
 public class Session {
   public static final int SESSION_AUTHN_EXPIRATION_M = 5;
   // if_change
@@ -81,6 +81,19 @@ public class User {
   @Column(name = "inactivity_reminders_iso", columnDefinition = "text[]")
   private String[] inactivityRemindersIso;
 
+  // Incremented with a native `UPDATE` on every `Key` change; the row lock
+  // orders concurrent changes of the same user by their commit.
+  @Column(name = "keys_sequence", updatable = false)
+  @ColumnDefault("0")
+  @Generated(GenerationTime.INSERT)
+  private long keysSequence;
+
+  // The greatest `KeyTombstone.changeSequence` evicted by the janitor.
+  @Column(name = "keys_pruned_sequence", updatable = false)
+  @ColumnDefault("0")
+  @Generated(GenerationTime.INSERT)
+  private long keysPrunedSequence;
+
   public long getIdentifier() {
     return identifier;
   }
@@ -105,6 +118,14 @@ public class User {
     return version;
   }
 
+  public long getKeysSequence() {
+    return keysSequence;
+  }
+
+  public long getKeysPrunedSequence() {
+    return keysPrunedSequence;
+  }
+
   public UserState getState() {
     return state;
   }
@@ -0,0 +1,105 @@
+package keyring.server.main.geolocation;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import keyring.server.main.proto.service.Geolocation;
+
+/**
+ * Size-bounded cache of resolved addresses in front of another `GeolocationServiceInterface`.
+ *
+ * <p>Failed lookups are remembered for `failureTtl` so that an outage is not amplified by retries.
+ * Concurrent lookups of an address share a single call to `delegate`.
+ */
+public class CachingGeolocationService implements GeolocationServiceInterface {
+  private final GeolocationServiceInterface delegate;
+  private final Cache<String, Geolocation> resolved;
+  private final Cache<String, Boolean> failed;
+  private final ConcurrentMap<String, CompletableFuture<Optional<Geolocation>>> inFlight =
+      new ConcurrentHashMap<>();
+
+  public CachingGeolocationService(
+      GeolocationServiceInterface delegate, long maximumSize, Duration ttl, Duration failureTtl) {
+    this.delegate = delegate;
+    this.resolved =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+    this.failed =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(failureTtl.toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  @Override
+  public Geolocation getIpInfo(String ip) {
+    return getIpInfos(ImmutableSet.of(ip)).getOrDefault(ip, Geolocation.getDefaultInstance());
+  }
+
+  @Override
+  public Map<String, Geolocation> getIpInfos(Set<String> ips) {
+    Map<String, Geolocation> ipToGeolocation = new HashMap<>();
+    Map<String, CompletableFuture<Optional<Geolocation>>> awaited = new HashMap<>();
+    Map<String, CompletableFuture<Optional<Geolocation>>> owned = new HashMap<>();
+    for (String ip : ips) {
+      Geolocation geolocation = resolved.getIfPresent(ip);
+      if (geolocation != null) {
+        ipToGeolocation.put(ip, geolocation);
+      } else if (failed.getIfPresent(ip) == null) {
+        CompletableFuture<Optional<Geolocation>> future = new CompletableFuture<>();
+        CompletableFuture<Optional<Geolocation>> existing = inFlight.putIfAbsent(ip, future);
+        if (existing == null) {
+          owned.put(ip, future);
+        } else {
+          awaited.put(ip, existing);
+        }
+      }
+    }
+    if (!owned.isEmpty()) {
+      load(owned);
+    }
+    owned.forEach((ip, future) -> future.join().ifPresent(value -> ipToGeolocation.put(ip, value)));
+    // The owners complete these by the deadline of `delegate`.
+    awaited.forEach(
+        (ip, future) -> future.join().ifPresent(value -> ipToGeolocation.put(ip, value)));
+    return ipToGeolocation;
+  }
+
+  private void load(Map<String, CompletableFuture<Optional<Geolocation>>> owned) {
+    Map<String, Geolocation> loaded = new HashMap<>();
+    try {
+      loaded = delegate.getIpInfos(new HashSet<>(owned.keySet()));
+    } finally {
+      for (Map.Entry<String, CompletableFuture<Optional<Geolocation>>> entry : owned.entrySet()) {
+        String ip = entry.getKey();
+        Optional<Geolocation> geolocation = Optional.ofNullable(loaded.get(ip));
+        if (geolocation.isPresent()) {
+          resolved.put(ip, geolocation.get());
+        } else {
+          failed.put(ip, true);
+        }
+        inFlight.remove(ip, entry.getValue());
+        entry.getValue().complete(geolocation);
+      }
+    }
+  }
+
+  /** Hits and misses of resolved addresses; coalesced lookups count as misses. */
+  public CacheStats stats() {
+    return resolved.stats();
+  }
+}
@@ -0,0 +1,90 @@
+package keyring.server.main.geolocation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import keyring.server.main.proto.service.Geolocation;
+import name.falgout.jeffrey.testing.junit5.MockitoExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+
+@ExtendWith(MockitoExtension.class)
+class CachingGeolocationServiceTest {
+  private static final Geolocation GEOLOCATION =
+      Geolocation.newBuilder().setCountry("Country").setCity("City").build();
+
+  @Mock private GeolocationServiceInterface mockDelegate;
+
+  private CachingGeolocationService cachingGeolocationService;
+
+  @BeforeEach
+  void beforeEach() {
+    cachingGeolocationService =
+        new CachingGeolocationService(
+            mockDelegate, 16, Duration.ofMinutes(1), Duration.ofMinutes(1));
+  }
+
+  @Test
+  void getIpInfos_repeated_hitsCache() {
+    when(mockDelegate.getIpInfos(ImmutableSet.of("127.0.0.1")))
+        .thenReturn(ImmutableMap.of("127.0.0.1", GEOLOCATION));
+
+    cachingGeolocationService.getIpInfos(ImmutableSet.of("127.0.0.1"));
+    Map<String, Geolocation> ipToGeolocation =
+        cachingGeolocationService.getIpInfos(ImmutableSet.of("127.0.0.1"));
+
+    assertEquals(ImmutableMap.of("127.0.0.1", GEOLOCATION), ipToGeolocation);
+    verify(mockDelegate, times(1)).getIpInfos(any());
+    assertEquals(1, cachingGeolocationService.stats().hitCount());
+    assertEquals(1, cachingGeolocationService.stats().missCount());
+  }
+
+  @Test
+  void getIpInfos_failed_cachesNegatively() {
+    when(mockDelegate.getIpInfos(ImmutableSet.of("127.0.0.1"))).thenReturn(ImmutableMap.of());
+
+    cachingGeolocationService.getIpInfos(ImmutableSet.of("127.0.0.1"));
+    Map<String, Geolocation> ipToGeolocation =
+        cachingGeolocationService.getIpInfos(ImmutableSet.of("127.0.0.1"));
+
+    assertEquals(ImmutableMap.of(), ipToGeolocation);
+    verify(mockDelegate, times(1)).getIpInfos(any());
+  }
+
+  @Test
+  void getIpInfos_concurrent_coalesces() throws Exception {
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch released = new CountDownLatch(1);
+    when(mockDelegate.getIpInfos(ImmutableSet.of("127.0.0.1")))
+        .thenAnswer(
+            invocation -> {
+              entered.countDown();
+              released.await();
+              return ImmutableMap.of("127.0.0.1", GEOLOCATION);
+            });
+
+    CompletableFuture<Map<String, Geolocation>> owner =
+        CompletableFuture.supplyAsync(
+            () -> cachingGeolocationService.getIpInfos(ImmutableSet.of("127.0.0.1")));
+    entered.await();
+    CompletableFuture<Map<String, Geolocation>> waiter =
+        CompletableFuture.supplyAsync(
+            () -> cachingGeolocationService.getIpInfos(ImmutableSet.of("127.0.0.1")));
+    released.countDown();
+
+    assertEquals(ImmutableMap.of("127.0.0.1", GEOLOCATION), owner.get());
+    assertEquals(ImmutableMap.of("127.0.0.1", GEOLOCATION), waiter.get());
+    verify(mockDelegate, times(1)).getIpInfos(any());
+  }
+}
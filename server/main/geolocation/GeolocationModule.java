@@ -4,6 +4,10 @@ import dagger.Module;
 import dagger.Provides;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import javax.inject.Singleton;
 import keyring.server.main.Environment;
 import keyring.server.main.proto.geoip.GeoIpServiceGrpc;
@@ -11,16 +15,35 @@ import keyring.server.main.proto.service.Geolocation;
 
 @Module
 public class GeolocationModule {
+  // Bounds how long `getRecentSessions` may wait for the decoration.
+  private static final Duration GET_IP_INFOS_DEADLINE = Duration.ofMillis(500);
+  private static final int GET_IP_INFOS_BATCH_SIZE = 16;
+  private static final long CACHE_MAXIMUM_SIZE = 1 << 16;
+  // The database is updated daily, see `ip_geolocation/main.go`.
+  private static final Duration CACHE_TTL = Duration.ofDays(1);
+  private static final Duration CACHE_FAILURE_TTL = Duration.ofMinutes(1);
+
   @Provides
   @Singleton
   static GeolocationServiceInterface provideGeolocationServiceInterface(Environment environment) {
+    if (!environment.getGeolocationMmdbPath().isEmpty()) {
+      try {
+        return MmdbGeolocationService.open(Paths.get(environment.getGeolocationMmdbPath()));
+      } catch (IOException exception) {
+        throw new UncheckedIOException(exception);
+      }
+    }
     if (environment.isProduction()) {
       ManagedChannel channel =
           ManagedChannelBuilder.forTarget(environment.getGeolocationAddress())
               .usePlaintext()
               .build();
-      GeoIpServiceGrpc.GeoIpServiceBlockingStub stub = GeoIpServiceGrpc.newBlockingStub(channel);
-      return new GeolocationServiceClient(stub);
+      GeoIpServiceGrpc.GeoIpServiceFutureStub stub = GeoIpServiceGrpc.newFutureStub(channel);
+      return new CachingGeolocationService(
+          new GeolocationServiceClient(stub, GET_IP_INFOS_DEADLINE, GET_IP_INFOS_BATCH_SIZE),
+          CACHE_MAXIMUM_SIZE,
+          CACHE_TTL,
+          CACHE_FAILURE_TTL);
     } else {
       return ip -> Geolocation.getDefaultInstance();
     }
@@ -1,24 +1,90 @@
 package keyring.server.main.geolocation;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import keyring.server.main.proto.geoip.GeoIpServiceGrpc;
-import keyring.server.main.proto.geoip.GetIpInfoRequest;
 import keyring.server.main.proto.geoip.GetIpInfoResponse;
+import keyring.server.main.proto.geoip.GetIpInfosRequest;
+import keyring.server.main.proto.geoip.GetIpInfosResponse;
 import keyring.server.main.proto.service.Geolocation;
 
+/**
+ * Splits addresses into `GetIpInfos` batches issued in parallel, each under its own deadline.
+ *
+ * <p>Geolocation is decorative, so addresses of a failed, late or malformed batch are omitted
+ * instead of failing the caller.
+ */
 class GeolocationServiceClient implements GeolocationServiceInterface {
-  private GeoIpServiceGrpc.GeoIpServiceBlockingStub stub;
+  private static final Logger logger = Logger.getLogger(GeolocationServiceClient.class.getName());
 
-  GeolocationServiceClient(GeoIpServiceGrpc.GeoIpServiceBlockingStub stub) {
+  private GeoIpServiceGrpc.GeoIpServiceFutureStub stub;
+  private Duration deadline;
+  private int batchSize;
+
+  GeolocationServiceClient(
+      GeoIpServiceGrpc.GeoIpServiceFutureStub stub, Duration deadline, int batchSize) {
     this.stub = stub;
+    this.deadline = deadline;
+    this.batchSize = batchSize;
   }
 
-  @Override
-  public Geolocation getIpInfo(String ip) {
-    GetIpInfoRequest request = GetIpInfoRequest.newBuilder().setIpAddress(ip).build();
-    GetIpInfoResponse response = stub.getIpInfo(request);
+  private static Geolocation toGeolocation(GetIpInfoResponse response) {
     return Geolocation.newBuilder()
         .setCountry(response.getCountry().getNames().getEn())
         .setCity(response.getCity().getNames().getEn())
         .build();
   }
+
+  @Override
+  public Geolocation getIpInfo(String ip) {
+    return getIpInfos(ImmutableSet.of(ip)).getOrDefault(ip, Geolocation.getDefaultInstance());
+  }
+
+  @Override
+  public Map<String, Geolocation> getIpInfos(Set<String> ips) {
+    List<List<String>> batches = new ArrayList<>();
+    List<ListenableFuture<GetIpInfosResponse>> futures = new ArrayList<>();
+    for (List<String> batch : Iterables.partition(ips, batchSize)) {
+      batches.add(batch);
+      futures.add(
+          stub.withDeadlineAfter(deadline.toMillis(), TimeUnit.MILLISECONDS)
+              .getIpInfos(GetIpInfosRequest.newBuilder().addAllIpAddresses(batch).build()));
+    }
+    Map<String, Geolocation> ipToGeolocation = new HashMap<>();
+    for (int index = 0; index < batches.size(); ++index) {
+      List<String> batch = batches.get(index);
+      try {
+        // Completes by the deadline either way.
+        List<GetIpInfoResponse> ipInfos = futures.get(index).get().getIpInfosList();
+        if (ipInfos.size() != batch.size()) {
+          logger.warning(
+              String.format(
+                  "`GetIpInfos` has replied with %d items for %d addresses",
+                  ipInfos.size(), batch.size()));
+          continue;
+        }
+        for (int offset = 0; offset < batch.size(); ++offset) {
+          ipToGeolocation.put(batch.get(offset), toGeolocation(ipInfos.get(offset)));
+        }
+      } catch (ExecutionException exception) {
+        logger.log(Level.WARNING, "`GetIpInfos` has failed", exception);
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+        futures.forEach(future -> future.cancel(true));
+        break;
+      }
+    }
+    return ipToGeolocation;
+  }
 }
@@ -0,0 +1,171 @@
+package keyring.server.main.geolocation;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import keyring.server.main.proto.geoip.City;
+import keyring.server.main.proto.geoip.Country;
+import keyring.server.main.proto.geoip.GeoIpServiceGrpc;
+import keyring.server.main.proto.geoip.GetIpInfoResponse;
+import keyring.server.main.proto.geoip.GetIpInfosRequest;
+import keyring.server.main.proto.geoip.GetIpInfosResponse;
+import keyring.server.main.proto.geoip.Names;
+import keyring.server.main.proto.service.Geolocation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class GeolocationServiceClientTest {
+  private static final Duration DEADLINE = Duration.ofMillis(500);
+  private static final int BATCH_SIZE = 2;
+
+  private FakeGeoIpService fakeGeoIpService;
+  private Server server;
+  private ManagedChannel channel;
+  private GeolocationServiceClient geolocationServiceClient;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    fakeGeoIpService = new FakeGeoIpService();
+    // Listens on an ephemeral loopback port within the test process.
+    server = ServerBuilder.forPort(0).addService(fakeGeoIpService).build().start();
+    channel =
+        ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+    geolocationServiceClient =
+        new GeolocationServiceClient(GeoIpServiceGrpc.newFutureStub(channel), DEADLINE, BATCH_SIZE);
+  }
+
+  @AfterEach
+  void afterEach() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  @Test
+  void getIpInfos_manyAddresses_splitsIntoBatches() {
+    fakeGeoIpService.setHandler(FakeGeoIpService::replyWithAddresses);
+
+    Map<String, Geolocation> ipToGeolocation =
+        geolocationServiceClient.getIpInfos(ImmutableSet.of("1", "2", "3", "4", "5"));
+
+    assertEquals(
+        ImmutableMap.of(
+            "1", toGeolocation("1"),
+            "2", toGeolocation("2"),
+            "3", toGeolocation("3"),
+            "4", toGeolocation("4"),
+            "5", toGeolocation("5")),
+        ipToGeolocation);
+    List<Integer> batchSizes =
+        fakeGeoIpService.getRequests().stream()
+            .map(GetIpInfosRequest::getIpAddressesCount)
+            .sorted()
+            .collect(toList());
+    assertEquals(ImmutableList.of(1, 2, 2), batchSizes);
+  }
+
+  @Test
+  void getIpInfos_batchPastDeadline_omitsItsAddresses() {
+    fakeGeoIpService.setHandler(
+        (request, response) -> {
+          // Never replies to the batch with `1`, leaving it to the deadline.
+          if (!request.getIpAddressesList().contains("1")) {
+            FakeGeoIpService.replyWithAddresses(request, response);
+          }
+        });
+
+    long startNanos = System.nanoTime();
+    Map<String, Geolocation> ipToGeolocation =
+        geolocationServiceClient.getIpInfos(ImmutableSet.of("1", "2", "3"));
+    Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+
+    assertEquals(ImmutableMap.of("3", toGeolocation("3")), ipToGeolocation);
+    assertTrue(elapsed.compareTo(DEADLINE) >= 0, elapsed.toString());
+    assertTrue(elapsed.compareTo(DEADLINE.multipliedBy(4)) < 0, elapsed.toString());
+  }
+
+  @Test
+  void getIpInfos_responseShorterThanBatch_omitsItsAddresses() {
+    fakeGeoIpService.setHandler(
+        (request, response) -> {
+          response.onNext(
+              GetIpInfosResponse.newBuilder()
+                  .addIpInfos(toGetIpInfoResponse(request.getIpAddresses(0)))
+                  .build());
+          response.onCompleted();
+        });
+
+    Map<String, Geolocation> ipToGeolocation =
+        geolocationServiceClient.getIpInfos(ImmutableSet.of("1", "2", "3"));
+
+    assertEquals(ImmutableMap.of("3", toGeolocation("3")), ipToGeolocation);
+  }
+
+  @Test
+  void getIpInfo_serviceUnavailable_fallsBackToEmpty() {
+    fakeGeoIpService.setHandler(
+        (request, response) -> response.onError(Status.UNAVAILABLE.asRuntimeException()));
+
+    assertTrue(geolocationServiceClient.getIpInfos(ImmutableSet.of("1", "2", "3")).isEmpty());
+    assertEquals(Geolocation.getDefaultInstance(), geolocationServiceClient.getIpInfo("1"));
+  }
+
+  private static GetIpInfoResponse toGetIpInfoResponse(String ip) {
+    return GetIpInfoResponse.newBuilder()
+        .setCountry(Country.newBuilder().setNames(Names.newBuilder().setEn("Country " + ip)))
+        .setCity(City.newBuilder().setNames(Names.newBuilder().setEn("City " + ip)))
+        .build();
+  }
+
+  private static Geolocation toGeolocation(String ip) {
+    return Geolocation.newBuilder().setCountry("Country " + ip).setCity("City " + ip).build();
+  }
+
+  private static class FakeGeoIpService extends GeoIpServiceGrpc.GeoIpServiceImplBase {
+    private final List<GetIpInfosRequest> requests = new CopyOnWriteArrayList<>();
+    private volatile BiConsumer<GetIpInfosRequest, StreamObserver<GetIpInfosResponse>> handler;
+
+    static void replyWithAddresses(
+        GetIpInfosRequest request, StreamObserver<GetIpInfosResponse> response) {
+      response.onNext(
+          GetIpInfosResponse.newBuilder()
+              .addAllIpInfos(
+                  request.getIpAddressesList().stream()
+                      .map(GeolocationServiceClientTest::toGetIpInfoResponse)
+                      .collect(toList()))
+              .build());
+      response.onCompleted();
+    }
+
+    void setHandler(BiConsumer<GetIpInfosRequest, StreamObserver<GetIpInfosResponse>> handler) {
+      this.handler = handler;
+    }
+
+    List<GetIpInfosRequest> getRequests() {
+      return requests;
+    }
+
+    @Override
+    public void getIpInfos(
+        GetIpInfosRequest request, StreamObserver<GetIpInfosResponse> response) {
+      requests.add(request);
+      handler.accept(request, response);
+    }
+  }
+}
@@ -1,7 +1,17 @@
 package keyring.server.main.geolocation;
 
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
+
+import java.util.Map;
+import java.util.Set;
 import keyring.server.main.proto.service.Geolocation;
 
 public interface GeolocationServiceInterface {
   Geolocation getIpInfo(String ip);
+
+  /** Maps addresses to their `Geolocation`s, omitting those whose lookup has failed. */
+  default Map<String, Geolocation> getIpInfos(Set<String> ips) {
+    return ips.stream().collect(toMap(identity(), this::getIpInfo));
+  }
 }
@@ -0,0 +1,57 @@
+package keyring.server.main.geolocation;
+
+import com.google.common.net.InetAddresses;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import keyring.server.main.proto.service.Geolocation;
+
+/** Resolves addresses in-process against a memory-mapped GeoIP2 or GeoLite2 City database. */
+public class MmdbGeolocationService implements GeolocationServiceInterface {
+  private static final byte[] COUNTRY_KEY = "country".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] CITY_KEY = "city".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] NAMES_KEY = "names".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] EN_KEY = "en".getBytes(StandardCharsets.UTF_8);
+
+  private final MmdbReader mmdbReader;
+
+  MmdbGeolocationService(MmdbReader mmdbReader) {
+    this.mmdbReader = mmdbReader;
+  }
+
+  public static MmdbGeolocationService open(Path path) throws IOException {
+    // The mapping stays valid after the channel is closed.
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new MmdbGeolocationService(
+          new MmdbReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+    }
+  }
+
+  private String readEnglishName(int record, byte[] key) {
+    int offset =
+        mmdbReader.findMapValue(
+            mmdbReader.findMapValue(mmdbReader.findMapValue(record, key), NAMES_KEY), EN_KEY);
+    if (offset < 0) {
+      return "";
+    }
+    String name = mmdbReader.readString(offset);
+    return name == null ? "" : name;
+  }
+
+  @Override
+  public Geolocation getIpInfo(String ip) {
+    if (!InetAddresses.isInetAddress(ip)) {
+      return Geolocation.getDefaultInstance();
+    }
+    int record = mmdbReader.lookUp(InetAddresses.forString(ip).getAddress());
+    if (record < 0) {
+      return Geolocation.getDefaultInstance();
+    }
+    return Geolocation.newBuilder()
+        .setCountry(readEnglishName(record, COUNTRY_KEY))
+        .setCity(readEnglishName(record, CITY_KEY))
+        .build();
+  }
+}
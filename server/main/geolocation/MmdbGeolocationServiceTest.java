@@ -0,0 +1,192 @@
+package keyring.server.main.geolocation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import keyring.server.main.proto.service.Geolocation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class MmdbGeolocationServiceTest {
+  private static final int ITERATIONS = 1024;
+  private static final Geolocation GEOLOCATION =
+      Geolocation.newBuilder().setCountry("Country").setCity("City").build();
+
+  @ParameterizedTest
+  @ValueSource(ints = {24, 28, 32})
+  void getIpInfo_knownAddress_returnsNames(int recordSize) {
+    MmdbGeolocationService service =
+        new MmdbGeolocationService(new MmdbReader(ByteBuffer.wrap(createFixture(recordSize))));
+
+    assertEquals(GEOLOCATION, service.getIpInfo("1.2.3.4"));
+    assertEquals(GEOLOCATION, service.getIpInfo("::1.2.3.255"));
+  }
+
+  @Test
+  void getIpInfo_unknownAddress_returnsDefault() {
+    MmdbGeolocationService service =
+        new MmdbGeolocationService(new MmdbReader(ByteBuffer.wrap(createFixture(24))));
+
+    assertEquals(Geolocation.getDefaultInstance(), service.getIpInfo("1.2.4.3"));
+    assertEquals(Geolocation.getDefaultInstance(), service.getIpInfo("2001:db8::1"));
+    assertEquals(Geolocation.getDefaultInstance(), service.getIpInfo("not-an-address"));
+  }
+
+  @Test
+  void open_mapsFile(@TempDir Path directory) throws IOException {
+    Path path = directory.resolve("fixture.mmdb");
+    Files.write(path, createFixture(28));
+
+    assertEquals(GEOLOCATION, MmdbGeolocationService.open(path).getIpInfo("1.2.3.4"));
+  }
+
+  @Test
+  void lookUp_allocatesNothing() {
+    MmdbReader mmdbReader = new MmdbReader(ByteBuffer.wrap(createFixture(24)));
+    byte[] address = {1, 2, 3, 4};
+    byte[] countryKey = "country".getBytes(StandardCharsets.UTF_8);
+    byte[] namesKey = "names".getBytes(StandardCharsets.UTF_8);
+    byte[] enKey = "en".getBytes(StandardCharsets.UTF_8);
+
+    // Warms up the path first.
+    lookUpCountryName(mmdbReader, address, countryKey, namesKey, enKey);
+    long start = allocatedBytes();
+    int checksum = lookUpCountryName(mmdbReader, address, countryKey, namesKey, enKey);
+    long bytes = allocatedBytes() - start;
+
+    assertTrue(checksum > 0);
+    assertTrue(bytes < ITERATIONS, String.format("%d bytes per lookup", bytes / ITERATIONS));
+  }
+
+  private static int lookUpCountryName(
+      MmdbReader mmdbReader, byte[] address, byte[] countryKey, byte[] namesKey, byte[] enKey) {
+    int checksum = 0;
+    for (int index = 0; index < ITERATIONS; ++index) {
+      int record = mmdbReader.lookUp(address);
+      checksum +=
+          mmdbReader.findMapValue(
+              mmdbReader.findMapValue(mmdbReader.findMapValue(record, countryKey), namesKey),
+              enKey);
+    }
+    return checksum;
+  }
+
+  private static long allocatedBytes() {
+    return ((ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static void writeControl(ByteArrayOutputStream output, int type, int size) {
+    if (type <= 7) {
+      output.write((type << 5) | size);
+    } else {
+      output.write(size);
+      output.write(type - 7);
+    }
+  }
+
+  private static void writeString(ByteArrayOutputStream output, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeControl(output, 2, bytes.length);
+    output.write(bytes, 0, bytes.length);
+  }
+
+  private static void writeUnsigned(ByteArrayOutputStream output, int type, long value, int size) {
+    writeControl(output, type, size);
+    for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+      output.write((int) (value >>> shift));
+    }
+  }
+
+  private static void writeRecords(
+      ByteArrayOutputStream output, int recordSize, long left, long right) {
+    switch (recordSize) {
+      case 24:
+        writeBigEndian(output, left, 3);
+        writeBigEndian(output, right, 3);
+        break;
+      case 28:
+        writeBigEndian(output, left, 3);
+        output.write((int) (((left >>> 20) & 0xF0) | ((right >>> 24) & 0x0F)));
+        writeBigEndian(output, right, 3);
+        break;
+      default:
+        writeBigEndian(output, left, 4);
+        writeBigEndian(output, right, 4);
+    }
+  }
+
+  private static void writeBigEndian(ByteArrayOutputStream output, long value, int size) {
+    for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+      output.write((int) (value >>> shift));
+    }
+  }
+
+  /** An IPv6 database with a single record for `::1.2.3.0/120`. */
+  private static byte[] createFixture(int recordSize) {
+    byte[] network = new byte[16];
+    network[12] = 1;
+    network[13] = 2;
+    network[14] = 3;
+    int prefixLength = 120;
+    long nodeCount = prefixLength;
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (int node = 0; node < prefixLength; ++node) {
+      int bit = (network[node >> 3] >> (7 - (node & 7))) & 1;
+      // The data record is the first value of the data section.
+      long next = node + 1 < prefixLength ? node + 1 : nodeCount + 16;
+      writeRecords(output, recordSize, bit == 0 ? next : nodeCount, bit == 1 ? next : nodeCount);
+    }
+    output.write(new byte[16], 0, 16);
+
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    writeControl(data, 7, 5);
+    writeString(data, "geoname_id");
+    writeUnsigned(data, 6, 42, 4);
+    writeString(data, "is_in_european_union");
+    writeControl(data, 14, 1);
+    writeString(data, "subdivisions");
+    writeControl(data, 11, 1);
+    writeString(data, "Subdivision");
+    writeString(data, "country");
+    writeControl(data, 7, 1);
+    int namesOffset = data.size();
+    writeString(data, "names");
+    writeControl(data, 7, 1);
+    writeString(data, "en");
+    writeString(data, "Country");
+    writeString(data, "city");
+    writeControl(data, 7, 1);
+    // A pointer to the first "names".
+    data.write((1 << 5) | (namesOffset >>> 8));
+    data.write(namesOffset & 0xFF);
+    writeControl(data, 7, 1);
+    writeString(data, "en");
+    writeString(data, "City");
+    byte[] dataBytes = data.toByteArray();
+    output.write(dataBytes, 0, dataBytes.length);
+
+    byte[] marker = {
+      (byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 'M', 'a', 'x', 'M', 'i', 'n', 'd', '.', 'c', 'o', 'm'
+    };
+    output.write(marker, 0, marker.length);
+    writeControl(output, 7, 3);
+    writeString(output, "node_count");
+    writeUnsigned(output, 6, nodeCount, 4);
+    writeString(output, "record_size");
+    writeUnsigned(output, 5, recordSize, 2);
+    writeString(output, "ip_version");
+    writeUnsigned(output, 5, 6, 2);
+    return output.toByteArray();
+  }
+}
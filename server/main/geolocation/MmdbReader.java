@@ -0,0 +1,267 @@
+package keyring.server.main.geolocation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a MaxMind DB, see https://maxmind.github.io/MaxMind-DB/.
+ *
+ * <p>Values are addressed by their absolute position in `buffer` and only ever decoded on demand,
+ * so walking the search tree and maps allocates nothing. Absolute reads of a `ByteBuffer` are safe
+ * to share between threads.
+ */
+final class MmdbReader {
+  private static final byte[] METADATA_MARKER = {
+    (byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 'M', 'a', 'x', 'M', 'i', 'n', 'd', '.', 'c', 'o', 'm'
+  };
+  private static final int METADATA_MAX_SIZE = 128 * 1024;
+  private static final int DATA_SECTION_SEPARATOR_SIZE = 16;
+  private static final int IPV4_BIT_COUNT_IN_IPV6 = 96;
+  // `readControl` packs the value size into 28 bits.
+  private static final int MAX_DATABASE_SIZE = 1 << 28;
+
+  private static final int TYPE_EXTENDED = 0;
+  private static final int TYPE_POINTER = 1;
+  private static final int TYPE_UTF8_STRING = 2;
+  private static final int TYPE_MAP = 7;
+  private static final int TYPE_ARRAY = 11;
+  private static final int TYPE_BOOLEAN = 14;
+
+  private static final byte[] NODE_COUNT_KEY = "node_count".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] RECORD_SIZE_KEY = "record_size".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] IP_VERSION_KEY = "ip_version".getBytes(StandardCharsets.UTF_8);
+
+  private final ByteBuffer buffer;
+  private final long nodeCount;
+  private final int recordSize;
+  private final int ipVersion;
+  private final int searchTreeSize;
+  private final int dataSectionStart;
+  private final long ipv4StartNode;
+
+  MmdbReader(ByteBuffer buffer) {
+    if (buffer.capacity() >= MAX_DATABASE_SIZE) {
+      throw new IllegalArgumentException(
+          String.format("Databases of %d bytes are not supported", buffer.capacity()));
+    }
+    this.buffer = buffer;
+    int metadataStart = findMetadataStart();
+    this.nodeCount = readUnsigned(metadataStart, findMetadataValue(metadataStart, NODE_COUNT_KEY));
+    this.recordSize =
+        (int) readUnsigned(metadataStart, findMetadataValue(metadataStart, RECORD_SIZE_KEY));
+    this.ipVersion =
+        (int) readUnsigned(metadataStart, findMetadataValue(metadataStart, IP_VERSION_KEY));
+    if (recordSize != 24 && recordSize != 28 && recordSize != 32) {
+      throw new IllegalArgumentException(String.format("Unknown record size %d", recordSize));
+    }
+    this.searchTreeSize = (int) (nodeCount * recordSize * 2 / 8);
+    this.dataSectionStart = searchTreeSize + DATA_SECTION_SEPARATOR_SIZE;
+    long node = 0;
+    if (ipVersion == 6) {
+      for (int bit = 0; bit < IPV4_BIT_COUNT_IN_IPV6 && node < nodeCount; ++bit) {
+        node = readRecord(node, 0);
+      }
+    }
+    this.ipv4StartNode = node;
+  }
+
+  private int findMetadataStart() {
+    int limit = Math.max(0, buffer.capacity() - METADATA_MAX_SIZE);
+    for (int start = buffer.capacity() - METADATA_MARKER.length; start >= limit; --start) {
+      if (matches(start, METADATA_MARKER, 0, METADATA_MARKER.length)) {
+        return start + METADATA_MARKER.length;
+      }
+    }
+    throw new IllegalArgumentException("Unable to find the metadata marker");
+  }
+
+  private int findMetadataValue(int metadataStart, byte[] key) {
+    int offset = findMapValue(metadataStart, metadataStart, key);
+    if (offset < 0) {
+      throw new IllegalArgumentException(
+          String.format("Metadata has no `%s`", new String(key, StandardCharsets.UTF_8)));
+    }
+    return offset;
+  }
+
+  private boolean matches(int offset, byte[] bytes, int from, int length) {
+    for (int index = 0; index < length; ++index) {
+      if (buffer.get(offset + index) != bytes[from + index]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private long readUnsignedBytes(int offset, int count) {
+    long value = 0;
+    for (int index = 0; index < count; ++index) {
+      value = (value << 8) | (buffer.get(offset + index) & 0xFF);
+    }
+    return value;
+  }
+
+  private long readRecord(long node, int side) {
+    switch (recordSize) {
+      case 24:
+        return readUnsignedBytes((int) (node * 6) + side * 3, 3);
+      case 28:
+        {
+          int nodeStart = (int) (node * 7);
+          int middle = buffer.get(nodeStart + 3) & 0xFF;
+          return side == 0
+              ? ((long) (middle & 0xF0) << 20) | readUnsignedBytes(nodeStart, 3)
+              : ((long) (middle & 0x0F) << 24) | readUnsignedBytes(nodeStart + 4, 3);
+        }
+      default:
+        return readUnsignedBytes((int) (node * 8) + side * 4, 4);
+    }
+  }
+
+  /** Returns the position of the data record for `address`, or -1 if there is none. */
+  int lookUp(byte[] address) {
+    if (address.length == 16 && ipVersion == 4) {
+      return -1;
+    }
+    long node = address.length == 4 ? ipv4StartNode : 0;
+    int bitCount = address.length * 8;
+    for (int bit = 0; bit < bitCount && node < nodeCount; ++bit) {
+      node = readRecord(node, (address[bit >> 3] >> (7 - (bit & 7))) & 1);
+    }
+    if (node <= nodeCount) {
+      return -1;
+    }
+    return (int) (searchTreeSize + node - nodeCount);
+  }
+
+  private static long packControl(int type, long size, int payloadOffset) {
+    return ((long) type << 60) | (size << 32) | payloadOffset;
+  }
+
+  private static int controlType(long control) {
+    return (int) (control >>> 60);
+  }
+
+  private static long controlSize(long control) {
+    return (control >>> 32) & 0x0FFFFFFF;
+  }
+
+  private static int controlPayload(long control) {
+    return (int) control;
+  }
+
+  /** For pointers, the size is the target relative to the section start. */
+  private long readControl(int offset) {
+    int control = buffer.get(offset) & 0xFF;
+    int type = control >>> 5;
+    int cursor = offset + 1;
+    if (type == TYPE_POINTER) {
+      int pointerSize = ((control >>> 3) & 0x3) + 1;
+      long pointer = readUnsignedBytes(cursor, pointerSize);
+      long prefix = control & 0x7;
+      switch (pointerSize) {
+        case 1:
+          pointer |= prefix << 8;
+          break;
+        case 2:
+          pointer = ((prefix << 16) | pointer) + 2048;
+          break;
+        case 3:
+          pointer = ((prefix << 24) | pointer) + 526336;
+          break;
+        default:
+          break;
+      }
+      return packControl(TYPE_POINTER, pointer, cursor + pointerSize);
+    }
+    if (type == TYPE_EXTENDED) {
+      type = 7 + (buffer.get(cursor) & 0xFF);
+      cursor += 1;
+    }
+    long size = control & 0x1F;
+    if (size >= 29) {
+      int extraBytes = (int) size - 28;
+      long extra = readUnsignedBytes(cursor, extraBytes);
+      cursor += extraBytes;
+      size = size == 29 ? 29 + extra : size == 30 ? 285 + extra : 65821 + extra;
+    }
+    return packControl(type, size, cursor);
+  }
+
+  /** Follows a pointer at `offset`, if any, to the value it refers to. */
+  private int resolve(int sectionStart, int offset) {
+    long control = readControl(offset);
+    if (controlType(control) == TYPE_POINTER) {
+      return sectionStart + (int) controlSize(control);
+    }
+    return offset;
+  }
+
+  /** Returns the position right after the value at `offset`, without following pointers. */
+  private int skip(int offset) {
+    long control = readControl(offset);
+    int type = controlType(control);
+    int cursor = controlPayload(control);
+    long size = controlSize(control);
+    switch (type) {
+      case TYPE_POINTER:
+      case TYPE_BOOLEAN:
+        return cursor;
+      case TYPE_MAP:
+        for (long pair = 0; pair < size; ++pair) {
+          cursor = skip(skip(cursor));
+        }
+        return cursor;
+      case TYPE_ARRAY:
+        for (long element = 0; element < size; ++element) {
+          cursor = skip(cursor);
+        }
+        return cursor;
+      default:
+        return cursor + (int) size;
+    }
+  }
+
+  private int findMapValue(int sectionStart, int offset, byte[] key) {
+    long control = readControl(resolve(sectionStart, offset));
+    if (controlType(control) != TYPE_MAP) {
+      return -1;
+    }
+    int cursor = controlPayload(control);
+    for (long pair = 0; pair < controlSize(control); ++pair) {
+      long keyControl = readControl(resolve(sectionStart, cursor));
+      cursor = skip(cursor);
+      if (controlType(keyControl) == TYPE_UTF8_STRING
+          && controlSize(keyControl) == key.length
+          && matches(controlPayload(keyControl), key, 0, key.length)) {
+        return cursor;
+      }
+      cursor = skip(cursor);
+    }
+    return -1;
+  }
+
+  /** Returns the position of `record[key]`, or -1 if `record` is not a map or lacks `key`. */
+  int findMapValue(int offset, byte[] key) {
+    return offset < 0 ? -1 : findMapValue(dataSectionStart, offset, key);
+  }
+
+  private long readUnsigned(int sectionStart, int offset) {
+    long control = readControl(resolve(sectionStart, offset));
+    return readUnsignedBytes(controlPayload(control), (int) controlSize(control));
+  }
+
+  /** Returns the string at `offset`, or `null` if the value is of another type. */
+  String readString(int offset) {
+    long control = readControl(resolve(dataSectionStart, offset));
+    if (controlType(control) != TYPE_UTF8_STRING) {
+      return null;
+    }
+    byte[] bytes = new byte[(int) controlSize(control)];
+    int payload = controlPayload(control);
+    for (int index = 0; index < bytes.length; ++index) {
+      bytes[index] = buffer.get(payload + index);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -1,61 +1,198 @@
 package keyring.server.main.keyvalue;
 
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.inject.Inject;
 import keyring.server.main.Chronometry;
 import keyring.server.main.entities.Session;
 import keyring.server.main.keyvalue.values.KvAuthn;
 import keyring.server.main.keyvalue.values.KvSession;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
 import redis.clients.jedis.params.GetExParams;
 import redis.clients.jedis.params.SetParams;
 import redis.clients.jedis.util.Pool;
+import redis.clients.jedis.util.SafeEncoder;
 
 public class KeyValueClient {
   private static final Logger logger = Logger.getLogger(KeyValueClient.class.getName());
   private static final String NIL_DOCS_URL =
       "https://redis.io/docs/reference/protocol-spec/#nil-reply";
-  private static final String DELETED_VALUE = "";
+  private static final byte[] DELETED_VALUE = new byte[0];
+
+  // KEYS: [bucket]; ARGV: [capacity, period in milliseconds, now in milliseconds].
+  // Refills greedily, i.e. `capacity` tokens are spread evenly over `period`.
+  private static final KvScript ACQUIRE_TOKEN_SCRIPT =
+      new KvScript(
+          "local capacity = tonumber(ARGV[1])",
+          "local period = tonumber(ARGV[2])",
+          "local now = tonumber(ARGV[3])",
+          "local state = redis.call('HMGET', KEYS[1], 'tokens', 'timestamp')",
+          "local tokens = tonumber(state[1]) or capacity",
+          "local elapsed = math.max(0, now - (tonumber(state[2]) or now))",
+          "tokens = math.min(capacity, tokens + elapsed * capacity / period)",
+          "local acquired = 0",
+          "if tokens >= 1 then",
+          "  tokens = tokens - 1",
+          "  acquired = 1",
+          "end",
+          "redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'timestamp', ARGV[3])",
+          "redis.call('PEXPIRE', KEYS[1], ARGV[2])",
+          "return acquired");
+  // KEYS: [authn, session]; ARGV: [`KvSession`, session TTL in seconds].
+  // Returns 0 if the authn is gone, 1 on success and 2 if the session key is taken.
+  private static final KvScript EXCHANGE_AUTHN_FOR_SESSION_SCRIPT =
+      new KvScript(
+          "local authn = redis.call('GET', KEYS[1])",
+          "if not authn or authn == '' then",
+          "  return 0",
+          "end",
+          "if not redis.call('SET', KEYS[2], ARGV[1], 'NX', 'EX', ARGV[2]) then",
+          "  return 2",
+          "end",
+          "redis.call('DEL', KEYS[1])",
+          "return 1");
+  // KEYS: [current window, previous window]; ARGV: [window in milliseconds, elapsed part of the
+  // current window in milliseconds, limit, increment].
+  // Weighs the previous window by its overlap with the sliding one, see
+  // https://blog.cloudflare.com/counting-things-a-lot-of-different-things/.
+  private static final KvScript ADD_TO_SLIDING_WINDOW_SCRIPT =
+      new KvScript(
+          "local window = tonumber(ARGV[1])",
+          "local elapsed = tonumber(ARGV[2])",
+          "local current = tonumber(redis.call('GET', KEYS[1])) or 0",
+          "local previous = tonumber(redis.call('GET', KEYS[2])) or 0",
+          "local estimate = previous * (window - elapsed) / window + current",
+          "if estimate + tonumber(ARGV[4]) > tonumber(ARGV[3]) then",
+          "  return 0",
+          "end",
+          "redis.call('INCRBY', KEYS[1], ARGV[4])",
+          "redis.call('PEXPIRE', KEYS[1], 2 * window)",
+          "return 1");
+  // KEYS: [session]; ARGV: [`KvSession`, invalidation channel].
+  // Returns 0 if the session is gone, including deletion tombstones, and 1 otherwise.
+  private static final KvScript REPLACE_KV_SESSION_SCRIPT =
+      new KvScript(
+          "local session = redis.call('GET', KEYS[1])",
+          "if not session or session == '' then",
+          "  return 0",
+          "end",
+          "redis.call('SET', KEYS[1], ARGV[1], 'KEEPTTL')",
+          "redis.call('PUBLISH', ARGV[2], KEYS[1])",
+          "return 1");
 
   private Pool<Jedis> jedisPool;
   private Chronometry chronometry;
-  private Base64.Encoder base64Encoder;
-  private Base64.Decoder base64Decoder;
+  private KvSessionCache kvSessionCache;
+  private int tombstoneChunkSize;
+  private boolean rawValues;
 
-  @Inject
-  KeyValueClient(Pool<Jedis> jedisPool, Chronometry chronometry) {
+  public KeyValueClient(
+      Pool<Jedis> jedisPool,
+      Chronometry chronometry,
+      KvSessionCache kvSessionCache,
+      int tombstoneChunkSize,
+      boolean rawValues) {
     this.jedisPool = jedisPool;
     this.chronometry = chronometry;
-    this.base64Encoder = Base64.getEncoder();
-    this.base64Decoder = Base64.getDecoder();
+    this.kvSessionCache = kvSessionCache;
+    this.tombstoneChunkSize = tombstoneChunkSize;
+    this.rawValues = rawValues;
+  }
+
+  private byte[] encode(MessageLite message) {
+    return rawValues ? KvCodec.encode(message) : KvCodec.encodeBase64(message);
+  }
+
+  public void preloadScripts() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      ACQUIRE_TOKEN_SCRIPT.load(jedis);
+      EXCHANGE_AUTHN_FOR_SESSION_SCRIPT.load(jedis);
+      REPLACE_KV_SESSION_SCRIPT.load(jedis);
+      ADD_TO_SLIDING_WINDOW_SCRIPT.load(jedis);
+    }
+  }
+
+  public boolean acquireToken(String bucketKey, long capacity, Duration period) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Object acquired =
+          ACQUIRE_TOKEN_SCRIPT.evalSha(
+              jedis,
+              ImmutableList.of(SafeEncoder.encode(bucketKey)),
+              ImmutableList.of(
+                  Protocol.toByteArray(capacity),
+                  Protocol.toByteArray(period.toMillis()),
+                  Protocol.toByteArray(chronometry.currentTime().toEpochMilli())));
+      return Objects.equals(acquired, 1L);
+    }
+  }
+
+  /**
+   * Counts `increment` events unless the approximate number of events within the last `window`
+   * would exceed `limit`.
+   */
+  public boolean addToSlidingWindow(String counterKey, Duration window, long limit, int increment) {
+    long windowMillis = window.toMillis();
+    long nowMillis = chronometry.currentTime().toEpochMilli();
+    long index = nowMillis / windowMillis;
+    try (Jedis jedis = jedisPool.getResource()) {
+      Object added =
+          ADD_TO_SLIDING_WINDOW_SCRIPT.evalSha(
+              jedis,
+              ImmutableList.of(
+                  SafeEncoder.encode(String.format("%s:%d", counterKey, index)),
+                  SafeEncoder.encode(String.format("%s:%d", counterKey, index - 1))),
+              ImmutableList.of(
+                  Protocol.toByteArray(windowMillis),
+                  Protocol.toByteArray(nowMillis % windowMillis),
+                  Protocol.toByteArray(limit),
+                  Protocol.toByteArray(increment)));
+      return Objects.equals(added, 1L);
+    }
   }
 
   public String convertSessionTokenToKey(String sessionToken) {
     return String.format("session-token:%s", sessionToken);
   }
 
+  private KvSession newKvSession(
+      String sessionToken, long userId, String ipAddress, long sessionEntityId) {
+    long nowMillis = chronometry.currentTime().toEpochMilli();
+    return KvSession.newBuilder()
+        .setSessionToken(sessionToken)
+        .setCreationTimeMillis(nowMillis)
+        .setUserId(userId)
+        .setIpAddress(ipAddress)
+        .setSessionEntityId(sessionEntityId)
+        // The session row has just been created or activated on the primary.
+        .setLastWriteTimeMillis(nowMillis)
+        .build();
+  }
+
   public KvSession createSession(
       String sessionToken, long userId, String ipAddress, long sessionEntityId) {
-    KvSession kvSession =
-        KvSession.newBuilder()
-            .setSessionToken(sessionToken)
-            .setCreationTimeMillis(chronometry.currentTime().toEpochMilli())
-            .setUserId(userId)
-            .setIpAddress(ipAddress)
-            .setSessionEntityId(sessionEntityId)
-            .build();
+    KvSession kvSession = newKvSession(sessionToken, userId, ipAddress, sessionEntityId);
     try (Jedis jedis = jedisPool.getResource()) {
       String status =
           jedis.set(
-              convertSessionTokenToKey(sessionToken),
-              base64Encoder.encodeToString(kvSession.toByteArray()),
+              SafeEncoder.encode(convertSessionTokenToKey(sessionToken)),
+              encode(kvSession),
               new SetParams().nx().ex(Session.SESSION_RELATIVE_DURATION_M * 60));
       if (status == null) {
         throw new KeyValueException(NIL_DOCS_URL);
@@ -64,42 +201,86 @@ public class KeyValueClient {
     }
   }
 
-  public Optional<KvSession> getExKvSession(String sessionToken, String ipAddress) {
+  /** Deletes `KvSession` of a session that has failed to activate. */
+  public void deleteSession(String sessionToken) {
     try (Jedis jedis = jedisPool.getResource()) {
-      String sessionKey = convertSessionTokenToKey(sessionToken);
-      Optional<String> serializedKvSession =
+      jedis.del(SafeEncoder.encode(convertSessionTokenToKey(sessionToken)));
+    }
+  }
+
+  private Optional<KvSession> fetchKvSession(String sessionToken, String sessionKey) {
+    Optional<KvSession> cachedKvSession = kvSessionCache.get(sessionKey);
+    if (cachedKvSession.isPresent()) {
+      return cachedKvSession;
+    }
+    long cacheGeneration = kvSessionCache.generation();
+    try (Jedis jedis = jedisPool.getResource()) {
+      Optional<byte[]> serializedKvSession =
           Optional.ofNullable(
               jedis.getEx(
-                  sessionKey, new GetExParams().ex(Session.SESSION_RELATIVE_DURATION_M * 60)));
-      return serializedKvSession
-          .map(
-              string -> {
-                try {
-                  if (DELETED_VALUE.equals(string)) {
-                    logger.warning(String.format("`KvSession` [%.4s] has been deleted", sessionToken));
-                    return null;
-                  }
-                  KvSession kvSession = KvSession.parseFrom(base64Decoder.decode(string));
-                  if (!Objects.equals(kvSession.getIpAddress(), ipAddress)) {
-                    logger.warning(
-                        String.format(
-                            "`KvSession` [%.4s] IP address is not %s", sessionToken, ipAddress));
-                    return null;
-                  }
-                  return kvSession;
-                } catch (InvalidProtocolBufferException exception) {
-                  throw new KeyValueException(exception);
-                }
-              })
-          .map(
-              kvSession ->
-                  Instant.ofEpochMilli(kvSession.getCreationTimeMillis())
-                          .isBefore(
-                              chronometry
-                                  .currentTime()
-                                  .minus(Session.SESSION_ABSOLUTE_DURATION_H, ChronoUnit.HOURS))
-                      ? null
-                      : kvSession);
+                  SafeEncoder.encode(sessionKey),
+                  new GetExParams().ex(Session.SESSION_RELATIVE_DURATION_M * 60)));
+      return serializedKvSession.map(
+          bytes -> {
+            try {
+              if (Arrays.equals(DELETED_VALUE, bytes)) {
+                logger.warning(String.format("`KvSession` [%.4s] has been deleted", sessionToken));
+                return null;
+              }
+              KvSession kvSession = KvCodec.decode(bytes, KvSession.parser());
+              kvSessionCache.put(sessionKey, kvSession, cacheGeneration);
+              return kvSession;
+            } catch (InvalidProtocolBufferException exception) {
+              throw new KeyValueException(exception);
+            }
+          });
+    }
+  }
+
+  public Optional<KvSession> getExKvSession(String sessionToken, String ipAddress) {
+    return fetchKvSession(sessionToken, convertSessionTokenToKey(sessionToken))
+        .map(
+            kvSession -> {
+              if (!Objects.equals(kvSession.getIpAddress(), ipAddress)) {
+                logger.warning(
+                    String.format(
+                        "`KvSession` [%.4s] IP address is not %s", sessionToken, ipAddress));
+                return null;
+              }
+              return kvSession;
+            })
+        .map(
+            kvSession ->
+                Instant.ofEpochMilli(kvSession.getCreationTimeMillis())
+                        .isBefore(
+                            chronometry
+                                .currentTime()
+                                .minus(Session.SESSION_ABSOLUTE_DURATION_H, ChronoUnit.HOURS))
+                    ? null
+                    : kvSession);
+  }
+
+  /** Stamps the current time as the latest write, unless `KvSession` has been deleted. */
+  public Optional<KvSession> recordKvSessionWrite(String sessionToken, KvSession kvSession) {
+    String sessionKey = convertSessionTokenToKey(sessionToken);
+    KvSession updatedKvSession =
+        kvSession.toBuilder()
+            .setLastWriteTimeMillis(chronometry.currentTime().toEpochMilli())
+            .build();
+    long cacheGeneration = kvSessionCache.generation();
+    try (Jedis jedis = jedisPool.getResource()) {
+      Object status =
+          REPLACE_KV_SESSION_SCRIPT.evalSha(
+              jedis,
+              ImmutableList.of(SafeEncoder.encode(sessionKey)),
+              ImmutableList.of(
+                  encode(updatedKvSession),
+                  SafeEncoder.encode(KvSessionCache.INVALIDATION_CHANNEL)));
+      if (Objects.equals(status, 0L)) {
+        return Optional.empty();
+      }
+      kvSessionCache.put(sessionKey, updatedKvSession, cacheGeneration);
+      return Optional.of(updatedKvSession);
     }
   }
 
@@ -120,8 +301,8 @@ public class KeyValueClient {
     try (Jedis jedis = jedisPool.getResource()) {
       String status =
           jedis.set(
-              convertAuthnTokenToKey(authnToken),
-              base64Encoder.encodeToString(kvAuthn.toByteArray()),
+              SafeEncoder.encode(convertAuthnTokenToKey(authnToken)),
+              encode(kvAuthn),
               new SetParams().nx().ex(Session.SESSION_AUTHN_EXPIRATION_M * 60));
       if (status == null) {
         throw new KeyValueException(NIL_DOCS_URL);
@@ -133,15 +314,15 @@ public class KeyValueClient {
   public Optional<KvAuthn> getKvAuthn(String authnToken, String ipAddress) {
     try (Jedis jedis = jedisPool.getResource()) {
       String authnKey = convertAuthnTokenToKey(authnToken);
-      return Optional.ofNullable(jedis.get(authnKey))
+      return Optional.ofNullable(jedis.get(SafeEncoder.encode(authnKey)))
           .map(
-              string -> {
+              bytes -> {
                 try {
-                  if (DELETED_VALUE.equals(string)) {
+                  if (Arrays.equals(DELETED_VALUE, bytes)) {
                     logger.warning(String.format("`KvAuthn` [%.4s] has been deleted", authnToken));
                     return null;
                   }
-                  KvAuthn kvAuthn = KvAuthn.parseFrom(base64Decoder.decode(string));
+                  KvAuthn kvAuthn = KvCodec.decode(bytes, KvAuthn.parser());
                   if (!Objects.equals(kvAuthn.getIpAddress(), ipAddress)) {
                     logger.warning(
                         String.format("`KvAuthn` [%.4s] IP address is not %s", authnToken, ipAddress));
@@ -155,9 +336,28 @@ public class KeyValueClient {
     }
   }
 
-  public void deleteAuthn(String authnToken) {
+  /** Atomically deletes `KvAuthn` and creates `KvSession` unless the former is gone. */
+  public Optional<KvSession> exchangeAuthnForSession(
+      String authnToken, String sessionToken, long userId, String ipAddress, long sessionEntityId) {
+    KvSession kvSession = newKvSession(sessionToken, userId, ipAddress, sessionEntityId);
     try (Jedis jedis = jedisPool.getResource()) {
-      jedis.del(convertAuthnTokenToKey(authnToken));
+      Object status =
+          EXCHANGE_AUTHN_FOR_SESSION_SCRIPT.evalSha(
+              jedis,
+              ImmutableList.of(
+                  SafeEncoder.encode(convertAuthnTokenToKey(authnToken)),
+                  SafeEncoder.encode(convertSessionTokenToKey(sessionToken))),
+              ImmutableList.of(
+                  encode(kvSession),
+                  Protocol.toByteArray(Session.SESSION_RELATIVE_DURATION_M * 60)));
+      if (Objects.equals(status, 0L)) {
+        logger.warning(String.format("`KvAuthn` [%.4s] is gone", authnToken));
+        return Optional.empty();
+      }
+      if (Objects.equals(status, 2L)) {
+        throw new KeyValueException(NIL_DOCS_URL);
+      }
+      return Optional.of(kvSession);
     }
   }
 
@@ -166,14 +366,42 @@ public class KeyValueClient {
     // reference (`KvAuthn` or `KvSession`) has not been written yet due to a
     // race condition.
     SetParams setParams = new SetParams().ex(60);
+    List<Session> referencingEntities =
+        entities.stream().filter(entity -> entity.getKey() != null).collect(toList());
+    int failureCount = 0;
 
     try (Jedis jedis = jedisPool.getResource()) {
-      for (Session entity : entities) {
-        Optional<String> maybeKey = Optional.ofNullable(entity.getKey());
-        if (maybeKey.isPresent()) {
-          jedis.set(maybeKey.get(), DELETED_VALUE, setParams);
+      // One round-trip per chunk; the chunk size bounds the reply buffer.
+      for (List<Session> chunk : Lists.partition(referencingEntities, tombstoneChunkSize)) {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<String>> responses = new ArrayList<>(chunk.size());
+        for (Session entity : chunk) {
+          String key = entity.getKey();
+          responses.add(pipeline.set(SafeEncoder.encode(key), DELETED_VALUE, setParams));
+          pipeline.publish(KvSessionCache.INVALIDATION_CHANNEL, key);
+        }
+        pipeline.sync();
+        for (int index = 0; index < chunk.size(); ++index) {
+          Session entity = chunk.get(index);
+          kvSessionCache.invalidate(entity.getKey());
+          try {
+            responses.get(index).get();
+          } catch (JedisDataException exception) {
+            logger.log(
+                Level.WARNING,
+                String.format(
+                    "Unable to delete the reference of `Session` %d", entity.getIdentifier()),
+                exception);
+            failureCount += 1;
+          }
         }
       }
     }
+    if (failureCount > 0) {
+      throw new KeyValueException(
+          String.format(
+              "Unable to delete %d out of %d `Session` references",
+              failureCount, referencingEntities.size()));
+    }
   }
 }
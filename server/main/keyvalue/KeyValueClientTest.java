@@ -1,21 +1,33 @@
 package keyring.server.main.keyvalue;
 
+import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import keyring.server.main.Arithmetic;
 import keyring.server.main.Chronometry;
+import keyring.server.main.entities.Session;
 import keyring.server.main.keyvalue.values.KvAuthn;
 import keyring.server.main.keyvalue.values.KvSession;
 import name.falgout.jeffrey.testing.junit5.MockitoExtension;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
@@ -23,6 +35,7 @@ import org.testcontainers.utility.DockerImageName;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.util.Pool;
 
 @ExtendWith(MockitoExtension.class)
 @Testcontainers
@@ -34,6 +47,8 @@ class KeyValueClientTest {
   private static final String IP_ADDRESS = "127.0.0.1";
 
   private static JedisPool jedisPool;
+  @Mock private Pool<Jedis> mockJedisPool;
+  private KvSessionCache kvSessionCache;
   private KeyValueClient keyValueClient;
 
   @BeforeEach
@@ -41,8 +56,14 @@ class KeyValueClientTest {
     jedisPool =
         new JedisPool(
             new JedisPoolConfig(), redisContainer.getHost(), redisContainer.getFirstMappedPort());
+    kvSessionCache = new KvSessionCache(jedisPool, /* maximumSize */ 16, Duration.ofMinutes(1));
     keyValueClient =
-        new KeyValueClient(jedisPool, new Chronometry(new Arithmetic(), () -> Instant.EPOCH));
+        new KeyValueClient(
+            jedisPool,
+            new Chronometry(new Arithmetic(), () -> Instant.EPOCH),
+            kvSessionCache,
+            /* tombstoneChunkSize */ 64,
+            /* rawValues */ true);
   }
 
   @Test
@@ -57,6 +78,37 @@ class KeyValueClientTest {
     assertEquals(Optional.of(kvSession), keyValueClient.getExKvSession(sessionToken, IP_ADDRESS));
   }
 
+  @Test
+  void deleteSession_removesKvSession() {
+    String sessionToken = generateUniqueToken();
+    keyValueClient.createSession(sessionToken, 1L, IP_ADDRESS, 7L);
+
+    keyValueClient.deleteSession(sessionToken);
+
+    assertEquals(Optional.empty(), keyValueClient.getExKvSession(sessionToken, IP_ADDRESS));
+  }
+
+  @Test
+  void createSession_base64Values_readsBack() throws Exception {
+    KeyValueClient base64KeyValueClient =
+        new KeyValueClient(
+            jedisPool,
+            new Chronometry(new Arithmetic(), () -> Instant.EPOCH),
+            new KvSessionCache(jedisPool, /* maximumSize */ 16, Duration.ofMinutes(1)),
+            /* tombstoneChunkSize */ 64,
+            /* rawValues */ false);
+    String sessionToken = generateUniqueToken();
+
+    KvSession kvSession = base64KeyValueClient.createSession(sessionToken, 1L, IP_ADDRESS, 7L);
+
+    assertEquals(Optional.of(kvSession), keyValueClient.getExKvSession(sessionToken, IP_ADDRESS));
+    try (Jedis jedis = jedisPool.getResource()) {
+      // What replicas without `KvCodec` decode.
+      String value = jedis.get("session-token:" + sessionToken);
+      assertEquals(kvSession, KvSession.parseFrom(Base64.getDecoder().decode(value)));
+    }
+  }
+
   @Test
   void createSession_getsDuplicateToken_throwsException() {
     String sessionToken = generateUniqueToken();
@@ -86,21 +138,178 @@ class KeyValueClientTest {
   }
 
   @Test
-  void getExKvSession_findsToken_updatesExpirationTime() throws Exception {
+  void getExKvSession_findsToken_updatesExpirationTime() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      String sessionToken = generateUniqueToken();
+      keyValueClient.createSession(sessionToken, 1L, IP_ADDRESS, 7L);
+      // Only `GETEX` can bring the expiration time back.
+      jedis.persist("session-token:" + sessionToken);
+
+      Optional<KvSession> storedKvSession = keyValueClient.getExKvSession(sessionToken, IP_ADDRESS);
+
+      assertEquals(1L, storedKvSession.get().getUserId());
+      assertTrue(jedis.ttl("session-token:" + sessionToken) > 0);
+    }
+  }
+
+  @Test
+  void getExKvSession_cachedToken_skipsExpirationUpdate() {
     try (Jedis jedis = jedisPool.getResource()) {
       String sessionToken = generateUniqueToken();
       keyValueClient.createSession(sessionToken, 1L, IP_ADDRESS, 7L);
-      Thread.sleep(8 + 2);
-      long ttlBefore = jedis.pttl("session-token:" + sessionToken);
+      keyValueClient.getExKvSession(sessionToken, IP_ADDRESS);
+      jedis.persist("session-token:" + sessionToken);
 
       Optional<KvSession> storedKvSession = keyValueClient.getExKvSession(sessionToken, IP_ADDRESS);
-      long ttlAfter = jedis.pttl("session-token:" + sessionToken);
 
       assertEquals(1L, storedKvSession.get().getUserId());
-      assertTrue(ttlAfter > ttlBefore);
+      // `GETEX` would have set an expiration time again.
+      assertEquals(-1L, jedis.ttl("session-token:" + sessionToken));
+    }
+  }
+
+  @Test
+  void kvSessionCache_invalidatedSinceRead_dropsValue() {
+    String sessionKey = "session-token:" + generateUniqueToken();
+    long generation = kvSessionCache.generation();
+    kvSessionCache.invalidate(sessionKey);
+
+    kvSessionCache.put(sessionKey, KvSession.getDefaultInstance(), generation);
+
+    assertFalse(kvSessionCache.get(sessionKey).isPresent());
+  }
+
+  @Test
+  void safelyDeleteSeRefs_cachedToken_invalidates() {
+    String sessionToken = generateUniqueToken();
+    keyValueClient.createSession(sessionToken, 1L, IP_ADDRESS, 7L);
+    keyValueClient.getExKvSession(sessionToken, IP_ADDRESS);
+
+    keyValueClient.safelyDeleteSeRefs(
+        ImmutableList.of(new Session().setKey("session-token:" + sessionToken)));
+
+    assertFalse(keyValueClient.getExKvSession(sessionToken, IP_ADDRESS).isPresent());
+  }
+
+  @Test
+  void safelyDeleteSeRefs_spansChunks_deletesAll() {
+    List<String> sessionTokens = new ArrayList<>();
+    for (int index = 0; index < 150; ++index) {
+      String sessionToken = generateUniqueToken();
+      keyValueClient.createSession(sessionToken, 1L, IP_ADDRESS, index);
+      sessionTokens.add(sessionToken);
+    }
+
+    keyValueClient.safelyDeleteSeRefs(toSessions(sessionTokens));
+
+    for (String sessionToken : sessionTokens) {
+      assertFalse(keyValueClient.getExKvSession(sessionToken, IP_ADDRESS).isPresent());
+    }
+  }
+
+  @Test
+  void safelyDeleteSeRefs_manySessions_pipelinesPerChunk() {
+    Jedis countingJedis =
+        spy(new Jedis(redisContainer.getHost(), redisContainer.getFirstMappedPort()));
+    when(mockJedisPool.getResource()).thenReturn(countingJedis);
+    KeyValueClient countingKeyValueClient =
+        new KeyValueClient(
+            mockJedisPool,
+            new Chronometry(new Arithmetic(), () -> Instant.EPOCH),
+            kvSessionCache,
+            /* tombstoneChunkSize */ 64,
+            /* rawValues */ true);
+
+    countingKeyValueClient.safelyDeleteSeRefs(toSessions(generateUniqueTokens(1024)));
+
+    // One round-trip per chunk instead of one per session.
+    verify(countingJedis, times(1024 / 64)).pipelined();
+  }
+
+  @Test
+  void acquireToken_exceedsCapacity_rejects() {
+    String bucketKey = generateUniqueToken();
+
+    for (int attempt = 0; attempt < 3; ++attempt) {
+      assertTrue(keyValueClient.acquireToken(bucketKey, 3, Duration.ofMinutes(1)));
+    }
+    assertFalse(keyValueClient.acquireToken(bucketKey, 3, Duration.ofMinutes(1)));
+  }
+
+  @Test
+  void acquireToken_scriptCacheFlushed_reloadsScript() {
+    keyValueClient.preloadScripts();
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.scriptFlush();
+    }
+
+    assertTrue(keyValueClient.acquireToken(generateUniqueToken(), 1, Duration.ofMinutes(1)));
+  }
+
+  @Test
+  void addToSlidingWindow_exceedsLimit_rejectsWithoutCounting() {
+    String counterKey = generateUniqueToken();
+    Duration window = Duration.ofHours(1);
+
+    assertTrue(keyValueClient.addToSlidingWindow(counterKey, window, 3, 2));
+    assertFalse(keyValueClient.addToSlidingWindow(counterKey, window, 3, 2));
+    assertTrue(keyValueClient.addToSlidingWindow(counterKey, window, 3, 1));
+    assertFalse(keyValueClient.addToSlidingWindow(counterKey, window, 3, 1));
+  }
+
+  @Test
+  void exchangeAuthnForSession_authnPresent_swapsKeys() {
+    String authnToken = generateUniqueToken();
+    String sessionToken = generateUniqueToken();
+    keyValueClient.createAuthn(authnToken, 1L, IP_ADDRESS, 7L);
+
+    Optional<KvSession> kvSession =
+        keyValueClient.exchangeAuthnForSession(authnToken, sessionToken, 1L, IP_ADDRESS, 7L);
+
+    assertTrue(kvSession.isPresent());
+    assertEquals(kvSession, keyValueClient.getExKvSession(sessionToken, IP_ADDRESS));
+    assertFalse(keyValueClient.getKvAuthn(authnToken, IP_ADDRESS).isPresent());
+  }
+
+  @Test
+  void exchangeAuthnForSession_authnConsumed_returnsEmpty() {
+    String authnToken = generateUniqueToken();
+    keyValueClient.createAuthn(authnToken, 1L, IP_ADDRESS, 7L);
+    keyValueClient.exchangeAuthnForSession(authnToken, generateUniqueToken(), 1L, IP_ADDRESS, 7L);
+    String sessionToken = generateUniqueToken();
+
+    assertFalse(
+        keyValueClient
+            .exchangeAuthnForSession(authnToken, sessionToken, 1L, IP_ADDRESS, 7L)
+            .isPresent());
+    assertFalse(keyValueClient.getExKvSession(sessionToken, IP_ADDRESS).isPresent());
+  }
+
+  @Test
+  void recordKvSessionWrite_sessionPresent_keepsTtl() {
+    String sessionToken = generateUniqueToken();
+    KvSession kvSession = keyValueClient.createSession(sessionToken, 1L, IP_ADDRESS, 7L);
+
+    Optional<KvSession> updatedKvSession =
+        keyValueClient.recordKvSessionWrite(sessionToken, kvSession);
+
+    assertTrue(updatedKvSession.isPresent());
+    assertEquals(updatedKvSession, keyValueClient.getExKvSession(sessionToken, IP_ADDRESS));
+    try (Jedis jedis = jedisPool.getResource()) {
+      assertTrue(jedis.ttl(keyValueClient.convertSessionTokenToKey(sessionToken)) > 0);
     }
   }
 
+  @Test
+  void recordKvSessionWrite_sessionDeleted_returnsEmpty() {
+    String sessionToken = generateUniqueToken();
+    KvSession kvSession = keyValueClient.createSession(sessionToken, 1L, IP_ADDRESS, 7L);
+    keyValueClient.safelyDeleteSeRefs(toSessions(ImmutableList.of(sessionToken)));
+
+    assertFalse(keyValueClient.recordKvSessionWrite(sessionToken, kvSession).isPresent());
+    assertFalse(keyValueClient.getExKvSession(sessionToken, IP_ADDRESS).isPresent());
+  }
+
   @Test
   void createAuthn_getsUniqueToken_putsKeyToKvAuthn() {
     String authnToken = generateUniqueToken();
@@ -126,4 +335,20 @@ class KeyValueClientTest {
   private String generateUniqueToken() {
     return UUID.randomUUID().toString();
   }
+
+  private List<String> generateUniqueTokens(int count) {
+    List<String> tokens = new ArrayList<>(count);
+    for (int index = 0; index < count; ++index) {
+      tokens.add(generateUniqueToken());
+    }
+    return tokens;
+  }
+
+  private List<Session> toSessions(List<String> sessionTokens) {
+    return sessionTokens.stream()
+        .map(
+            sessionToken ->
+                new Session().setKey(keyValueClient.convertSessionTokenToKey(sessionToken)))
+        .collect(toList());
+  }
 }
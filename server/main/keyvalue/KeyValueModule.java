@@ -4,30 +4,74 @@ import com.google.common.collect.ImmutableSet;
 import dagger.Module;
 import dagger.Provides;
 import java.net.URI;
+import java.time.Duration;
 import javax.inject.Singleton;
+import keyring.server.main.Chronometry;
 import keyring.server.main.Environment;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisClientConfig;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisSentinelPool;
 import redis.clients.jedis.Protocol;
 import redis.clients.jedis.util.Pool;
 
 @Module
 public class KeyValueModule {
+  private static final long KV_SESSION_CACHE_MAXIMUM_SIZE = 1 << 16;
+  // Bounds how much earlier than `SESSION_RELATIVE_DURATION_M` an idle session may expire.
+  private static final Duration KV_SESSION_CACHE_REFRESH_INTERVAL = Duration.ofMinutes(1);
+
   @Provides
   @Singleton
   static Pool<Jedis> provideJedisPool(Environment environment) {
+    JedisPoolConfig poolConfig = new JedisPoolConfig();
+    int handlerThreads = environment.getGrpcHandlerThreads();
+    if (handlerThreads > 0) {
+      // Every handler may hold a connection, plus `KvSessionCache.subscribe` and
+      // `MailerOutboxRelay`.
+      poolConfig.setMaxTotal(handlerThreads + 2);
+      poolConfig.setMaxIdle(handlerThreads + 2);
+    }
     if (environment.isProduction()) {
+      JedisClientConfig clientConfig =
+          DefaultJedisClientConfig.builder().password(environment.getRedisPassword()).build();
       return new JedisSentinelPool(
           "default",
           // https://github.com/bitnami/charts/tree/master/bitnami/redis#master-replicas-with-sentinel
           ImmutableSet.of(
-              String.format("%s:%d", environment.getRedisHost(), Protocol.DEFAULT_SENTINEL_PORT)),
-          environment.getRedisPassword(),
-          environment.getRedisPassword());
+              new HostAndPort(environment.getRedisHost(), Protocol.DEFAULT_SENTINEL_PORT)),
+          poolConfig,
+          clientConfig,
+          clientConfig);
     }
     return new JedisPool(
+        poolConfig,
         URI.create(
             String.format("redis://%s:%d", environment.getRedisHost(), Protocol.DEFAULT_PORT)));
   }
+
+  @Provides
+  @Singleton
+  static KvSessionCache provideKvSessionCache(Pool<Jedis> jedisPool) {
+    return new KvSessionCache(
+        jedisPool, KV_SESSION_CACHE_MAXIMUM_SIZE, KV_SESSION_CACHE_REFRESH_INTERVAL);
+  }
+
+  @Provides
+  @Singleton
+  static KeyValueClient provideKeyValueClient(
+      Pool<Jedis> jedisPool,
+      Chronometry chronometry,
+      KvSessionCache kvSessionCache,
+      Environment environment) {
+    return new KeyValueClient(
+        jedisPool,
+        chronometry,
+        kvSessionCache,
+        environment.getRedisTombstoneChunkSize(),
+        environment.areKvRawValuesEnabled());
+  }
 }
@@ -0,0 +1,57 @@
+package keyring.server.main.keyvalue;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Serializes values as `[HEADER_MARKER, version, ...payload]`.
+ *
+ * <p>Values without the marker are Base64 strings written before the header was introduced. Both
+ * are always readable, while raw writes stay behind `--kv_raw_values` until no replica is left that
+ * only reads Base64.
+ */
+final class KvCodec {
+  // Never produced by `Base64.Encoder`.
+  private static final byte HEADER_MARKER = 0;
+  private static final int HEADER_LENGTH = 2;
+  static final byte RAW_PROTO_VERSION = 1;
+
+  private static final Base64.Encoder base64Encoder = Base64.getEncoder();
+  private static final Base64.Decoder base64Decoder = Base64.getDecoder();
+
+  private KvCodec() {}
+
+  static byte[] encode(MessageLite message) {
+    int size = message.getSerializedSize();
+    byte[] value = new byte[HEADER_LENGTH + size];
+    value[0] = HEADER_MARKER;
+    value[1] = RAW_PROTO_VERSION;
+    CodedOutputStream output = CodedOutputStream.newInstance(value, HEADER_LENGTH, size);
+    try {
+      message.writeTo(output);
+    } catch (IOException exception) {
+      throw new KeyValueException(exception);
+    }
+    output.checkNoSpaceLeft();
+    return value;
+  }
+
+  static byte[] encodeBase64(MessageLite message) {
+    return base64Encoder.encode(message.toByteArray());
+  }
+
+  static <T> T decode(byte[] value, Parser<T> parser) throws InvalidProtocolBufferException {
+    if (value.length >= HEADER_LENGTH && value[0] == HEADER_MARKER) {
+      if (value[1] != RAW_PROTO_VERSION) {
+        throw new InvalidProtocolBufferException(
+            String.format("Unknown value version %d", value[1]));
+      }
+      return parser.parseFrom(value, HEADER_LENGTH, value.length - HEADER_LENGTH);
+    }
+    return parser.parseFrom(base64Decoder.decode(value));
+  }
+}
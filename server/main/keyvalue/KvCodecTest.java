@@ -0,0 +1,58 @@
+package keyring.server.main.keyvalue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import keyring.server.main.keyvalue.values.KvSession;
+import org.junit.jupiter.api.Test;
+
+class KvCodecTest {
+  private static final KvSession KV_SESSION =
+      KvSession.newBuilder()
+          .setSessionToken("0123456789abcdef0123456789abcdef")
+          .setCreationTimeMillis(1L)
+          .setUserId(2L)
+          .setIpAddress("127.0.0.1")
+          .setSessionEntityId(3L)
+          .build();
+
+  @Test
+  void decode_encodedValue_returnsMessage() throws Exception {
+    assertEquals(KV_SESSION, KvCodec.decode(KvCodec.encode(KV_SESSION), KvSession.parser()));
+  }
+
+  @Test
+  void decode_encodedBase64Value_returnsMessage() throws Exception {
+    assertEquals(KV_SESSION, KvCodec.decode(KvCodec.encodeBase64(KV_SESSION), KvSession.parser()));
+  }
+
+  @Test
+  void decode_legacyBase64Value_returnsMessage() throws Exception {
+    byte[] legacyValue =
+        Base64.getEncoder()
+            .encodeToString(KV_SESSION.toByteArray())
+            .getBytes(StandardCharsets.US_ASCII);
+
+    assertEquals(KV_SESSION, KvCodec.decode(legacyValue, KvSession.parser()));
+  }
+
+  @Test
+  void decode_unknownVersion_throwsException() {
+    byte[] value = KvCodec.encode(KV_SESSION);
+    value[1] = KvCodec.RAW_PROTO_VERSION + 1;
+
+    assertThrows(
+        InvalidProtocolBufferException.class, () -> KvCodec.decode(value, KvSession.parser()));
+  }
+
+  @Test
+  void encode_isSmallerThanBase64() {
+    int legacySize = Base64.getEncoder().encode(KV_SESSION.toByteArray()).length;
+
+    assertTrue(KvCodec.encode(KV_SESSION).length < legacySize);
+  }
+}
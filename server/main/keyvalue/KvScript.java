@@ -0,0 +1,50 @@
+package keyring.server.main.keyvalue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+/**
+ * Lua script invoked through `EVALSHA`.
+ *
+ * <p>The script cache is wiped by restarts and failovers, hence `NOSCRIPT` replies trigger a
+ * `SCRIPT LOAD` followed by a single retry.
+ */
+final class KvScript {
+  private final byte[] source;
+  private final byte[] sha1;
+
+  KvScript(String... lines) {
+    this.source = String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+    try {
+      this.sha1 = toHex(MessageDigest.getInstance("SHA-1").digest(source));
+    } catch (NoSuchAlgorithmException exception) {
+      throw new IllegalStateException(exception);
+    }
+  }
+
+  private static byte[] toHex(byte[] bytes) {
+    byte[] hex = new byte[bytes.length * 2];
+    for (int index = 0; index < bytes.length; ++index) {
+      hex[2 * index] = (byte) Character.forDigit((bytes[index] >> 4) & 0xf, 16);
+      hex[2 * index + 1] = (byte) Character.forDigit(bytes[index] & 0xf, 16);
+    }
+    return hex;
+  }
+
+  void load(Jedis jedis) {
+    jedis.scriptLoad(source);
+  }
+
+  Object evalSha(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+    try {
+      return jedis.evalsha(sha1, keys, args);
+    } catch (JedisNoScriptException exception) {
+      load(jedis);
+      return jedis.evalsha(sha1, keys, args);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package keyring.server.main.keyvalue;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import keyring.server.main.keyvalue.values.KvSession;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * Near cache of decoded `KvSession`s keyed by their Redis key.
+ *
+ * <p>An entry lives for at most `refreshInterval` after the `GETEX` that produced it, so the Redis
+ * TTL is guaranteed to be at least `SESSION_RELATIVE_DURATION_M - refreshInterval` on every hit.
+ * Tombstones written by other replicas arrive through `INVALIDATION_CHANNEL`.
+ *
+ * <p>Every invalidation bumps `generation`, and a value read from Redis is only kept if no
+ * invalidation happened since the read started, so a revoked session cannot be cached again.
+ */
+public class KvSessionCache {
+  private static final Logger logger = Logger.getLogger(KvSessionCache.class.getName());
+  static final String INVALIDATION_CHANNEL = "session-token-invalidations";
+  private static final long RESUBSCRIBE_DELAY_MILLIS = 1000;
+
+  private Pool<Jedis> jedisPool;
+  private Cache<String, KvSession> cache;
+  private final AtomicLong generation = new AtomicLong();
+
+  public KvSessionCache(Pool<Jedis> jedisPool, long maximumSize, Duration refreshInterval) {
+    this.jedisPool = jedisPool;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(refreshInterval.toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  Optional<KvSession> get(String sessionKey) {
+    return Optional.ofNullable(cache.getIfPresent(sessionKey));
+  }
+
+  /** To be taken before reading the value that is later passed to `put`. */
+  long generation() {
+    return generation.get();
+  }
+
+  void put(String sessionKey, KvSession kvSession, long readGeneration) {
+    cache.put(sessionKey, kvSession);
+    // Invalidations bump `generation` first, so one racing with `put` is seen here.
+    if (generation.get() != readGeneration) {
+      cache.invalidate(sessionKey);
+    }
+  }
+
+  void invalidate(String sessionKey) {
+    generation.incrementAndGet();
+    cache.invalidate(sessionKey);
+  }
+
+  private void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  private final class InvalidationListener extends JedisPubSub {
+    @Override
+    public void onSubscribe(String channel, int subscribedChannels) {
+      // Anything published while we were not listening is lost.
+      invalidateAll();
+    }
+
+    @Override
+    public void onMessage(String channel, String message) {
+      invalidate(message);
+    }
+  }
+
+  /** Blocks the calling thread, listening to invalidations from all replicas. */
+  public void subscribe() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try (Jedis jedis = jedisPool.getResource()) {
+        jedis.subscribe(new InvalidationListener(), INVALIDATION_CHANNEL);
+      } catch (JedisException exception) {
+        logger.log(Level.WARNING, "`KvSessionCache` subscription is broken", exception);
+      }
+      invalidateAll();
+      try {
+        Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
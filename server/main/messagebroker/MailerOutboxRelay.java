@@ -0,0 +1,128 @@
+package keyring.server.main.messagebroker;
+
+import static java.util.stream.Collectors.toList;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import keyring.server.mailer.BrokerKeys;
+import keyring.server.mailer.requests.MailerRequest;
+import keyring.server.main.aspects.Annotations.ContextualEntityManager;
+import keyring.server.main.aspects.Annotations.WithEntityManager;
+import keyring.server.main.aspects.Annotations.WithEntityTransaction;
+import keyring.server.main.entities.MailerOutboxEntry;
+import keyring.server.main.entities.MailerOutboxEntry_;
+import org.hibernate.LockOptions;
+
+/**
+ * Drains `MailerOutboxEntry` rows to the mailer stream, one pipelined batch per transaction.
+ *
+ * <p>Rows are deleted in the transaction that has published them, so a failed commit publishes
+ * them again: delivery is at least once. `SKIP LOCKED` lets several relays drain concurrently.
+ *
+ * <p>The stream is trimmed to `MAILER_MAX_LEN`, so the relay stops once the consumer group lags
+ * by `MAX_STREAM_BACKLOG` entries and leaves the rest in the outbox for the next run. Urgent
+ * entries are relayed first and up to `MAX_URGENT_STREAM_BACKLOG`, so that bulk ones do not hold
+ * them up.
+ */
+public class MailerOutboxRelay implements Runnable {
+  private static final Logger logger = Logger.getLogger(MailerOutboxRelay.class.getName());
+  private static final String LOCK_TIMEOUT_HINT = "javax.persistence.lock.timeout";
+  static final int BATCH_SIZE = 256;
+  // A quarter of the cap is left to dead letter replays and to approximate trimming.
+  static final long MAX_URGENT_STREAM_BACKLOG = BrokerKeys.MAILER_MAX_LEN * 3 / 4;
+  // Another quarter is kept for urgent entries.
+  static final long MAX_STREAM_BACKLOG = BrokerKeys.MAILER_MAX_LEN / 2;
+
+  private MessageBrokerClient messageBrokerClient;
+
+  @ContextualEntityManager private EntityManager entityManager;
+
+  @Inject
+  public MailerOutboxRelay(MessageBrokerClient messageBrokerClient) {
+    this.messageBrokerClient = messageBrokerClient;
+  }
+
+  /** Returns the number of entries taken off the outbox. */
+  @WithEntityManager
+  @WithEntityTransaction
+  int relayBatch(boolean urgent) {
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<MailerOutboxEntry> criteriaQuery =
+        criteriaBuilder.createQuery(MailerOutboxEntry.class);
+    Root<MailerOutboxEntry> entryRoot = criteriaQuery.from(MailerOutboxEntry.class);
+    criteriaQuery
+        .select(entryRoot)
+        .where(criteriaBuilder.equal(entryRoot.get(MailerOutboxEntry_.urgent), urgent))
+        .orderBy(criteriaBuilder.asc(entryRoot.get(MailerOutboxEntry_.identifier)));
+    List<MailerOutboxEntry> entries =
+        entityManager
+            .createQuery(criteriaQuery)
+            .setMaxResults(BATCH_SIZE)
+            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+            .setHint(LOCK_TIMEOUT_HINT, LockOptions.SKIP_LOCKED)
+            .getResultList();
+    if (entries.isEmpty()) {
+      return 0;
+    }
+    long headroom =
+        (urgent ? MAX_URGENT_STREAM_BACKLOG : MAX_STREAM_BACKLOG)
+            - messageBrokerClient.countUnacknowledgedMailerRequests();
+    if (headroom <= 0) {
+      logger.fine("Mailer stream is backed up, leaving the rest in the outbox");
+      return 0;
+    }
+    if (headroom < entries.size()) {
+      entries = entries.subList(0, (int) headroom);
+    }
+    List<MailerRequest> mailerRequests = new ArrayList<>(entries.size());
+    for (MailerOutboxEntry entry : entries) {
+      try {
+        mailerRequests.add(MailerRequest.parseFrom(entry.getRequest()));
+      } catch (InvalidProtocolBufferException exception) {
+        logger.severe(
+            String.format(
+                "Unable to parse `MailerRequest` from entry %d: %s",
+                entry.getIdentifier(), exception.getMessage()));
+      }
+    }
+    if (!mailerRequests.isEmpty()) {
+      messageBrokerClient.publishMailerRequests(mailerRequests);
+    }
+    CriteriaDelete<MailerOutboxEntry> criteriaDelete =
+        criteriaBuilder.createCriteriaDelete(MailerOutboxEntry.class);
+    Root<MailerOutboxEntry> deleteRoot = criteriaDelete.from(MailerOutboxEntry.class);
+    criteriaDelete.where(
+        deleteRoot
+            .get(MailerOutboxEntry_.identifier)
+            .in(entries.stream().map(MailerOutboxEntry::getIdentifier).collect(toList())));
+    entityManager.createQuery(criteriaDelete).executeUpdate();
+    return entries.size();
+  }
+
+  private long drain(boolean urgent) {
+    long relayedCount = 0;
+    while (true) {
+      int batchSize = relayBatch(urgent);
+      relayedCount += batchSize;
+      if (batchSize < BATCH_SIZE) {
+        return relayedCount;
+      }
+    }
+  }
+
+  public void run() {
+    long relayedCount = drain(/* urgent */ true) + drain(/* urgent */ false);
+    if (relayedCount > 0) {
+      logger.info(String.format("Relayed %d mailer requests", relayedCount));
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package keyring.server.main.messagebroker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import javax.persistence.EntityManager;
+import javax.persistence.Persistence;
+import keyring.server.mailer.BrokerKeys;
+import keyring.server.main.aspects.Annotations.ContextualEntityManager;
+import keyring.server.main.aspects.Annotations.WithEntityManager;
+import keyring.server.main.aspects.Annotations.WithEntityTransaction;
+import keyring.server.main.aspects.StorageManagerAspect;
+import keyring.server.main.entities.MailerOutboxEntry;
+import keyring.server.main.storage.StorageException;
+import org.aspectj.lang.Aspects;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+@Testcontainers
+class MailerOutboxRelayTest {
+  @Container
+  private GenericContainer redisContainer =
+      new GenericContainer(DockerImageName.parse("redis")).withExposedPorts(6379);
+
+  @ContextualEntityManager private EntityManager entityManager;
+
+  private JedisPool jedisPool;
+  private MailerOutboxRelay mailerOutboxRelay;
+
+  @BeforeEach
+  void beforeEach() {
+    Aspects.aspectOf(StorageManagerAspect.class)
+        .initialize(Persistence.createEntityManagerFactory("testing"));
+    jedisPool =
+        new JedisPool(
+            new JedisPoolConfig(), redisContainer.getHost(), redisContainer.getFirstMappedPort());
+    mailerOutboxRelay = new MailerOutboxRelay(new MessageBrokerClient(jedisPool));
+  }
+
+  @Test
+  @WithEntityManager
+  void run_publishesEntries_deletesThem() {
+    persistEntries(2, /* urgent */ false);
+
+    mailerOutboxRelay.run();
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      assertEquals(2, jedis.xlen(BrokerKeys.MAILER_STREAM));
+    }
+    assertEquals(0, countOutboxEntries());
+  }
+
+  @Test
+  @WithEntityManager
+  void relayBatch_brokerRejects_rollsBack() {
+    persistEntries(2, /* urgent */ false);
+    try (Jedis jedis = jedisPool.getResource()) {
+      // `XADD` replies with `WRONGTYPE` to a key holding a string.
+      jedis.set(BrokerKeys.MAILER_STREAM, "");
+    }
+
+    StorageException exception =
+        assertThrows(
+            StorageException.class,
+            () -> mailerOutboxRelay.relayBatch(/* urgent */ false));
+
+    assertTrue(exception.getCause() instanceof JedisDataException);
+    assertEquals(2, countOutboxEntries());
+  }
+
+  @Test
+  @WithEntityManager
+  void run_streamNearlyBackedUp_relaysUpToBacklog() {
+    persistEntries(2, /* urgent */ false);
+    fillStream(MailerOutboxRelay.MAX_STREAM_BACKLOG - 1);
+
+    mailerOutboxRelay.run();
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      assertEquals(MailerOutboxRelay.MAX_STREAM_BACKLOG, jedis.xlen(BrokerKeys.MAILER_STREAM));
+    }
+    assertEquals(1, countOutboxEntries());
+  }
+
+  @Test
+  @WithEntityManager
+  void run_consumerGroupLags_keepsEntries() {
+    persistEntries(2, /* urgent */ false);
+    fillStream(MailerOutboxRelay.MAX_STREAM_BACKLOG);
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.xgroupCreate(
+          BrokerKeys.MAILER_STREAM, BrokerKeys.DEFAULT_GROUP, new StreamEntryID(), false);
+    }
+
+    mailerOutboxRelay.run();
+
+    assertEquals(2, countOutboxEntries());
+  }
+
+  @Test
+  @WithEntityManager
+  void run_streamBackedUpByBulk_relaysUrgent() {
+    persistEntries(1, /* urgent */ false);
+    persistEntries(1, /* urgent */ true);
+    fillStream(MailerOutboxRelay.MAX_STREAM_BACKLOG);
+
+    mailerOutboxRelay.run();
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      assertEquals(MailerOutboxRelay.MAX_STREAM_BACKLOG + 1, jedis.xlen(BrokerKeys.MAILER_STREAM));
+    }
+    assertEquals(1, countOutboxEntries());
+  }
+
+  @Test
+  @WithEntityManager
+  void run_emptyOutbox_skipsBroker() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      // Any command on the stream would fail with `WRONGTYPE`.
+      jedis.set(BrokerKeys.MAILER_STREAM, "");
+    }
+
+    mailerOutboxRelay.run();
+
+    assertEquals(0, countOutboxEntries());
+  }
+
+  private void fillStream(long count) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      for (long index = 0; index < count; ++index) {
+        jedis.xadd(
+            BrokerKeys.MAILER_STREAM,
+            StreamEntryID.NEW_ENTRY,
+            ImmutableMap.of(BrokerKeys.REQUEST_FIELD, ""));
+      }
+    }
+  }
+
+  @WithEntityTransaction
+  private void persistEntries(int count, boolean urgent) {
+    for (int index = 0; index < count; ++index) {
+      entityManager.persist(
+          new MailerOutboxEntry()
+              .setRequest(
+                  MessageBrokerClient.createMailVc("mail@example.com", "username", "0")
+                      .toByteArray())
+              .setUrgent(urgent));
+    }
+  }
+
+  private long countOutboxEntries() {
+    return entityManager
+        .createQuery("SELECT COUNT(e) FROM MailerOutboxEntry e", Long.class)
+        .getSingleResult();
+  }
+}
@@ -2,19 +2,23 @@ package keyring.server.main.messagebroker;
 
 import com.google.common.collect.ImmutableMap;
 import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import keyring.server.mailer.BrokerKeys;
+import keyring.server.mailer.StreamBacklog;
 import keyring.server.mailer.requests.DeactivationNotice;
 import keyring.server.mailer.requests.MailVc;
 import keyring.server.mailer.requests.MailerRequest;
 import keyring.server.mailer.requests.UncompletedAuthn;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
 import redis.clients.jedis.params.XAddParams;
 import redis.clients.jedis.util.Pool;
 
 public class MessageBrokerClient {
-  private static final long MAILER_MAX_LEN = 640;
   private Pool<Jedis> jedisPool;
   private Base64.Encoder base64Encoder;
 
@@ -24,45 +28,85 @@ public class MessageBrokerClient {
     this.base64Encoder = Base64.getEncoder();
   }
 
+  private static XAddParams createXAddParams() {
+    // https://github.com/redis/redis/issues/5774
+    return new XAddParams()
+        .id(StreamEntryID.NEW_ENTRY)
+        .approximateTrimming()
+        .maxLen(BrokerKeys.MAILER_MAX_LEN);
+  }
+
+  private Map<String, String> encode(MailerRequest mailerRequest) {
+    return ImmutableMap.of(
+        BrokerKeys.REQUEST_FIELD, base64Encoder.encodeToString(mailerRequest.toByteArray()));
+  }
+
   private void publishMailerRequest(MailerRequest mailerRequest) {
     try (Jedis jedis = jedisPool.getResource()) {
-      jedis.xadd(
-          BrokerKeys.MAILER_STREAM,
-          // https://github.com/redis/redis/issues/5774
-          new XAddParams().id(StreamEntryID.NEW_ENTRY).approximateTrimming().maxLen(MAILER_MAX_LEN),
-          ImmutableMap.of(
-              BrokerKeys.REQUEST_FIELD, base64Encoder.encodeToString(mailerRequest.toByteArray())));
+      jedis.xadd(BrokerKeys.MAILER_STREAM, createXAddParams(), encode(mailerRequest));
+    }
+  }
+
+  /**
+   * Publishes all of `mailerRequests` in one round-trip.
+   *
+   * <p>Throws if any of them is rejected, as a pipeline does not raise errors by itself.
+   */
+  public void publishMailerRequests(List<MailerRequest> mailerRequests) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+      for (MailerRequest mailerRequest : mailerRequests) {
+        pipeline.xadd(BrokerKeys.MAILER_STREAM, createXAddParams(), encode(mailerRequest));
+      }
+      for (Object reply : pipeline.syncAndReturnAll()) {
+        if (reply instanceof JedisDataException) {
+          throw (JedisDataException) reply;
+        }
+      }
     }
   }
 
+  /** See `StreamBacklog.countUnacknowledged`. */
+  public long countUnacknowledgedMailerRequests() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return StreamBacklog.countUnacknowledged(jedis);
+    }
+  }
+
+  public static MailerRequest createMailVc(String mail, String username, String code) {
+    return MailerRequest.newBuilder()
+        .setMailVc(MailVc.newBuilder().setMail(mail).setUsername(username).setCode(code))
+        .build();
+  }
+
   public void publishMailVc(String mail, String username, String code) {
-    publishMailerRequest(
-        MailerRequest.newBuilder()
-            .setMailVc(MailVc.newBuilder().setMail(mail).setUsername(username).setCode(code))
-            .build());
+    publishMailerRequest(createMailVc(mail, username, code));
+  }
+
+  public static MailerRequest createUncompletedAuthn(
+      String mail, String username, String ipAddress) {
+    return MailerRequest.newBuilder()
+        .setUncompletedAuthn(
+            UncompletedAuthn.newBuilder()
+                .setMail(mail)
+                .setUsername(username)
+                .setIpAddress(ipAddress))
+        .build();
   }
 
   public void publishUncompletedAuthn(String mail, String username, String ipAddress) {
-    publishMailerRequest(
-        MailerRequest.newBuilder()
-            .setUncompletedAuthn(
-                UncompletedAuthn.newBuilder()
-                    .setMail(mail)
-                    .setUsername(username)
-                    .setIpAddress(ipAddress))
-            .build());
+    publishMailerRequest(createUncompletedAuthn(mail, username, ipAddress));
   }
 
-  public void publishDeactivationNotice(
+  public static MailerRequest createDeactivationNotice(
       String mail, String username, int inactivityPeriodYears, int daysLeft) {
-    publishMailerRequest(
-        MailerRequest.newBuilder()
-            .setDeactivationNotice(
-                DeactivationNotice.newBuilder()
-                    .setMail(mail)
-                    .setUsername(username)
-                    .setInactivityPeriodYears(inactivityPeriodYears)
-                    .setDaysLeft(daysLeft))
-            .build());
+    return MailerRequest.newBuilder()
+        .setDeactivationNotice(
+            DeactivationNotice.newBuilder()
+                .setMail(mail)
+                .setUsername(username)
+                .setInactivityPeriodYears(inactivityPeriodYears)
+                .setDaysLeft(daysLeft))
+        .build();
   }
 }
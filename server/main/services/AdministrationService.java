@@ -1,8 +1,6 @@
 package keyring.server.main.services;
 
-import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
 import static keyring.server.main.storage.AccountOperationsInterface.MtNudgeStatus;
 
@@ -12,8 +10,10 @@ import com.warrenstrange.googleauth.GoogleAuthenticatorQRGenerator;
 import com.warrenstrange.googleauth.IGoogleAuthenticator;
 import io.grpc.Status;
 import io.grpc.StatusException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import io.vavr.Tuple2;
+import io.vavr.Tuple3;
 import io.vavr.control.Either;
 import java.util.Comparator;
 import java.util.List;
@@ -42,7 +42,6 @@ import keyring.server.main.interceptors.AgentAccessor;
 import keyring.server.main.interceptors.SessionAccessor;
 import keyring.server.main.interceptors.VersionAccessor;
 import keyring.server.main.keyvalue.KeyValueClient;
-import keyring.server.main.messagebroker.MessageBrokerClient;
 import keyring.server.main.proto.service.AcceptOtpParamsRequest;
 import keyring.server.main.proto.service.AcceptOtpParamsResponse;
 import keyring.server.main.proto.service.AckFeaturePromptRequest;
@@ -72,12 +71,16 @@ import keyring.server.main.proto.service.ImportKeysResponse;
 import keyring.server.main.proto.service.KeepAliveRequest;
 import keyring.server.main.proto.service.KeepAliveResponse;
 import keyring.server.main.proto.service.KeyProto;
+import keyring.server.main.proto.service.ReadKeyChangesRequest;
+import keyring.server.main.proto.service.ReadKeyChangesResponse;
 import keyring.server.main.proto.service.ReadKeysRequest;
 import keyring.server.main.proto.service.ReadKeysResponse;
 import keyring.server.main.proto.service.ReleaseMailTokenRequest;
 import keyring.server.main.proto.service.ReleaseMailTokenResponse;
 import keyring.server.main.proto.service.ResetOtpRequest;
 import keyring.server.main.proto.service.ResetOtpResponse;
+import keyring.server.main.proto.service.StreamKeysRequest;
+import keyring.server.main.proto.service.StreamKeysResponse;
 import keyring.server.main.proto.service.TogglePinRequest;
 import keyring.server.main.proto.service.TogglePinResponse;
 import keyring.server.main.proto.service.UpdateKeyRequest;
@@ -92,7 +95,6 @@ public class AdministrationService extends AdministrationGrpc.AdministrationImpl
   private SessionAccessor sessionAccessor;
   private KeyValueClient keyValueClient;
   private Cryptography cryptography;
-  private MessageBrokerClient messageBrokerClient;
   private IGoogleAuthenticator googleAuthenticator;
   private Chronometry chronometry;
   private MailValidation mailValidation;
@@ -101,6 +103,7 @@ public class AdministrationService extends AdministrationGrpc.AdministrationImpl
 
   private static final int OTP_TTS_COUNT = 5;
   private static final String OTP_ISSUER = "parolica.com";
+  static final int STREAM_KEYS_PAGE_SIZE = 64;
 
   @Inject
   AdministrationService(
@@ -110,7 +113,6 @@ public class AdministrationService extends AdministrationGrpc.AdministrationImpl
       SessionAccessor sessionAccessor,
       KeyValueClient keyValueClient,
       Cryptography cryptography,
-      MessageBrokerClient messageBrokerClient,
       IGoogleAuthenticator googleAuthenticator,
       Chronometry chronometry,
       MailValidation mailValidation,
@@ -122,7 +124,6 @@ public class AdministrationService extends AdministrationGrpc.AdministrationImpl
     this.sessionAccessor = sessionAccessor;
     this.keyValueClient = keyValueClient;
     this.cryptography = cryptography;
-    this.messageBrokerClient = messageBrokerClient;
     this.googleAuthenticator = googleAuthenticator;
     this.chronometry = chronometry;
     this.mailValidation = mailValidation;
@@ -150,7 +151,6 @@ public class AdministrationService extends AdministrationGrpc.AdministrationImpl
     MailToken mailToken =
         accountOperationsInterface.createMailToken(
             userId, agentAccessor.getIpAddress(), mail, code);
-    messageBrokerClient.publishMailVc(mail, user.getUsername(), code);
     return Either.right(builder.setTokenUid(String.valueOf(mailToken.getUuid())).build());
   }
 
@@ -249,14 +249,85 @@ public class AdministrationService extends AdministrationGrpc.AdministrationImpl
   @WithEntityManager
   @ValidateUser
   public void readKeys(ReadKeysRequest request, StreamObserver<ReadKeysResponse> response) {
-    List<KeyProto> keys =
-        keyOperationsInterface.readKeys(sessionAccessor.getSessionEntityId()).stream()
-            .map(Key::toKeyProto)
-            .collect(toList());
-    response.onNext(ReadKeysResponse.newBuilder().addAllKeys(keys).build());
+    Tuple2<Long, List<KeyProto>> snapshot =
+        keyOperationsInterface.readKeyProtos(sessionAccessor.getSessionEntityId());
+    response.onNext(
+        ReadKeysResponse.newBuilder()
+            .setKeysWatermark(snapshot._1)
+            .addAllKeys(snapshot._2)
+            .build());
+    response.onCompleted();
+  }
+
+  @Override
+  @WithEntityManager
+  @ValidateUser
+  public void readKeyChanges(
+      ReadKeyChangesRequest request, StreamObserver<ReadKeyChangesResponse> response) {
+    ReadKeyChangesResponse.Builder builder = ReadKeyChangesResponse.newBuilder();
+    Optional<Tuple3<Long, List<KeyProto>, List<UUID>>> maybeChanges =
+        keyOperationsInterface.readKeyChanges(
+            sessionAccessor.getSessionEntityId(), request.getKeysWatermark());
+    if (maybeChanges.isPresent()) {
+      Tuple3<Long, List<KeyProto>, List<UUID>> changes = maybeChanges.get();
+      builder
+          .setKeysWatermark(changes._1)
+          .addAllUpsertedKeys(changes._2)
+          .addAllDeletedKeyUids(changes._3.stream().map(UUID::toString).collect(toList()));
+    } else {
+      builder.setIsFullResyncRequired(true);
+    }
+    response.onNext(builder.build());
     response.onCompleted();
   }
 
+  @WithEntityManager
+  private Tuple2<List<KeyProto>, Long> readKeyPage(long sessionEntityId, long afterIdentifier) {
+    return keyOperationsInterface.readKeyPage(
+        sessionEntityId, afterIdentifier, STREAM_KEYS_PAGE_SIZE);
+  }
+
+  /** Sends pages for as long as the transport accepts them without buffering. */
+  private final class KeyStreamer implements Runnable {
+    private final long sessionEntityId;
+    private final ServerCallStreamObserver<StreamKeysResponse> response;
+    private long afterIdentifier = 0;
+    private boolean isDone = false;
+
+    KeyStreamer(long sessionEntityId, ServerCallStreamObserver<StreamKeysResponse> response) {
+      this.sessionEntityId = sessionEntityId;
+      this.response = response;
+    }
+
+    // gRPC never runs call callbacks concurrently, hence no synchronization.
+    @Override
+    public void run() {
+      while (!isDone && !response.isCancelled() && response.isReady()) {
+        Tuple2<List<KeyProto>, Long> page = readKeyPage(sessionEntityId, afterIdentifier);
+        if (!page._1.isEmpty()) {
+          response.onNext(StreamKeysResponse.newBuilder().addAllKeys(page._1).build());
+        }
+        afterIdentifier = page._2;
+        if (page._1.size() < STREAM_KEYS_PAGE_SIZE) {
+          isDone = true;
+          response.onCompleted();
+        }
+      }
+    }
+  }
+
+  @Override
+  @WithEntityManager
+  @ValidateUser
+  public void streamKeys(StreamKeysRequest request, StreamObserver<StreamKeysResponse> response) {
+    ServerCallStreamObserver<StreamKeysResponse> serverCallStreamObserver =
+        (ServerCallStreamObserver<StreamKeysResponse>) response;
+    KeyStreamer keyStreamer =
+        new KeyStreamer(sessionAccessor.getSessionEntityId(), serverCallStreamObserver);
+    serverCallStreamObserver.setOnReadyHandler(keyStreamer);
+    keyStreamer.run();
+  }
+
   @Override
   @WithEntityManager
   @ValidateUser
@@ -475,8 +546,7 @@ public class AdministrationService extends AdministrationGrpc.AdministrationImpl
             .sorted(Comparator.comparing(Session::getTimestamp).reversed())
             .collect(toList());
     Set<String> ipAddressSet = sessions.stream().map(Session::getIpAddress).collect(toSet());
-    Map<String, Geolocation> ipToGeolocation =
-        ipAddressSet.stream().collect(toMap(identity(), geolocationServiceInterface::getIpInfo));
+    Map<String, Geolocation> ipToGeolocation = geolocationServiceInterface.getIpInfos(ipAddressSet);
     response.onNext(
         GetRecentSessionsResponse.newBuilder()
             .addAllSessions(
@@ -487,7 +557,9 @@ public class AdministrationService extends AdministrationGrpc.AdministrationImpl
                                 .setCreationTimeInMillis(session.getTimestamp().toEpochMilli())
                                 .setIpAddress(session.getIpAddress())
                                 .setUserAgent(session.getUserAgent())
-                                .setGeolocation(ipToGeolocation.get(session.getIpAddress()))
+                                .setGeolocation(
+                                    ipToGeolocation.getOrDefault(
+                                        session.getIpAddress(), Geolocation.getDefaultInstance()))
                                 .setStatus(convertSessionStage(session.getStage()))
                                 .build())
                     .collect(toList()))
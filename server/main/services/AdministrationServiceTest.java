@@ -4,18 +4,25 @@ import static keyring.server.main.storage.AccountOperationsInterface.MtNudgeStat
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.warrenstrange.googleauth.GoogleAuthenticatorKey;
 import com.warrenstrange.googleauth.IGoogleAuthenticator;
 import io.grpc.Status;
 import io.grpc.StatusException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import io.vavr.Tuple;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -41,7 +48,6 @@ import keyring.server.main.interceptors.SessionAccessor;
 import keyring.server.main.interceptors.VersionAccessor;
 import keyring.server.main.keyvalue.KeyValueClient;
 import keyring.server.main.keyvalue.values.KvSession;
-import keyring.server.main.messagebroker.MessageBrokerClient;
 import keyring.server.main.proto.service.AcceptOtpParamsRequest;
 import keyring.server.main.proto.service.AcceptOtpParamsResponse;
 import keyring.server.main.proto.service.AcquireMailTokenRequest;
@@ -59,10 +65,15 @@ import keyring.server.main.proto.service.Geolocation;
 import keyring.server.main.proto.service.GetRecentSessionsRequest;
 import keyring.server.main.proto.service.GetRecentSessionsResponse;
 import keyring.server.main.proto.service.KeyPatch;
+import keyring.server.main.proto.service.KeyProto;
+import keyring.server.main.proto.service.ReadKeyChangesRequest;
+import keyring.server.main.proto.service.ReadKeyChangesResponse;
 import keyring.server.main.proto.service.ReleaseMailTokenRequest;
 import keyring.server.main.proto.service.ReleaseMailTokenResponse;
 import keyring.server.main.proto.service.ResetOtpRequest;
 import keyring.server.main.proto.service.ResetOtpResponse;
+import keyring.server.main.proto.service.StreamKeysRequest;
+import keyring.server.main.proto.service.StreamKeysResponse;
 import keyring.server.main.storage.AccountOperationsInterface;
 import keyring.server.main.storage.KeyOperationsInterface;
 import name.falgout.jeffrey.testing.junit5.MockitoExtension;
@@ -72,6 +83,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 
 @ExtendWith(MockitoExtension.class)
@@ -84,8 +96,8 @@ class AdministrationServiceTest {
   @Mock private SessionAccessor mockSessionAccessor;
   @Mock private KeyValueClient mockKeyValueClient;
   @Mock private StreamObserver mockStreamObserver;
+  @Mock private ServerCallStreamObserver<StreamKeysResponse> mockServerCallStreamObserver;
   @Mock private Cryptography mockCryptography;
-  @Mock private MessageBrokerClient mockMessageBrokerClient;
   @Mock private IGoogleAuthenticator mockGoogleAuthenticator;
   @Mock private Chronometry mockChronometry;
   @Mock private MailValidation mockMailValidation;
@@ -116,7 +128,6 @@ class AdministrationServiceTest {
             mockSessionAccessor,
             mockKeyValueClient,
             mockCryptography,
-            mockMessageBrokerClient,
             mockGoogleAuthenticator,
             mockChronometry,
             mockMailValidation,
@@ -336,7 +347,7 @@ class AdministrationServiceTest {
         AcquireMailTokenRequest.newBuilder().setDigest("digest").setMail("user@mail.com").build(),
         mockStreamObserver);
 
-    verify(mockMessageBrokerClient).publishMailVc("user@mail.com", "username", "17");
+    verify(mockAccountOperationsInterface).createMailToken(7L, "127.0.0.1", "user@mail.com", "17");
     verify(mockStreamObserver)
         .onNext(
             AcquireMailTokenResponse.newBuilder()
@@ -437,8 +448,11 @@ class AdministrationServiceTest {
             ImmutableList.of(
                 createDatabaseSession.apply(Instant.ofEpochSecond(1)),
                 createDatabaseSession.apply(Instant.ofEpochSecond(2))));
-    when(mockGeolocationServiceInterface.getIpInfo("127.0.0.1"))
-        .thenReturn(Geolocation.newBuilder().setCountry("Country").setCity("City").build());
+    when(mockGeolocationServiceInterface.getIpInfos(ImmutableSet.of("127.0.0.1")))
+        .thenReturn(
+            ImmutableMap.of(
+                "127.0.0.1",
+                Geolocation.newBuilder().setCountry("Country").setCity("City").build()));
 
     administrationService.getRecentSessions(
         GetRecentSessionsRequest.getDefaultInstance(), mockStreamObserver);
@@ -549,4 +563,87 @@ class AdministrationServiceTest {
     verify(mockStreamObserver).onError(argumentCaptor.capture());
     assertEquals(status, argumentCaptor.getValue().getStatus());
   }
+
+  @Test
+  void streamKeys_multiplePages_sendsAllAndCompletes() {
+    when(mockServerCallStreamObserver.isReady()).thenReturn(true);
+    when(mockSessionAccessor.getSessionEntityId()).thenReturn(kvSession.getSessionEntityId());
+    List<KeyProto> fullPage =
+        Collections.nCopies(
+            AdministrationService.STREAM_KEYS_PAGE_SIZE, KeyProto.getDefaultInstance());
+    List<KeyProto> lastPage = ImmutableList.of(KeyProto.getDefaultInstance());
+    when(mockKeyOperationsInterface.readKeyPage(
+            kvSession.getSessionEntityId(), 0L, AdministrationService.STREAM_KEYS_PAGE_SIZE))
+        .thenReturn(Tuple.of(fullPage, 64L));
+    when(mockKeyOperationsInterface.readKeyPage(
+            kvSession.getSessionEntityId(), 64L, AdministrationService.STREAM_KEYS_PAGE_SIZE))
+        .thenReturn(Tuple.of(lastPage, 65L));
+
+    administrationService.streamKeys(
+        StreamKeysRequest.getDefaultInstance(), mockServerCallStreamObserver);
+
+    InOrder inOrder = inOrder(mockServerCallStreamObserver);
+    inOrder.verify(mockServerCallStreamObserver).setOnReadyHandler(any());
+    inOrder
+        .verify(mockServerCallStreamObserver)
+        .onNext(StreamKeysResponse.newBuilder().addAllKeys(fullPage).build());
+    inOrder
+        .verify(mockServerCallStreamObserver)
+        .onNext(StreamKeysResponse.newBuilder().addAllKeys(lastPage).build());
+    inOrder.verify(mockServerCallStreamObserver).onCompleted();
+  }
+
+  @Test
+  void streamKeys_notReady_resumesOnReady() {
+    when(mockServerCallStreamObserver.isReady()).thenReturn(false, true);
+    when(mockSessionAccessor.getSessionEntityId()).thenReturn(kvSession.getSessionEntityId());
+    when(mockKeyOperationsInterface.readKeyPage(
+            kvSession.getSessionEntityId(), 0L, AdministrationService.STREAM_KEYS_PAGE_SIZE))
+        .thenReturn(Tuple.of(ImmutableList.<KeyProto>of(), 0L));
+
+    administrationService.streamKeys(
+        StreamKeysRequest.getDefaultInstance(), mockServerCallStreamObserver);
+
+    verify(mockServerCallStreamObserver, never()).onCompleted();
+    ArgumentCaptor<Runnable> onReadyHandler = ArgumentCaptor.forClass(Runnable.class);
+    verify(mockServerCallStreamObserver).setOnReadyHandler(onReadyHandler.capture());
+    onReadyHandler.getValue().run();
+    verify(mockServerCallStreamObserver).onCompleted();
+  }
+
+  @Test
+  void readKeyChanges_changesRetained_repliesWithDelta() {
+    when(mockSessionAccessor.getSessionEntityId()).thenReturn(kvSession.getSessionEntityId());
+    KeyProto keyProto = KeyProto.newBuilder().setUid("upserted").build();
+    UUID deletedUuid = UUID.randomUUID();
+    when(mockKeyOperationsInterface.readKeyChanges(kvSession.getSessionEntityId(), 3L))
+        .thenReturn(
+            Optional.of(Tuple.of(5L, ImmutableList.of(keyProto), ImmutableList.of(deletedUuid))));
+
+    administrationService.readKeyChanges(
+        ReadKeyChangesRequest.newBuilder().setKeysWatermark(3L).build(), mockStreamObserver);
+
+    verify(mockStreamObserver)
+        .onNext(
+            ReadKeyChangesResponse.newBuilder()
+                .addUpsertedKeys(keyProto)
+                .addDeletedKeyUids(String.valueOf(deletedUuid))
+                .setKeysWatermark(5L)
+                .build());
+    verify(mockStreamObserver).onCompleted();
+  }
+
+  @Test
+  void readKeyChanges_changesPruned_requiresFullResync() {
+    when(mockSessionAccessor.getSessionEntityId()).thenReturn(kvSession.getSessionEntityId());
+    when(mockKeyOperationsInterface.readKeyChanges(kvSession.getSessionEntityId(), 3L))
+        .thenReturn(Optional.empty());
+
+    administrationService.readKeyChanges(
+        ReadKeyChangesRequest.newBuilder().setKeysWatermark(3L).build(), mockStreamObserver);
+
+    verify(mockStreamObserver)
+        .onNext(ReadKeyChangesResponse.newBuilder().setIsFullResyncRequired(true).build());
+    verify(mockStreamObserver).onCompleted();
+  }
 }
@@ -12,6 +12,7 @@ import io.paveldubov.turnstile.TurnstileResponse;
 import io.paveldubov.turnstile.TurnstileValidator;
 import io.vavr.Tuple2;
 import io.vavr.control.Either;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
@@ -20,7 +21,6 @@ import keyring.server.main.Cryptography;
 import keyring.server.main.MailValidation;
 import keyring.server.main.aspects.Annotations.WithEntityManager;
 import keyring.server.main.entities.FeaturePrompts;
-import keyring.server.main.entities.Key;
 import keyring.server.main.entities.MailToken;
 import keyring.server.main.entities.OtpToken;
 import keyring.server.main.entities.Session;
@@ -30,12 +30,12 @@ import keyring.server.main.interceptors.AgentAccessor;
 import keyring.server.main.interceptors.VersionAccessor;
 import keyring.server.main.keyvalue.KeyValueClient;
 import keyring.server.main.keyvalue.values.KvAuthn;
-import keyring.server.main.messagebroker.MessageBrokerClient;
 import keyring.server.main.proto.service.AuthenticationGrpc;
 import keyring.server.main.proto.service.FeaturePrompt;
 import keyring.server.main.proto.service.FeatureType;
 import keyring.server.main.proto.service.GetSaltRequest;
 import keyring.server.main.proto.service.GetSaltResponse;
+import keyring.server.main.proto.service.KeyProto;
 import keyring.server.main.proto.service.LogInRequest;
 import keyring.server.main.proto.service.LogInResponse;
 import keyring.server.main.proto.service.MailVerification;
@@ -65,7 +65,6 @@ public class AuthenticationService extends AuthenticationGrpc.AuthenticationImpl
   private KeyOperationsInterface keyOperationsInterface;
   private KeyValueClient keyValueClient;
   private Cryptography cryptography;
-  private MessageBrokerClient messageBrokerClient;
   private AgentAccessor agentAccessor;
   private VersionAccessor versionAccessor;
   private IGoogleAuthenticator googleAuthenticator;
@@ -78,7 +77,6 @@ public class AuthenticationService extends AuthenticationGrpc.AuthenticationImpl
       AccountOperationsInterface accountOperationsInterface,
       KeyOperationsInterface keyOperationsInterface,
       Cryptography cryptography,
-      MessageBrokerClient messageBrokerClient,
       KeyValueClient keyValueClient,
       AgentAccessor agentAccessor,
       VersionAccessor versionAccessor,
@@ -89,7 +87,6 @@ public class AuthenticationService extends AuthenticationGrpc.AuthenticationImpl
     this.accountOperationsInterface = accountOperationsInterface;
     this.keyOperationsInterface = keyOperationsInterface;
     this.cryptography = cryptography;
-    this.messageBrokerClient = messageBrokerClient;
     this.keyValueClient = keyValueClient;
     this.agentAccessor = agentAccessor;
     this.versionAccessor = versionAccessor;
@@ -153,7 +150,6 @@ public class AuthenticationService extends AuthenticationGrpc.AuthenticationImpl
     accountOperationsInterface.activateSession(
         userId, sessionId, keyValueClient.convertSessionTokenToKey(sessionToken));
     keyValueClient.createSession(sessionToken, userId, ipAddress, sessionId);
-    messageBrokerClient.publishMailVc(mail, username, code);
     return Either.right(
         builder
             .setUserUid(String.valueOf(user.getUuid()))
@@ -214,10 +210,9 @@ public class AuthenticationService extends AuthenticationGrpc.AuthenticationImpl
     } else {
       userDataBuilder.setMail(user.getMail());
     }
-    userDataBuilder.addAllUserKeys(
-        keyOperationsInterface.readKeys(sessionEntityId).stream()
-            .map(Key::toKeyProto)
-            .collect(toList()));
+    Tuple2<Long, List<KeyProto>> snapshot = keyOperationsInterface.readKeyProtos(sessionEntityId);
+    userDataBuilder.setKeysWatermark(snapshot._1);
+    userDataBuilder.addAllUserKeys(snapshot._2);
     return userDataBuilder.build();
   }
 
@@ -288,6 +283,7 @@ public class AuthenticationService extends AuthenticationGrpc.AuthenticationImpl
     }
     User user = maybeUser.get();
     Optional<Integer> maybeTotp = cryptography.convertTotp(request.getOtp());
+    Optional<OtpToken> maybeOtpToken = Optional.empty();
     if (maybeTotp.isPresent()) {
       Optional<Integer> attemptsLeft = accountOperationsInterface.acquireOtpSpareAttempt(userId);
       if (!attemptsLeft.isPresent()) {
@@ -301,7 +297,7 @@ public class AuthenticationService extends AuthenticationGrpc.AuthenticationImpl
                 .build());
       }
     } else {
-      Optional<OtpToken> maybeOtpToken =
+      maybeOtpToken =
           accountOperationsInterface.getOtpToken(
               userId, request.getOtp(), /* mustBeInitial= */ false);
       if (!maybeOtpToken.isPresent()) {
@@ -311,21 +307,33 @@ public class AuthenticationService extends AuthenticationGrpc.AuthenticationImpl
                 .setAttemptsLeft(user.getOtpSpareAttempts())
                 .build());
       }
-      accountOperationsInterface.deleteOtpToken(userId, maybeOtpToken.get().getId());
     }
-    keyValueClient.deleteAuthn(authnKey);
+    long sessionEntityId = kvAuthn.getSessionEntityId();
+    String sessionToken = cryptography.generateTts();
+    // Only one of the concurrent requests gets to consume `KvAuthn`, the rest change nothing.
+    if (!keyValueClient
+        .exchangeAuthnForSession(
+            authnKey, sessionToken, userId, agentAccessor.getIpAddress(), sessionEntityId)
+        .isPresent()) {
+      return Either.left(new StatusException(Status.UNAUTHENTICATED));
+    }
+    try {
+      if (maybeOtpToken.isPresent()) {
+        accountOperationsInterface.deleteOtpToken(userId, maybeOtpToken.get().getId());
+      }
+      accountOperationsInterface.activateSession(
+          userId, sessionEntityId, keyValueClient.convertSessionTokenToKey(sessionToken));
+    } catch (RuntimeException exception) {
+      // No client has the token yet, so dropping `KvSession` leaves nothing half-activated.
+      keyValueClient.deleteSession(sessionToken);
+      throw exception;
+    }
     accountOperationsInterface.restoreOtpSpareAttempts(userId);
     if (request.getYieldTrustedToken()) {
       String otpToken = cryptography.generateTts();
       accountOperationsInterface.createTrustedToken(userId, otpToken);
       builder.setTrustedToken(otpToken);
     }
-    long sessionEntityId = kvAuthn.getSessionEntityId();
-    String sessionToken = cryptography.generateTts();
-    accountOperationsInterface.activateSession(
-        userId, sessionEntityId, keyValueClient.convertSessionTokenToKey(sessionToken));
-    keyValueClient.createSession(
-        sessionToken, userId, agentAccessor.getIpAddress(), sessionEntityId);
     return Either.right(
         builder.setUserData(newUserData(sessionEntityId, sessionToken, user)).build());
   }
@@ -1,9 +1,15 @@
 package keyring.server.main.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
 import com.warrenstrange.googleauth.IGoogleAuthenticator;
 import io.grpc.Status;
 import io.grpc.StatusException;
@@ -30,9 +36,9 @@ import keyring.server.main.interceptors.VersionAccessor;
 import keyring.server.main.keyvalue.KeyValueClient;
 import keyring.server.main.keyvalue.values.KvAuthn;
 import keyring.server.main.keyvalue.values.KvSession;
-import keyring.server.main.messagebroker.MessageBrokerClient;
 import keyring.server.main.proto.service.GetSaltRequest;
 import keyring.server.main.proto.service.GetSaltResponse;
+import keyring.server.main.proto.service.KeyProto;
 import keyring.server.main.proto.service.LogInRequest;
 import keyring.server.main.proto.service.LogInResponse;
 import keyring.server.main.proto.service.MailVerification;
@@ -62,7 +68,6 @@ class AuthenticationServiceTest {
   @Mock private AccountOperationsInterface mockAccountOperationsInterface;
   @Mock private KeyOperationsInterface mockKeyOperationsInterface;
   @Mock private Cryptography mockCryptography;
-  @Mock private MessageBrokerClient mockMessageBrokerClient;
   @Mock private KeyValueClient mockKeyValueClient;
   @Mock private AgentAccessor mockAgentAccessor;
   @Mock private VersionAccessor mockVersionAccessor;
@@ -82,7 +87,6 @@ class AuthenticationServiceTest {
             mockAccountOperationsInterface,
             mockKeyOperationsInterface,
             mockCryptography,
-            mockMessageBrokerClient,
             mockKeyValueClient,
             mockAgentAccessor,
             mockVersionAccessor,
@@ -175,7 +179,6 @@ class AuthenticationServiceTest {
     verify(mockAccountOperationsInterface).createSession(1L, 0L, IP_ADDRESS, USER_AGENT, VERSION);
     verify(mockKeyValueClient).createSession(sessionToken, 1L, IP_ADDRESS, 3L);
     verify(mockAccountOperationsInterface).activateSession(1L, 3L, "key");
-    verify(mockMessageBrokerClient).publishMailVc("mail@example.com", "username", "0");
     verify(mockStreamObserver)
         .onNext(
             RegisterResponse.newBuilder()
@@ -305,6 +308,8 @@ class AuthenticationServiceTest {
     when(mockKeyValueClient.createSession(sessionToken, 1L, IP_ADDRESS, 3L))
         .thenReturn(KvSession.getDefaultInstance());
     when(mockAccountOperationsInterface.getFeaturePrompts(1L)).thenReturn(new FeaturePrompts());
+    when(mockKeyOperationsInterface.readKeyProtos(3L))
+        .thenReturn(Tuple.of(0L, ImmutableList.<KeyProto>of()));
     UUID mailTokenUuid = UUID.randomUUID();
     when(mockAccountOperationsInterface.latestMailToken(1L))
         .thenReturn(Optional.of(new MailToken().setUuid(mailTokenUuid)));
@@ -397,9 +402,11 @@ class AuthenticationServiceTest {
     when(mockCryptography.generateTts()).thenReturn("token");
     when(mockAgentAccessor.getIpAddress()).thenReturn(IP_ADDRESS);
     when(mockKeyValueClient.convertSessionTokenToKey("token")).thenReturn("key");
-    when(mockKeyValueClient.createSession("token", 1L, IP_ADDRESS, 3L))
-        .thenReturn(KvSession.getDefaultInstance());
+    when(mockKeyValueClient.exchangeAuthnForSession("authn", "token", 1L, IP_ADDRESS, 3L))
+        .thenReturn(Optional.of(KvSession.getDefaultInstance()));
     when(mockAccountOperationsInterface.getFeaturePrompts(1L)).thenReturn(new FeaturePrompts());
+    when(mockKeyOperationsInterface.readKeyProtos(3L))
+        .thenReturn(Tuple.of(0L, ImmutableList.<KeyProto>of()));
     UUID mailTokenUuid = UUID.randomUUID();
     when(mockAccountOperationsInterface.latestMailToken(1L))
         .thenReturn(Optional.of(new MailToken().setUuid(mailTokenUuid)));
@@ -408,9 +415,8 @@ class AuthenticationServiceTest {
         ProvideOtpRequest.newBuilder().setAuthnKey("authn").setOtp("otp").build(),
         mockStreamObserver);
 
-    verify(mockKeyValueClient).deleteAuthn("authn");
     verify(mockAccountOperationsInterface).restoreOtpSpareAttempts(1L);
-    verify(mockKeyValueClient).createSession("token", 1L, IP_ADDRESS, 3L);
+    verify(mockKeyValueClient).exchangeAuthnForSession("authn", "token", 1L, IP_ADDRESS, 3L);
     verify(mockAccountOperationsInterface).activateSession(1L, 3L, "key");
     verify(mockAccountOperationsInterface).getFeaturePrompts(1L);
     verify(mockStreamObserver)
@@ -428,6 +434,59 @@ class AuthenticationServiceTest {
     verify(mockStreamObserver).onCompleted();
   }
 
+  @Test
+  void provideOtp_authnConsumedConcurrently_repliesWithUnauthenticated() {
+    when(mockKeyValueClient.getKvAuthn("authn", IP_ADDRESS))
+        .thenReturn(Optional.of(KvAuthn.newBuilder().setUserId(1L).setSessionEntityId(3L).build()));
+    when(mockAccountOperationsInterface.getUserById(1L))
+        .thenReturn(Optional.of(new User().setIdentifier(1L)));
+    when(mockCryptography.convertTotp("otp")).thenReturn(Optional.empty());
+    when(mockAccountOperationsInterface.getOtpToken(1L, "otp", false))
+        .thenReturn(Optional.of(new OtpToken().setId(42L)));
+    when(mockCryptography.generateTts()).thenReturn("token");
+    when(mockAgentAccessor.getIpAddress()).thenReturn(IP_ADDRESS);
+    when(mockKeyValueClient.exchangeAuthnForSession("authn", "token", 1L, IP_ADDRESS, 3L))
+        .thenReturn(Optional.empty());
+
+    authenticationService.provideOtp(
+        ProvideOtpRequest.newBuilder().setAuthnKey("authn").setOtp("otp").build(),
+        mockStreamObserver);
+
+    verify(mockAccountOperationsInterface, never()).deleteOtpToken(1L, 42L);
+    verify(mockAccountOperationsInterface, never()).activateSession(anyLong(), anyLong(), any());
+    verify(mockAccountOperationsInterface, never()).restoreOtpSpareAttempts(1L);
+    verifyOnError(Status.UNAUTHENTICATED);
+  }
+
+  @Test
+  void provideOtp_activationFails_deletesKvSession() {
+    when(mockKeyValueClient.getKvAuthn("authn", IP_ADDRESS))
+        .thenReturn(Optional.of(KvAuthn.newBuilder().setUserId(1L).setSessionEntityId(3L).build()));
+    when(mockAccountOperationsInterface.getUserById(1L))
+        .thenReturn(Optional.of(new User().setIdentifier(1L)));
+    when(mockCryptography.convertTotp("otp")).thenReturn(Optional.empty());
+    when(mockAccountOperationsInterface.getOtpToken(1L, "otp", false))
+        .thenReturn(Optional.of(new OtpToken().setId(42L)));
+    when(mockCryptography.generateTts()).thenReturn("token");
+    when(mockAgentAccessor.getIpAddress()).thenReturn(IP_ADDRESS);
+    when(mockKeyValueClient.convertSessionTokenToKey("token")).thenReturn("key");
+    when(mockKeyValueClient.exchangeAuthnForSession("authn", "token", 1L, IP_ADDRESS, 3L))
+        .thenReturn(Optional.of(KvSession.getDefaultInstance()));
+    doThrow(new IllegalArgumentException())
+        .when(mockAccountOperationsInterface)
+        .activateSession(1L, 3L, "key");
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            authenticationService.provideOtp(
+                ProvideOtpRequest.newBuilder().setAuthnKey("authn").setOtp("otp").build(),
+                mockStreamObserver));
+
+    verify(mockKeyValueClient).deleteSession("token");
+    verify(mockAccountOperationsInterface, never()).restoreOtpSpareAttempts(1L);
+  }
+
   @Test
   void provideOtp_tokenAbsent_repliesWithError() {
     when(mockKeyValueClient.getKvAuthn("authn", IP_ADDRESS))
@@ -463,9 +522,11 @@ class AuthenticationServiceTest {
     when(mockCryptography.generateTts()).thenReturn("token");
     when(mockAgentAccessor.getIpAddress()).thenReturn(IP_ADDRESS);
     when(mockKeyValueClient.convertSessionTokenToKey("token")).thenReturn("key");
-    when(mockKeyValueClient.createSession("token", 1L, IP_ADDRESS, 3L))
-        .thenReturn(KvSession.getDefaultInstance());
+    when(mockKeyValueClient.exchangeAuthnForSession("authn", "token", 1L, IP_ADDRESS, 3L))
+        .thenReturn(Optional.of(KvSession.getDefaultInstance()));
     when(mockAccountOperationsInterface.getFeaturePrompts(1L)).thenReturn(new FeaturePrompts());
+    when(mockKeyOperationsInterface.readKeyProtos(3L))
+        .thenReturn(Tuple.of(0L, ImmutableList.<KeyProto>of()));
     UUID mailTokenUuid = UUID.randomUUID();
     when(mockAccountOperationsInterface.latestMailToken(1L))
         .thenReturn(Optional.of(new MailToken().setUuid(mailTokenUuid)));
@@ -475,9 +536,8 @@ class AuthenticationServiceTest {
         mockStreamObserver);
 
     verify(mockAccountOperationsInterface).deleteOtpToken(1L, 42L);
-    verify(mockKeyValueClient).deleteAuthn("authn");
     verify(mockAccountOperationsInterface).restoreOtpSpareAttempts(1L);
-    verify(mockKeyValueClient).createSession("token", 1L, IP_ADDRESS, 3L);
+    verify(mockKeyValueClient).exchangeAuthnForSession("authn", "token", 1L, IP_ADDRESS, 3L);
     verify(mockAccountOperationsInterface).activateSession(1L, 3L, "key");
     verify(mockAccountOperationsInterface).getFeaturePrompts(1L);
     verify(mockStreamObserver)
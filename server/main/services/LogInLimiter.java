@@ -1,31 +1,22 @@
 package keyring.server.main.services;
 
-import io.github.bucket4j.Bandwidth;
-import io.github.bucket4j.BucketConfiguration;
-import io.github.bucket4j.distributed.proxy.ProxyManager;
-import io.github.bucket4j.distributed.serialization.Mapper;
-import io.github.bucket4j.redis.jedis.cas.JedisBasedProxyManager;
 import java.time.Duration;
 import javax.inject.Inject;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.util.Pool;
+import keyring.server.main.keyvalue.KeyValueClient;
 
 public class LogInLimiter {
-  private static final BucketConfiguration CONFIGURATION =
-      BucketConfiguration.builder().addLimit(Bandwidth.simple(8, Duration.ofMinutes(10))).build();
+  private static final long CAPACITY = 8;
+  private static final Duration PERIOD = Duration.ofMinutes(10);
 
-  private final ProxyManager<String> proxyManager;
+  private final KeyValueClient keyValueClient;
 
   @Inject
-  LogInLimiter(Pool<Jedis> jedisPool) {
-    this.proxyManager =
-        JedisBasedProxyManager.builderFor(jedisPool).withKeyMapper(Mapper.STRING).build();
+  LogInLimiter(KeyValueClient keyValueClient) {
+    this.keyValueClient = keyValueClient;
   }
 
   public boolean acquireAttempt(String username, String ipAddress) {
-    return proxyManager
-        .builder()
-        .build(String.format("bucket4j:log-in:%s@%s", username, ipAddress), () -> CONFIGURATION)
-        .tryConsume(1);
+    return keyValueClient.acquireToken(
+        String.format("log-in-bucket:%s@%s", username, ipAddress), CAPACITY, PERIOD);
   }
 }
@@ -16,19 +16,18 @@ import java.util.UUID;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import javax.persistence.EntityManager;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
 import keyring.server.main.Chronometry;
 import keyring.server.main.Cryptography;
 import keyring.server.main.aspects.Annotations.ContextualEntityManager;
 import keyring.server.main.aspects.Annotations.LockEntity;
+import keyring.server.main.aspects.Annotations.ReadOnly;
 import keyring.server.main.aspects.Annotations.WithEntityTransaction;
 import keyring.server.main.entities.FeaturePrompts;
 import keyring.server.main.entities.Key;
 import keyring.server.main.entities.Key_;
 import keyring.server.main.entities.MailToken;
 import keyring.server.main.entities.MailToken_;
+import keyring.server.main.entities.MailerOutboxEntry;
 import keyring.server.main.entities.OtpParams;
 import keyring.server.main.entities.OtpParams_;
 import keyring.server.main.entities.OtpToken;
@@ -36,10 +35,10 @@ import keyring.server.main.entities.OtpToken_;
 import keyring.server.main.entities.Session;
 import keyring.server.main.entities.Session_;
 import keyring.server.main.entities.User;
-import keyring.server.main.entities.User_;
 import keyring.server.main.entities.columns.MailTokenState;
 import keyring.server.main.entities.columns.SessionStage;
 import keyring.server.main.entities.columns.UserState;
+import keyring.server.main.messagebroker.MessageBrokerClient;
 import keyring.server.main.proto.service.FeatureType;
 import keyring.server.main.proto.service.KeyPatch;
 import keyring.server.main.proto.service.Password;
@@ -50,7 +49,7 @@ public class AccountOperationsClient implements AccountOperationsInterface {
 
   private Cryptography cryptography;
   private Chronometry chronometry;
-  private Limiters limiters;
+  private LimitersInterface limiters;
   private final int initialSpareAttempts;
 
   @ContextualEntityManager private EntityManager entityManager;
@@ -58,7 +57,7 @@ public class AccountOperationsClient implements AccountOperationsInterface {
   AccountOperationsClient(
       Cryptography cryptography,
       Chronometry chronometry,
-      Limiters limiters,
+      LimitersInterface limiters,
       int initialSpareAttempts) {
     this.cryptography = cryptography;
     this.chronometry = chronometry;
@@ -66,6 +65,14 @@ public class AccountOperationsClient implements AccountOperationsInterface {
     this.initialSpareAttempts = initialSpareAttempts;
   }
 
+  /** Commits the mail with the token, see `MailerOutboxRelay`. */
+  private void enqueueMailVc(String mail, String username, String code) {
+    entityManager.persist(
+        new MailerOutboxEntry()
+            .setRequest(MessageBrokerClient.createMailVc(mail, username, code).toByteArray())
+            .setUrgent(true));
+  }
+
   @Override
   @WithEntityTransaction
   public Tuple2<User, MailToken> createUser(
@@ -87,6 +94,7 @@ public class AccountOperationsClient implements AccountOperationsInterface {
     entityManager.persist(user);
     entityManager.persist(featurePrompts);
     entityManager.persist(mailToken);
+    enqueueMailVc(mail, username, code);
     return Tuple.of(user, mailToken);
   }
 
@@ -95,13 +103,15 @@ public class AccountOperationsClient implements AccountOperationsInterface {
   public MailToken createMailToken(long userId, String ipAddress, String mail, String code) {
     limiters.checkMailTokensPerIpAddress(entityManager, ipAddress, /* toAdd */ 1);
     limiters.checkMailTokensPerUser(entityManager, userId, /* toAdd */ 1);
+    User user = entityManager.getReference(User.class, userId);
     MailToken mailToken =
         new MailToken()
-            .setUser(entityManager.getReference(User.class, userId))
+            .setUser(user)
             .setMail(mail)
             .setCode(code)
             .setState(MailTokenState.MAIL_TOKEN_PENDING);
     entityManager.persist(mailToken);
+    enqueueMailVc(mail, user.getUsername(), code);
     return mailToken;
   }
 
@@ -115,7 +125,7 @@ public class AccountOperationsClient implements AccountOperationsInterface {
   }
 
   @Override
-  @WithEntityTransaction
+  @ReadOnly
   public Optional<MailToken> latestMailToken(long userIdentifier) {
     return Queries.findManyToOne(entityManager, MailToken.class, MailToken_.user, userIdentifier)
         .stream()
@@ -172,11 +182,12 @@ public class AccountOperationsClient implements AccountOperationsInterface {
   @Override
   @WithEntityTransaction
   public Optional<User> getUserByName(String username) {
-    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-    CriteriaQuery<User> criteriaQuery = criteriaBuilder.createQuery(User.class);
-    Root<User> root = criteriaQuery.from(User.class);
-    criteriaQuery.select(root).where(criteriaBuilder.equal(root.get(User_.username), username));
-    return entityManager.createQuery(criteriaQuery).getResultList().stream().findFirst();
+    return entityManager
+        .createQuery(Queries.FIND_USER_BY_USERNAME, User.class)
+        .setParameter("value", username)
+        .getResultList()
+        .stream()
+        .findFirst();
   }
 
   @WithEntityTransaction
@@ -204,6 +215,7 @@ public class AccountOperationsClient implements AccountOperationsInterface {
     entityManager.persist(user);
     // Concurrent `Key` creation is blocked by `Session` invalidation above.
     List<Key> keys = Queries.findManyToOne(entityManager, Key.class, Key_.user, userId);
+    long changeSequence = Queries.incrementKeysSequence(entityManager, userId);
     Map<UUID, Password> keyUuidToPatch =
         patches.stream()
             .collect(toMap(patch -> UUID.fromString(patch.getUid()), KeyPatch::getPassword));
@@ -215,6 +227,7 @@ public class AccountOperationsClient implements AccountOperationsInterface {
       }
       Password patch = maybePatch.get();
       key.mergeFromPassword(patch);
+      key.setChangeSequence(changeSequence);
       entityManager.persist(key);
     }
     return sessions;
@@ -556,7 +569,7 @@ public class AccountOperationsClient implements AccountOperationsInterface {
   }
 
   @Override
-  @WithEntityTransaction
+  @ReadOnly
   public FeaturePrompts getFeaturePrompts(long userId) {
     Optional<FeaturePrompts> maybeFeaturePrompts =
         Optional.ofNullable(entityManager.find(FeaturePrompts.class, userId));
@@ -2,6 +2,7 @@ package keyring.server.main.storage;
 
 import static java.util.stream.Collectors.toList;
 import static keyring.server.main.storage.AccountOperationsInterface.MtNudgeStatus;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -19,20 +20,24 @@ import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Supplier;
+import javax.persistence.EntityManager;
 import javax.persistence.Persistence;
 import keyring.server.main.Arithmetic;
 import keyring.server.main.Chronometry;
 import keyring.server.main.Cryptography;
+import keyring.server.main.aspects.Annotations.ContextualEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityManager;
 import keyring.server.main.aspects.StorageManagerAspect;
 import keyring.server.main.entities.Key;
 import keyring.server.main.entities.MailToken;
+import keyring.server.main.entities.MailerOutboxEntry;
 import keyring.server.main.entities.OtpParams;
 import keyring.server.main.entities.Session;
 import keyring.server.main.entities.User;
 import keyring.server.main.entities.columns.MailTokenState;
 import keyring.server.main.entities.columns.SessionStage;
 import keyring.server.main.entities.columns.UserState;
+import keyring.server.main.messagebroker.MessageBrokerClient;
 import keyring.server.main.proto.constants.Argon2Config;
 import keyring.server.main.proto.service.KeyAttrs;
 import keyring.server.main.proto.service.KeyPatch;
@@ -48,6 +53,7 @@ import org.mockito.Mock;
 class AccountOperationsClientTest {
   private static final String IP_ADDRESS = "127.0.0.1";
 
+  @ContextualEntityManager private EntityManager entityManager;
   @Mock private SecureRandom mockSecureRandom;
 
   private Supplier<Instant> nowSupplier = Instant::now;
@@ -97,6 +103,12 @@ class AccountOperationsClientTest {
     assertEquals("salt", user.getSalt());
     assertEquals("hash", user.getHash());
     assertNull(user.getMail());
+    List<MailerOutboxEntry> outbox = getMailerOutbox();
+    assertEquals(1, outbox.size());
+    assertArrayEquals(
+        MessageBrokerClient.createMailVc("mail@example.com", "username", "0").toByteArray(),
+        outbox.get(0).getRequest());
+    assertTrue(outbox.get(0).getUrgent());
   }
 
   @Test
@@ -344,6 +356,10 @@ class AccountOperationsClientTest {
     assertEquals(MailTokenState.MAIL_TOKEN_PENDING, mailToken.getState());
     assertEquals("user@mail.com", mailToken.getMail());
     assertEquals("0", mailToken.getCode());
+    List<MailerOutboxEntry> outbox = getMailerOutbox();
+    assertArrayEquals(
+        MessageBrokerClient.createMailVc("user@mail.com", "username", "0").toByteArray(),
+        outbox.get(outbox.size() - 1).getRequest());
   }
 
   @Test
@@ -532,6 +548,13 @@ class AccountOperationsClientTest {
     return Tuple.of(userId, user._1.getVersion());
   }
 
+  private List<MailerOutboxEntry> getMailerOutbox() {
+    return entityManager
+        .createQuery(
+            "SELECT e FROM MailerOutboxEntry e ORDER BY e.identifier", MailerOutboxEntry.class)
+        .getResultList();
+  }
+
   private String newRandomUuid() {
     return UUID.randomUUID().toString();
   }
@@ -1,34 +1,49 @@
 package keyring.server.main.storage;
 
+import static java.util.stream.Collectors.toList;
+
 import com.google.common.collect.ImmutableList;
 import io.vavr.Tuple;
 import io.vavr.Tuple2;
+import io.vavr.Tuple3;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import keyring.server.main.aspects.Annotations.ActivatedSession;
 import keyring.server.main.aspects.Annotations.ContextualEntityManager;
 import keyring.server.main.aspects.Annotations.LockEntity;
+import keyring.server.main.aspects.Annotations.ReadOnly;
 import keyring.server.main.aspects.Annotations.WithEntityTransaction;
 import keyring.server.main.entities.Key;
+import keyring.server.main.entities.KeyTombstone;
+import keyring.server.main.entities.KeyTombstone_;
 import keyring.server.main.entities.Key_;
 import keyring.server.main.entities.Session;
 import keyring.server.main.entities.User;
 import keyring.server.main.proto.service.KeyAttrs;
 import keyring.server.main.proto.service.KeyPatch;
+import keyring.server.main.proto.service.KeyProto;
 import keyring.server.main.proto.service.Password;
 
 public class KeyOperationsClient implements KeyOperationsInterface {
-  private final Limiters limiters;
+  private final LimitersInterface limiters;
 
   @ContextualEntityManager private EntityManager entityManager;
 
-  KeyOperationsClient(Limiters limiters) {
+  KeyOperationsClient(LimitersInterface limiters) {
     this.limiters = limiters;
   }
 
@@ -42,25 +57,41 @@ public class KeyOperationsClient implements KeyOperationsInterface {
   }
 
   private Key mustGetKey(UUID keyUuid) {
-    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-    CriteriaQuery<Key> criteriaQuery = criteriaBuilder.createQuery(Key.class);
-    Root<Key> root = criteriaQuery.from(Key.class);
-    criteriaQuery.select(root).where(criteriaBuilder.equal(root.get(Key_.uuid), keyUuid));
     Optional<Key> maybeKey =
-        entityManager.createQuery(criteriaQuery).getResultList().stream().findFirst();
+        entityManager
+            .createQuery(Queries.FIND_KEY_BY_UUID, Key.class)
+            .setParameter("value", keyUuid)
+            .getResultList()
+            .stream()
+            .findFirst();
     if (!maybeKey.isPresent()) {
       throw new IllegalArgumentException(String.format("`Key` %s does not exist", keyUuid));
     }
     return maybeKey.get();
   }
 
+  private long nextChangeSequence(Session session) {
+    return Queries.incrementKeysSequence(entityManager, session.getUser().getIdentifier());
+  }
+
+  private void removeKey(Key key, long changeSequence) {
+    entityManager.persist(
+        new KeyTombstone()
+            .setUser(key.getUser())
+            .setKeyUuid(key.getUuid())
+            .setChangeSequence(changeSequence));
+    entityManager.remove(key);
+  }
+
   @LockEntity(name = "session")
   @ActivatedSession(name = "session")
   private List<Key> _importKeys(Session session, List<Password> passwords) {
     User user = session.getUser();
+    long changeSequence = nextChangeSequence(session);
     ImmutableList.Builder<Key> keys = ImmutableList.builder();
     for (Password password : passwords) {
-      Key newKey = new Key().mergeFromPassword(password).setUser(user);
+      Key newKey =
+          new Key().mergeFromPassword(password).setUser(user).setChangeSequence(changeSequence);
       entityManager.persist(newKey);
       keys.add(newKey);
     }
@@ -97,6 +128,7 @@ public class KeyOperationsClient implements KeyOperationsInterface {
       }
       newKey.setParent(parent);
     }
+    newKey.setChangeSequence(nextChangeSequence(session));
     entityManager.persist(newKey);
     return newKey;
   }
@@ -125,10 +157,140 @@ public class KeyOperationsClient implements KeyOperationsInterface {
     return _readKeys(mustGetSession(sessionId));
   }
 
+  /** Returns `(identifier, KeyProto)` pairs in the order of identifiers. */
+  private List<Tuple2<Long, KeyProto>> projectKeys(
+      long userId,
+      Optional<Long> afterIdentifier,
+      Optional<Long> afterChangeSequence,
+      Optional<Integer> maxResults) {
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<javax.persistence.Tuple> criteriaQuery = criteriaBuilder.createTupleQuery();
+    Root<Key> root = criteriaQuery.from(Key.class);
+    Join<Key, Key> parent = root.join(Key_.parent, JoinType.LEFT);
+    Path<Long> identifier = root.get(Key_.identifier);
+    Path<UUID> uuid = root.get(Key_.uuid);
+    Path<Timestamp> creationTimestamp = root.get(Key_.creationTimestamp);
+    Path<String> value = root.get(Key_.value);
+    Path<String[]> labels = root.get(Key_.labels);
+    Path<Boolean> isShadow = root.get(Key_.isShadow);
+    Path<UUID> parentUuid = parent.get(Key_.uuid);
+    Path<Boolean> isPinned = root.get(Key_.isPinned);
+    List<Predicate> predicates = new ArrayList<>();
+    predicates.add(criteriaBuilder.equal(root.get(Key_.user), userId));
+    afterIdentifier.ifPresent(
+        (after) -> predicates.add(criteriaBuilder.greaterThan(identifier, after)));
+    Path<Long> changeSequence = root.get(Key_.changeSequence);
+    afterChangeSequence.ifPresent(
+        (after) -> predicates.add(criteriaBuilder.greaterThan(changeSequence, after)));
+    criteriaQuery
+        .multiselect(
+            identifier, uuid, creationTimestamp, value, labels, isShadow, parentUuid, isPinned)
+        .where(predicates.toArray(new Predicate[0]))
+        .orderBy(criteriaBuilder.asc(identifier));
+    TypedQuery<javax.persistence.Tuple> query = entityManager.createQuery(criteriaQuery);
+    maxResults.ifPresent(query::setMaxResults);
+    return query.getResultList().stream()
+        .map(
+            tuple ->
+                Tuple.of(
+                    tuple.get(identifier),
+                    Key.toKeyProto(
+                        tuple.get(uuid),
+                        Optional.ofNullable(tuple.get(creationTimestamp)),
+                        Password.newBuilder()
+                            .setValue(tuple.get(value))
+                            .addAllTags(
+                                Optional.ofNullable(tuple.get(labels))
+                                    .map(Arrays::asList)
+                                    .orElseGet(ImmutableList::of))
+                            .build(),
+                        Boolean.TRUE.equals(tuple.get(isShadow)),
+                        Optional.ofNullable(tuple.get(parentUuid)),
+                        Boolean.TRUE.equals(tuple.get(isPinned)))))
+        .collect(toList());
+  }
+
+  @ActivatedSession(name = "session")
+  private Tuple2<Long, List<KeyProto>> _readKeyProtos(Session session) {
+    long userId = session.getUser().getIdentifier();
+    // Read in the same transaction and before the keys, so that later changes are never skipped.
+    long keysSequence = Queries.readKeysSequence(entityManager, userId);
+    return Tuple.of(
+        keysSequence,
+        projectKeys(userId, Optional.empty(), Optional.empty(), Optional.empty())
+            .stream()
+            .map(pair -> pair._2)
+            .collect(toList()));
+  }
+
+  /** Skips entity hydration and reads the parent UUID through a single join. */
+  @Override
+  @ReadOnly
+  public Tuple2<Long, List<KeyProto>> readKeyProtos(long sessionId) {
+    return _readKeyProtos(mustGetSession(sessionId));
+  }
+
+  @ActivatedSession(name = "session")
+  private Tuple2<List<KeyProto>, Long> _readKeyPage(
+      Session session, long afterIdentifier, int pageSize) {
+    List<Tuple2<Long, KeyProto>> pairs =
+        projectKeys(
+            session.getUser().getIdentifier(),
+            Optional.of(afterIdentifier),
+            Optional.empty(),
+            Optional.of(pageSize));
+    return Tuple.of(
+        pairs.stream().map(pair -> pair._2).collect(toList()),
+        pairs.isEmpty() ? afterIdentifier : pairs.get(pairs.size() - 1)._1);
+  }
+
+  @Override
+  @ReadOnly
+  public Tuple2<List<KeyProto>, Long> readKeyPage(
+      long sessionId, long afterIdentifier, int pageSize) {
+    return _readKeyPage(mustGetSession(sessionId), afterIdentifier, pageSize);
+  }
+
+  @ActivatedSession(name = "session")
+  private Optional<Tuple3<Long, List<KeyProto>, List<UUID>>> _readKeyChanges(
+      Session session, long watermark) {
+    User user = session.getUser();
+    // Native increments bypass the persistence context.
+    entityManager.refresh(user);
+    // Read before the changes: anything committed in between is sent again on the next call.
+    long keysSequence = user.getKeysSequence();
+    if (watermark < user.getKeysPrunedSequence() || watermark > keysSequence) {
+      return Optional.empty();
+    }
+    long userId = user.getIdentifier();
+    List<KeyProto> upsertedKeys =
+        projectKeys(userId, Optional.empty(), Optional.of(watermark), Optional.empty()).stream()
+            .map(pair -> pair._2)
+            .collect(toList());
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<UUID> criteriaQuery = criteriaBuilder.createQuery(UUID.class);
+    Root<KeyTombstone> root = criteriaQuery.from(KeyTombstone.class);
+    criteriaQuery
+        .select(root.get(KeyTombstone_.keyUuid))
+        .where(
+            criteriaBuilder.equal(root.get(KeyTombstone_.user), userId),
+            criteriaBuilder.greaterThan(root.get(KeyTombstone_.changeSequence), watermark));
+    List<UUID> deletedKeyUuids = entityManager.createQuery(criteriaQuery).getResultList();
+    return Optional.of(Tuple.of(keysSequence, upsertedKeys, deletedKeyUuids));
+  }
+
+  @Override
+  @ReadOnly
+  public Optional<Tuple3<Long, List<KeyProto>, List<UUID>>> readKeyChanges(
+      long sessionId, long watermark) {
+    return _readKeyChanges(mustGetSession(sessionId), watermark);
+  }
+
   @LockEntity(name = "session")
   @ActivatedSession(name = "session")
   private void _updateKey(Session session, Key key, KeyPatch patch) {
     key.mergeFromPassword(patch.getPassword());
+    key.setChangeSequence(nextChangeSequence(session));
     entityManager.persist(key);
   }
 
@@ -148,7 +310,11 @@ public class KeyOperationsClient implements KeyOperationsInterface {
   @LockEntity(name = "session")
   @ActivatedSession(name = "session")
   private void _deleteKey(Session session, Key key) {
-    entityManager.remove(key);
+    long changeSequence = nextChangeSequence(session);
+    // Explicitly, rather than by `ON DELETE CASCADE`, to leave tombstones.
+    Queries.findManyToOne(entityManager, Key.class, Key_.parent, key.getIdentifier())
+        .forEach((shadow) -> removeKey(shadow, changeSequence));
+    removeKey(key, changeSequence);
   }
 
   @Override
@@ -164,11 +330,11 @@ public class KeyOperationsClient implements KeyOperationsInterface {
     _deleteKey(session, key);
   }
 
-  private List<Key> _deleteShadows(Key parent) {
+  private List<Key> _deleteShadows(Key parent, long changeSequence) {
     // Currently late `createKey` may spawn a redundant shadow.
     List<Key> shadows =
         Queries.findManyToOne(entityManager, Key.class, Key_.parent, parent.getIdentifier());
-    shadows.forEach((item) -> entityManager.remove(item));
+    shadows.forEach((item) -> removeKey(item, changeSequence));
     return shadows;
   }
 
@@ -176,19 +342,21 @@ public class KeyOperationsClient implements KeyOperationsInterface {
   @ActivatedSession(name = "session")
   private Tuple2<Key, List<Key>> _electShadow(Session session, Key target) {
     if (!target.getIsShadow()) {
-      return Tuple.of(target, _deleteShadows(target));
+      return Tuple.of(target, _deleteShadows(target, nextChangeSequence(session)));
     }
     Optional<Key> maybeParent = Optional.ofNullable(target.getParent());
     Password password = target.toPassword();
     if (!maybeParent.isPresent()) {
       Key newParent = createKey(session.getIdentifier(), password, KeyAttrs.getDefaultInstance());
-      entityManager.remove(target);
+      removeKey(target, nextChangeSequence(session));
       return Tuple.of(newParent, ImmutableList.of(target));
     }
+    long changeSequence = nextChangeSequence(session);
     Key parent = maybeParent.get();
     parent.mergeFromPassword(password);
+    parent.setChangeSequence(changeSequence);
     entityManager.persist(parent);
-    return Tuple.of(parent, _deleteShadows(parent));
+    return Tuple.of(parent, _deleteShadows(parent, changeSequence));
   }
 
   @Override
@@ -209,6 +377,7 @@ public class KeyOperationsClient implements KeyOperationsInterface {
   @ActivatedSession(name = "session")
   private void _togglePin(Session session, Key key, boolean isPinned) {
     key.setIsPinned(isPinned);
+    key.setChangeSequence(nextChangeSequence(session));
     entityManager.persist(key);
   }
 
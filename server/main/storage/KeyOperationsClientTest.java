@@ -7,17 +7,23 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import io.vavr.Tuple2;
+import io.vavr.Tuple3;
 import java.security.SecureRandom;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 import keyring.server.main.Arithmetic;
 import keyring.server.main.Chronometry;
 import keyring.server.main.Cryptography;
+import keyring.server.main.aspects.Annotations.ContextualEntityManager;
 import keyring.server.main.aspects.Annotations.WithEntityManager;
 import keyring.server.main.aspects.StorageManagerAspect;
 import keyring.server.main.entities.Key;
@@ -25,9 +31,12 @@ import keyring.server.main.entities.User;
 import keyring.server.main.proto.constants.Argon2Config;
 import keyring.server.main.proto.service.KeyAttrs;
 import keyring.server.main.proto.service.KeyPatch;
+import keyring.server.main.proto.service.KeyProto;
 import keyring.server.main.proto.service.Password;
 import name.falgout.jeffrey.testing.junit5.MockitoExtension;
 import org.aspectj.lang.Aspects;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -37,14 +46,16 @@ import org.mockito.Mock;
 class KeyOperationsClientTest {
   @Mock private SecureRandom mockSecureRandom;
 
+  @ContextualEntityManager private EntityManager entityManager;
+  private EntityManagerFactory entityManagerFactory;
   private AccountOperationsClient accountOperationsClient;
   private KeyOperationsClient keyOperationsClient;
   private Instant now = Instant.EPOCH;
 
   @BeforeEach
   void beforeEach() {
-    Aspects.aspectOf(StorageManagerAspect.class)
-        .initialize(Persistence.createEntityManagerFactory("testing"));
+    entityManagerFactory = Persistence.createEntityManagerFactory("testing");
+    Aspects.aspectOf(StorageManagerAspect.class).initialize(entityManagerFactory);
     Limiters limiters =
         new Limiters(
             /* approxMaxKeysPerUser */ 8,
@@ -370,6 +381,164 @@ class KeyOperationsClientTest {
     assertTrue(maybeKey.get().getIsPinned());
   }
 
+  @Test
+  @WithEntityManager
+  void readKeyProtos_matchesReadKeys() {
+    long sessionId = createActiveSession(createUniqueUser());
+    Key parent =
+        keyOperationsClient.createKey(
+            sessionId,
+            Password.newBuilder().setValue("value").addAllTags(ImmutableList.of("tag")).build(),
+            KeyAttrs.getDefaultInstance());
+    keyOperationsClient.togglePin(sessionId, parent.getUuid(), /* isPinned */ true);
+    keyOperationsClient.createKey(
+        sessionId,
+        Password.newBuilder().setValue("shadow").build(),
+        KeyAttrs.newBuilder()
+            .setIsShadow(true)
+            .setParentUid(String.valueOf(parent.getUuid()))
+            .build());
+    entityManager.clear();
+
+    List<KeyProto> expected =
+        keyOperationsClient.readKeys(sessionId).stream().map(Key::toKeyProto).collect(toList());
+
+    assertEquals(
+        ImmutableSet.copyOf(expected),
+        ImmutableSet.copyOf(keyOperationsClient.readKeyProtos(sessionId)._2));
+  }
+
+  @Test
+  @WithEntityManager
+  void readKeyProtos_returnsWatermarkOfSnapshot() {
+    long sessionId = createActiveSession(createUniqueUser());
+    keyOperationsClient.createKey(
+        sessionId, Password.getDefaultInstance(), KeyAttrs.getDefaultInstance());
+
+    Tuple2<Long, List<KeyProto>> snapshot = keyOperationsClient.readKeyProtos(sessionId);
+
+    assertEquals(1, snapshot._2.size());
+    Tuple3<Long, List<KeyProto>, List<UUID>> changes =
+        keyOperationsClient.readKeyChanges(sessionId, snapshot._1).get();
+    assertTrue(changes._2.isEmpty());
+    assertTrue(changes._3.isEmpty());
+  }
+
+  @Test
+  @WithEntityManager
+  void readKeyProtos_manyShadows_issuesConstantStatements() {
+    int parentCount = 256;
+    KeyOperationsClient unlimitedClient =
+        new KeyOperationsClient(
+            new Limiters(
+                /* approxMaxKeysPerUser */ Key.APPROX_MAX_KEYS_PER_USER,
+                /* approxMaxMailTokensPerUser */ 4,
+                /* approxMaxMailTokensPerAddress */ 2,
+                /* approxMaxRecentSessionsPerUser */ 15,
+                /* approxMaxOtpParamsPerUser */ 4));
+    long smallSessionId = createActiveSession(createUniqueUser());
+    unlimitedClient.importKeys(smallSessionId, ImmutableList.of(Password.getDefaultInstance()));
+    long largeSessionId = createActiveSession(createUniqueUser());
+    List<Key> parents =
+        unlimitedClient.importKeys(
+            largeSessionId, Collections.nCopies(parentCount, Password.getDefaultInstance()));
+    for (Key parent : parents) {
+      unlimitedClient.createKey(
+          largeSessionId,
+          Password.getDefaultInstance(),
+          KeyAttrs.newBuilder()
+              .setIsShadow(true)
+              .setParentUid(String.valueOf(parent.getUuid()))
+              .build());
+    }
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.setStatisticsEnabled(true);
+
+    entityManager.clear();
+    statistics.clear();
+    assertEquals(1, unlimitedClient.readKeyProtos(smallSessionId)._2.size());
+    long smallStatementCount = statistics.getPrepareStatementCount();
+    entityManager.clear();
+    statistics.clear();
+    assertEquals(2 * parentCount, unlimitedClient.readKeyProtos(largeSessionId)._2.size());
+    long largeStatementCount = statistics.getPrepareStatementCount();
+
+    assertEquals(smallStatementCount, largeStatementCount);
+    // Only `Session` and its `User`, no `Key`s.
+    assertEquals(2, statistics.getEntityLoadCount());
+  }
+
+  @Test
+  @WithEntityManager
+  void readKeyPage_continuesFromIdentifier() {
+    long sessionId = createActiveSession(createUniqueUser());
+    List<Key> keys =
+        keyOperationsClient.importKeys(
+            sessionId,
+            ImmutableList.of(
+                Password.newBuilder().setValue("alpha").build(),
+                Password.newBuilder().setValue("beta").build(),
+                Password.newBuilder().setValue("gamma").build()));
+
+    Tuple2<List<KeyProto>, Long> firstPage = keyOperationsClient.readKeyPage(sessionId, 0L, 2);
+    Tuple2<List<KeyProto>, Long> secondPage =
+        keyOperationsClient.readKeyPage(sessionId, firstPage._2, 2);
+
+    assertEquals(
+        ImmutableList.of("alpha", "beta"),
+        firstPage._1.stream().map(key -> key.getPassword().getValue()).collect(toList()));
+    assertEquals(keys.get(1).getIdentifier(), (long) firstPage._2);
+    assertEquals(
+        ImmutableList.of("gamma"),
+        secondPage._1.stream().map(key -> key.getPassword().getValue()).collect(toList()));
+    assertEquals(keys.get(2).getIdentifier(), (long) secondPage._2);
+  }
+
+  @Test
+  @WithEntityManager
+  void readKeyChanges_returnsChangesAfterWatermark() {
+    long sessionId = createActiveSession(createUniqueUser());
+    List<Key> keys =
+        keyOperationsClient.importKeys(
+            sessionId,
+            ImmutableList.of(
+                Password.newBuilder().setValue("alpha").build(),
+                Password.newBuilder().setValue("beta").build()));
+    Tuple3<Long, List<KeyProto>, List<UUID>> initial =
+        keyOperationsClient.readKeyChanges(sessionId, 0L).get();
+    UUID updatedUuid = keys.get(0).getUuid();
+    UUID deletedUuid = keys.get(1).getUuid();
+
+    keyOperationsClient.updateKey(
+        sessionId,
+        KeyPatch.newBuilder()
+            .setUid(String.valueOf(updatedUuid))
+            .setPassword(Password.newBuilder().setValue("gamma"))
+            .build());
+    keyOperationsClient.deleteKey(sessionId, deletedUuid);
+    Tuple3<Long, List<KeyProto>, List<UUID>> delta =
+        keyOperationsClient.readKeyChanges(sessionId, initial._1).get();
+
+    assertEquals(2, initial._2.size());
+    assertEquals(
+        ImmutableList.of(String.valueOf(updatedUuid)),
+        delta._2.stream().map(KeyProto::getUid).collect(toList()));
+    assertEquals("gamma", delta._2.get(0).getPassword().getValue());
+    assertEquals(ImmutableList.of(deletedUuid), delta._3);
+    assertTrue(delta._1 > initial._1);
+    assertTrue(keyOperationsClient.readKeyChanges(sessionId, delta._1).get()._2.isEmpty());
+  }
+
+  @Test
+  @WithEntityManager
+  void readKeyChanges_watermarkAhead_requiresResync() {
+    long sessionId = createActiveSession(createUniqueUser());
+    keyOperationsClient.createKey(
+        sessionId, Password.getDefaultInstance(), KeyAttrs.getDefaultInstance());
+
+    assertFalse(keyOperationsClient.readKeyChanges(sessionId, 1024L).isPresent());
+  }
+
   private Optional<Key> getKeyFromList(List<Key> allKeys, UUID keyUuid) {
     return allKeys.stream().filter(key -> Objects.equals(key.getUuid(), keyUuid)).findAny();
   }
@@ -1,11 +1,14 @@
 package keyring.server.main.storage;
 
 import io.vavr.Tuple2;
+import io.vavr.Tuple3;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 import keyring.server.main.entities.Key;
 import keyring.server.main.proto.service.KeyAttrs;
 import keyring.server.main.proto.service.KeyPatch;
+import keyring.server.main.proto.service.KeyProto;
 import keyring.server.main.proto.service.Password;
 
 public interface KeyOperationsInterface {
@@ -15,6 +18,22 @@ public interface KeyOperationsInterface {
 
   List<Key> readKeys(long sessionId);
 
+  /** Reads all keys along with the watermark to continue from through `readKeyChanges`. */
+  Tuple2<Long, List<KeyProto>> readKeyProtos(long sessionId);
+
+  /**
+   * Reads up to `pageSize` keys with identifiers greater than `afterIdentifier`, and the identifier
+   * to continue from.
+   */
+  Tuple2<List<KeyProto>, Long> readKeyPage(long sessionId, long afterIdentifier, int pageSize);
+
+  /**
+   * Reads keys upserted and UUIDs of keys deleted after `watermark`, along with the watermark to
+   * continue from. Empty if the changes are no longer retained and a full read is required.
+   */
+  Optional<Tuple3<Long, List<KeyProto>, List<UUID>>> readKeyChanges(
+      long sessionId, long watermark);
+
   void updateKey(long sessionId, KeyPatch proto);
 
   void deleteKey(long sessionId, UUID keyUid);
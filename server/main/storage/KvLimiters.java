@@ -0,0 +1,105 @@
+package keyring.server.main.storage;
+
+import java.time.Duration;
+import javax.persistence.EntityManager;
+import keyring.server.main.Chronometry;
+import keyring.server.main.keyvalue.KeyValueClient;
+
+/**
+ * Counts insertions in Redis sliding windows matching the janitor eviction periods instead of
+ * counting rows, so that checks cost the same regardless of history.
+ *
+ * <p>Counters are not rolled back with the transaction, which only makes quotas stricter. `Key`s
+ * are never evicted, hence `checkKeysPerUser` is delegated; its `COUNT` is bounded by the quota.
+ */
+class KvLimiters implements LimitersInterface {
+  private final KeyValueClient keyValueClient;
+  private final LimitersInterface keysLimiters;
+  private final long approxMaxMailTokensPerUser;
+  private final Duration mailTokensWindow;
+  private final long approxMaxMailTokensPerIpAddress;
+  private final long approxMaxLastHourSessionsPerUser;
+  private final long approxMaxOtpParamsPerUser;
+  private final Duration otpParamsWindow;
+
+  KvLimiters(
+      KeyValueClient keyValueClient,
+      LimitersInterface keysLimiters,
+      long approxMaxMailTokensPerUser,
+      long approxMaxMailTokensPerIpAddress,
+      Duration mailTokensWindow,
+      long approxMaxLastHourSessionsPerUser,
+      long approxMaxOtpParamsPerUser,
+      Duration otpParamsWindow) {
+    this.keyValueClient = keyValueClient;
+    this.keysLimiters = keysLimiters;
+    this.approxMaxMailTokensPerUser = approxMaxMailTokensPerUser;
+    this.approxMaxMailTokensPerIpAddress = approxMaxMailTokensPerIpAddress;
+    this.mailTokensWindow = mailTokensWindow;
+    this.approxMaxLastHourSessionsPerUser = approxMaxLastHourSessionsPerUser;
+    this.approxMaxOtpParamsPerUser = approxMaxOtpParamsPerUser;
+    this.otpParamsWindow = otpParamsWindow;
+  }
+
+  @Override
+  public void checkKeysPerUser(EntityManager entityManager, long userId, int toAdd) {
+    keysLimiters.checkKeysPerUser(entityManager, userId, toAdd);
+  }
+
+  @Override
+  public void checkMailTokensPerUser(EntityManager entityManager, long userId, int toAdd) {
+    if (!keyValueClient.addToSlidingWindow(
+        String.format("limiter:mail-tokens-per-user:%d", userId),
+        mailTokensWindow,
+        approxMaxMailTokensPerUser,
+        toAdd)) {
+      throw new IllegalStateException(
+          String.format(
+              "User %d is over the limit (%d) of `MailToken`s",
+              userId, approxMaxMailTokensPerUser));
+    }
+  }
+
+  @Override
+  public void checkMailTokensPerIpAddress(
+      EntityManager entityManager, String ipAddress, int toAdd) {
+    if (!keyValueClient.addToSlidingWindow(
+        String.format("limiter:mail-tokens-per-ip-address:%s", ipAddress),
+        mailTokensWindow,
+        approxMaxMailTokensPerIpAddress,
+        toAdd)) {
+      throw new IllegalStateException(
+          String.format(
+              "IP address %s is over the limit (%d) of `MailToken`s",
+              ipAddress, approxMaxMailTokensPerIpAddress));
+    }
+  }
+
+  @Override
+  public void checkRecentSessionsPerUser(
+      Chronometry chronometry, EntityManager entityManager, long userId, int toAdd) {
+    if (!keyValueClient.addToSlidingWindow(
+        String.format("limiter:sessions-per-user:%d", userId),
+        Duration.ofHours(1),
+        approxMaxLastHourSessionsPerUser,
+        toAdd)) {
+      throw new IllegalStateException(
+          String.format(
+              "User %d is over the limit (%d) of `Session`s in the last hour",
+              userId, approxMaxLastHourSessionsPerUser));
+    }
+  }
+
+  @Override
+  public void checkOtpParamsPerUser(EntityManager entityManager, long userId, int toAdd) {
+    if (!keyValueClient.addToSlidingWindow(
+        String.format("limiter:otp-params-per-user:%d", userId),
+        otpParamsWindow,
+        approxMaxOtpParamsPerUser,
+        toAdd)) {
+      throw new IllegalStateException(
+          String.format(
+              "User %d is over the limit (%d) of `OtpParams`", userId, approxMaxOtpParamsPerUser));
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package keyring.server.main.storage;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import javax.persistence.EntityManager;
+import keyring.server.main.keyvalue.KeyValueClient;
+import name.falgout.jeffrey.testing.junit5.MockitoExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+
+@ExtendWith(MockitoExtension.class)
+class KvLimitersTest {
+  @Mock private KeyValueClient mockKeyValueClient;
+  @Mock private LimitersInterface mockKeysLimiters;
+  @Mock private EntityManager mockEntityManager;
+
+  private KvLimiters kvLimiters;
+
+  @BeforeEach
+  void beforeEach() {
+    kvLimiters =
+        new KvLimiters(
+            mockKeyValueClient,
+            mockKeysLimiters,
+            4,
+            8,
+            Duration.ofHours(1),
+            16,
+            2,
+            Duration.ofMinutes(10));
+  }
+
+  @Test
+  void checkKeysPerUser_delegates() {
+    kvLimiters.checkKeysPerUser(mockEntityManager, 1L, 3);
+
+    verify(mockKeysLimiters).checkKeysPerUser(mockEntityManager, 1L, 3);
+  }
+
+  @Test
+  void checkOtpParamsPerUser_withinLimit_countsInWindow() {
+    when(mockKeyValueClient.addToSlidingWindow(anyString(), any(), anyLong(), anyInt()))
+        .thenReturn(true);
+
+    kvLimiters.checkOtpParamsPerUser(mockEntityManager, 1L, 1);
+
+    verify(mockKeyValueClient)
+        .addToSlidingWindow("limiter:otp-params-per-user:1", Duration.ofMinutes(10), 2, 1);
+  }
+
+  @Test
+  void checkMailTokensPerIpAddress_overLimit_throws() {
+    when(mockKeyValueClient.addToSlidingWindow(anyString(), any(), anyLong(), anyInt()))
+        .thenReturn(false);
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> kvLimiters.checkMailTokensPerIpAddress(mockEntityManager, "127.0.0.1", 1));
+  }
+}
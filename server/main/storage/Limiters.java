@@ -1,7 +1,6 @@
 package keyring.server.main.storage;
 
 import java.time.temporal.ChronoUnit;
-import java.util.List;
 import javax.persistence.EntityManager;
 import keyring.server.main.Chronometry;
 import keyring.server.main.entities.Key;
@@ -10,10 +9,8 @@ import keyring.server.main.entities.MailToken;
 import keyring.server.main.entities.MailToken_;
 import keyring.server.main.entities.OtpParams;
 import keyring.server.main.entities.OtpParams_;
-import keyring.server.main.entities.Session;
-import keyring.server.main.entities.Session_;
 
-class Limiters {
+class Limiters implements LimitersInterface {
   private final long approxMaxKeysPerUser;
   private final long approxMaxMailTokensPerUser;
   private final long approxMaxMailTokensPerIpAddress;
@@ -33,7 +30,8 @@ class Limiters {
     this.approxMaxOtpParamsPerUser = approxMaxOtpParamsPerUser;
   }
 
-  void checkKeysPerUser(EntityManager entityManager, long userId, int toAdd) {
+  @Override
+  public void checkKeysPerUser(EntityManager entityManager, long userId, int toAdd) {
     long keyCount = Queries.countRowsByValue(entityManager, Key.class, Key_.user, userId);
     if (keyCount + toAdd > approxMaxKeysPerUser) {
       throw new IllegalStateException(
@@ -43,7 +41,8 @@ class Limiters {
     }
   }
 
-  void checkMailTokensPerUser(EntityManager entityManager, long userId, int toAdd) {
+  @Override
+  public void checkMailTokensPerUser(EntityManager entityManager, long userId, int toAdd) {
     long mailTokenCount =
         Queries.countRowsByValue(entityManager, MailToken.class, MailToken_.user, userId);
     if (mailTokenCount + toAdd > approxMaxMailTokensPerUser) {
@@ -54,7 +53,9 @@ class Limiters {
     }
   }
 
-  void checkMailTokensPerIpAddress(EntityManager entityManager, String ipAddress, int toAdd) {
+  @Override
+  public void checkMailTokensPerIpAddress(
+      EntityManager entityManager, String ipAddress, int toAdd) {
     long mailTokenCount =
         Queries.countRowsByValue(entityManager, MailToken.class, MailToken_.ipAddress, ipAddress);
     if (mailTokenCount + toAdd > approxMaxMailTokensPerIpAddress) {
@@ -65,16 +66,12 @@ class Limiters {
     }
   }
 
-  void checkRecentSessionsPerUser(
+  @Override
+  public void checkRecentSessionsPerUser(
       Chronometry chronometry, EntityManager entityManager, long userId, int toAdd) {
-    List<Session> allSessions =
-        Queries.findManyToOne(entityManager, Session.class, Session_.user, userId);
-    int recentCount = 0;
-    for (Session session : allSessions) {
-      if (!session.getTimestamp().isBefore(chronometry.currentTime().minus(1, ChronoUnit.HOURS))) {
-        recentCount += 1;
-      }
-    }
+    long recentCount =
+        Queries.countSessionsSince(
+            entityManager, userId, chronometry.currentTime().minus(1, ChronoUnit.HOURS));
     if (recentCount + toAdd > approxMaxLastHourSessionsPerUser) {
       throw new IllegalStateException(
           String.format(
@@ -83,7 +80,8 @@ class Limiters {
     }
   }
 
-  void checkOtpParamsPerUser(EntityManager entityManager, long userId, int toAdd) {
+  @Override
+  public void checkOtpParamsPerUser(EntityManager entityManager, long userId, int toAdd) {
     long otpParamsCount =
         Queries.countRowsByValue(entityManager, OtpParams.class, OtpParams_.user, userId);
     if (otpParamsCount + toAdd > approxMaxOtpParamsPerUser) {
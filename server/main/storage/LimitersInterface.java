@@ -0,0 +1,22 @@
+package keyring.server.main.storage;
+
+import javax.persistence.EntityManager;
+import keyring.server.main.Chronometry;
+
+/**
+ * Approximate quotas checked before a row gets inserted.
+ *
+ * <p>Each check throws `IllegalStateException` if adding `toAdd` items would exceed the quota.
+ */
+interface LimitersInterface {
+  void checkKeysPerUser(EntityManager entityManager, long userId, int toAdd);
+
+  void checkMailTokensPerUser(EntityManager entityManager, long userId, int toAdd);
+
+  void checkMailTokensPerIpAddress(EntityManager entityManager, String ipAddress, int toAdd);
+
+  void checkRecentSessionsPerUser(
+      Chronometry chronometry, EntityManager entityManager, long userId, int toAdd);
+
+  void checkOtpParamsPerUser(EntityManager entityManager, long userId, int toAdd);
+}
@@ -1,31 +1,149 @@
 package keyring.server.main.storage;
 
+import com.google.common.collect.ImmutableList;
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import javax.persistence.EntityManager;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
 import javax.persistence.metamodel.SingularAttribute;
+import keyring.server.main.entities.Key_;
+import keyring.server.main.entities.MailToken_;
+import keyring.server.main.entities.OtpParams_;
+import keyring.server.main.entities.OtpToken_;
+import keyring.server.main.entities.Session_;
+
+/**
+ * JPQL templates for storage access paths.
+ *
+ * <p>Hibernate keys its query plan cache by the query string, so a repeated template is parsed once
+ * per `EntityManagerFactory`, whereas every Criteria query is built and rendered anew.
+ */
+public final class Queries {
+  static final String FIND_KEY_BY_UUID =
+      "SELECT e FROM keyring.server.main.entities.Key e WHERE e.uuid = :value";
+  static final String FIND_USER_BY_USERNAME =
+      "SELECT e FROM keyring.server.main.entities.User e WHERE e.username = :value";
+  // Served by the `(user_identifier, timestamp)` index of `sessions`.
+  static final String COUNT_SESSIONS_SINCE =
+      "SELECT COUNT(e) FROM keyring.server.main.entities.Session e"
+          + " WHERE e.user.identifier = :userId AND e.timestamp >= :since";
+
+  private static final ConcurrentMap<SingularAttribute<?, ?>, String> findByValueTemplates =
+      new ConcurrentHashMap<>();
+  private static final ConcurrentMap<SingularAttribute<?, ?>, String> countByValueTemplates =
+      new ConcurrentHashMap<>();
+
+  private static final Function<SingularAttribute<?, ?>, String> FIND_BY_VALUE_RENDERER =
+      (attribute) -> "SELECT e " + renderPredicate(attribute);
+  private static final Function<SingularAttribute<?, ?>, String> COUNT_BY_VALUE_RENDERER =
+      (attribute) -> "SELECT COUNT(e) " + renderPredicate(attribute);
+
+  private Queries() {}
+
+  private static String renderPredicate(SingularAttribute<?, ?> attribute) {
+    String entityName = attribute.getDeclaringType().getJavaType().getName();
+    // Compares the foreign key column, hence no join.
+    String path =
+        attribute.getPersistentAttributeType() == PersistentAttributeType.MANY_TO_ONE
+            ? String.format("e.%s.identifier", attribute.getName())
+            : String.format("e.%s", attribute.getName());
+    return String.format("FROM %s e WHERE %s = :value", entityName, path);
+  }
+
+  static <T, P> TypedQuery<T> prepareFindManyToOne(
+      EntityManager entityManager,
+      Class<T> typeClass,
+      SingularAttribute<T, P> attribute,
+      long parentId) {
+    return entityManager
+        .createQuery(
+            findByValueTemplates.computeIfAbsent(attribute, FIND_BY_VALUE_RENDERER), typeClass)
+        .setParameter("value", parentId);
+  }
 
-class Queries {
   static <T, P> List<T> findManyToOne(
       EntityManager entityManager,
       Class<T> typeClass,
       SingularAttribute<T, P> attribute,
       long parentId) {
-    CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-    CriteriaQuery<T> cq = cb.createQuery(typeClass);
-    Root<T> root = cq.from(typeClass);
-    cq.select(root).where(cb.equal(root.get(attribute), parentId));
-    return entityManager.createQuery(cq).getResultList();
+    return prepareFindManyToOne(entityManager, typeClass, attribute, parentId).getResultList();
   }
 
   static <T, P, V> long countRowsByValue(
       EntityManager entityManager, Class<T> typeClass, SingularAttribute<T, P> attribute, V value) {
-    CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-    CriteriaQuery<Long> cq = cb.createQuery(Long.class);
-    Root<T> root = cq.from(typeClass);
-    cq.select(cb.count(root)).where(cb.equal(root.get(attribute), value));
-    return (Long) entityManager.createQuery(cq).getSingleResult();
+    return entityManager
+        .createQuery(
+            countByValueTemplates.computeIfAbsent(attribute, COUNT_BY_VALUE_RENDERER), Long.class)
+        .setParameter("value", value)
+        .getSingleResult();
+  }
+
+  static long countSessionsSince(EntityManager entityManager, long userId, Instant since) {
+    return entityManager
+        .createQuery(COUNT_SESSIONS_SINCE, Long.class)
+        .setParameter("userId", userId)
+        .setParameter("since", Timestamp.from(since))
+        .getSingleResult();
+  }
+
+  /** Parses all templates ahead of the first request. */
+  public static void precompile(EntityManagerFactory entityManagerFactory) {
+    List<SingularAttribute<?, ?>> manyToOneAttributes =
+        ImmutableList.of(
+            Key_.user,
+            Key_.parent,
+            MailToken_.user,
+            OtpParams_.user,
+            OtpToken_.user,
+            Session_.user);
+    List<SingularAttribute<?, ?>> countedAttributes =
+        ImmutableList.of(Key_.user, MailToken_.user, MailToken_.ipAddress, OtpParams_.user);
+    EntityManager entityManager = entityManagerFactory.createEntityManager();
+    try {
+      for (SingularAttribute<?, ?> attribute : manyToOneAttributes) {
+        entityManager.createQuery(
+            findByValueTemplates.computeIfAbsent(attribute, FIND_BY_VALUE_RENDERER));
+      }
+      for (SingularAttribute<?, ?> attribute : countedAttributes) {
+        entityManager.createQuery(
+            countByValueTemplates.computeIfAbsent(attribute, COUNT_BY_VALUE_RENDERER));
+      }
+      entityManager.createQuery(FIND_KEY_BY_UUID);
+      entityManager.createQuery(FIND_USER_BY_USERNAME);
+      entityManager.createQuery(COUNT_SESSIONS_SINCE);
+    } finally {
+      entityManager.close();
+    }
+  }
+
+  /**
+   * Returns the next `User.keysSequence`. The row stays locked until the end of the transaction,
+   * so sequences of the same user become visible in order.
+   */
+  static long incrementKeysSequence(EntityManager entityManager, long userId) {
+    Object sequence =
+        entityManager
+            .createNativeQuery(
+                "UPDATE users SET keys_sequence = keys_sequence + 1"
+                    + " WHERE identifier = :userId RETURNING keys_sequence")
+            .setParameter("userId", userId)
+            .getSingleResult();
+    return ((Number) sequence).longValue();
+  }
+
+  /** Reads `User.keysSequence` without loading the entity. */
+  static long readKeysSequence(EntityManager entityManager, long userId) {
+    Object sequence =
+        entityManager
+            .createNativeQuery("SELECT keys_sequence FROM users WHERE identifier = :userId")
+            .setParameter("userId", userId)
+            .getSingleResult();
+    return ((Number) sequence).longValue();
   }
 }
@@ -0,0 +1,142 @@
+package keyring.server.main.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import keyring.server.main.entities.Key;
+import keyring.server.main.entities.Key_;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class QueriesTest {
+  private static final int ITERATIONS = 1024;
+  private static final int HEAVY_USER_SESSIONS = 8192;
+
+  private EntityManagerFactory entityManagerFactory;
+  private EntityManager entityManager;
+
+  @BeforeEach
+  void beforeEach() {
+    entityManagerFactory = Persistence.createEntityManagerFactory("testing");
+    entityManager = entityManagerFactory.createEntityManager();
+  }
+
+  @AfterEach
+  void afterEach() {
+    entityManager.close();
+    entityManagerFactory.close();
+  }
+
+  @Test
+  void precompile_parsesAllTemplates() {
+    Queries.precompile(entityManagerFactory);
+
+    assertTrue(Queries.findManyToOne(entityManager, Key.class, Key_.parent, 0L).isEmpty());
+    assertTrue(Queries.countRowsByValue(entityManager, Key.class, Key_.user, 0L) == 0L);
+  }
+
+  @Test
+  void findManyToOne_template_allocatesLessThanCriteria() {
+    // Warms up both paths, including the query plan cache.
+    long criteriaBytes = measureCriteria();
+    long templateBytes = measureTemplate();
+    criteriaBytes = measureCriteria();
+    templateBytes = measureTemplate();
+
+    assertTrue(
+        templateBytes < criteriaBytes,
+        String.format(
+            "%d bytes per template query, %d bytes per Criteria query",
+            templateBytes / ITERATIONS, criteriaBytes / ITERATIONS));
+  }
+
+  @Test
+  void countSessionsSince_heavyUser_scansRecentRangeOnly() {
+    long lightUserId = insertUser("light");
+    long heavyUserId = insertUser("heavy");
+    entityManager.getTransaction().begin();
+    // One session per minute over the storage eviction period.
+    entityManager
+        .createNativeQuery(
+            "INSERT INTO sessions (user_identifier, version, timestamp)"
+                + " SELECT :userId, 0, NOW() - make_interval(mins => g)"
+                + " FROM generate_series(0, :count - 1) g")
+        .setParameter("userId", heavyUserId)
+        .setParameter("count", HEAVY_USER_SESSIONS)
+        .executeUpdate();
+    entityManager.createNativeQuery("ANALYZE sessions").executeUpdate();
+    entityManager.getTransaction().commit();
+    Instant since = Instant.now().minus(Duration.ofHours(1));
+
+    assertEquals(0, Queries.countSessionsSince(entityManager, lightUserId, since));
+    // The boundary row may fall on either side depending on `NOW()` resolution.
+    long recentCount = Queries.countSessionsSince(entityManager, heavyUserId, since);
+    assertTrue(recentCount >= 60 && recentCount <= 61, String.valueOf(recentCount));
+    @SuppressWarnings("unchecked")
+    List<String> plan =
+        entityManager
+            .createNativeQuery(
+                "EXPLAIN (ANALYZE) SELECT COUNT(*) FROM sessions"
+                    + " WHERE user_identifier = :userId AND timestamp >= :since")
+            .setParameter("userId", heavyUserId)
+            .setParameter("since", Timestamp.from(since))
+            .getResultList();
+    String planText = String.join("\n", plan);
+    assertTrue(planText.contains("sessions_user_identifier_timestamp_index"), planText);
+    assertFalse(planText.contains("Seq Scan"), planText);
+  }
+
+  private long insertUser(String username) {
+    entityManager.getTransaction().begin();
+    Object userId =
+        entityManager
+            .createNativeQuery(
+                "INSERT INTO users (username, version, otp_spare_attempts, keys_sequence,"
+                    + " keys_pruned_sequence) VALUES (:username, 0, 0, 0, 0)"
+                    + " RETURNING identifier")
+            .setParameter("username", username)
+            .getSingleResult();
+    entityManager.getTransaction().commit();
+    return ((Number) userId).longValue();
+  }
+
+  private static long allocatedBytes() {
+    return ((ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // Builds queries without executing them, as the round-trip is the same for both paths.
+  private long measureCriteria() {
+    long start = allocatedBytes();
+    for (int index = 0; index < ITERATIONS; ++index) {
+      CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+      CriteriaQuery<Key> cq = cb.createQuery(Key.class);
+      Root<Key> root = cq.from(Key.class);
+      cq.select(root).where(cb.equal(root.get(Key_.user), (long) index));
+      entityManager.createQuery(cq);
+    }
+    return allocatedBytes() - start;
+  }
+
+  private long measureTemplate() {
+    long start = allocatedBytes();
+    for (int index = 0; index < ITERATIONS; ++index) {
+      Queries.prepareFindManyToOne(entityManager, Key.class, Key_.user, index);
+    }
+    return allocatedBytes() - start;
+  }
+}
@@ -0,0 +1,53 @@
+package keyring.server.main.storage;
+
+import java.time.Duration;
+import java.time.Instant;
+import keyring.server.main.Chronometry;
+import keyring.server.main.aspects.ReadReplicaGuard;
+import keyring.server.main.interceptors.SessionAccessor;
+import keyring.server.main.keyvalue.KeyValueClient;
+import keyring.server.main.keyvalue.values.KvSession;
+
+/**
+ * Keeps reads of a session on the primary for `stalenessWindow` after its latest write.
+ *
+ * <p>Calls outside of a session, e.g. in `Authentication`, are not guarded. A zero window disables
+ * the guard altogether.
+ */
+public class SessionStalenessGuard implements ReadReplicaGuard {
+  private SessionAccessor sessionAccessor;
+  private KeyValueClient keyValueClient;
+  private Chronometry chronometry;
+  private Duration stalenessWindow;
+
+  public SessionStalenessGuard(
+      SessionAccessor sessionAccessor,
+      KeyValueClient keyValueClient,
+      Chronometry chronometry,
+      Duration stalenessWindow) {
+    this.sessionAccessor = sessionAccessor;
+    this.keyValueClient = keyValueClient;
+    this.chronometry = chronometry;
+    this.stalenessWindow = stalenessWindow;
+  }
+
+  @Override
+  public boolean allowsReplica() {
+    KvSession kvSession = sessionAccessor.getKvSession();
+    if (stalenessWindow.isZero() || kvSession == null) {
+      return true;
+    }
+    return chronometry
+        .currentTime()
+        .isAfter(Instant.ofEpochMilli(kvSession.getLastWriteTimeMillis()).plus(stalenessWindow));
+  }
+
+  @Override
+  public void recordWrite() {
+    KvSession kvSession = sessionAccessor.getKvSession();
+    if (stalenessWindow.isZero() || kvSession == null) {
+      return;
+    }
+    keyValueClient.recordKvSessionWrite(sessionAccessor.getSessionToken(), kvSession);
+  }
+}
@@ -0,0 +1,77 @@
+package keyring.server.main.storage;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import keyring.server.main.Chronometry;
+import keyring.server.main.interceptors.SessionAccessor;
+import keyring.server.main.keyvalue.KeyValueClient;
+import keyring.server.main.keyvalue.values.KvSession;
+import name.falgout.jeffrey.testing.junit5.MockitoExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+
+@ExtendWith(MockitoExtension.class)
+class SessionStalenessGuardTest {
+  @Mock private SessionAccessor mockSessionAccessor;
+  @Mock private KeyValueClient mockKeyValueClient;
+  @Mock private Chronometry mockChronometry;
+
+  private KvSession kvSession =
+      KvSession.newBuilder()
+          .setLastWriteTimeMillis(Instant.ofEpochSecond(60).toEpochMilli())
+          .build();
+  private SessionStalenessGuard sessionStalenessGuard;
+
+  @BeforeEach
+  void beforeEach() {
+    sessionStalenessGuard =
+        new SessionStalenessGuard(
+            mockSessionAccessor, mockKeyValueClient, mockChronometry, Duration.ofSeconds(5));
+  }
+
+  @Test
+  void allowsReplica_withinWindow_returnsFalse() {
+    when(mockSessionAccessor.getKvSession()).thenReturn(kvSession);
+    when(mockChronometry.currentTime()).thenReturn(Instant.ofEpochSecond(62));
+
+    assertFalse(sessionStalenessGuard.allowsReplica());
+  }
+
+  @Test
+  void allowsReplica_pastWindow_returnsTrue() {
+    when(mockSessionAccessor.getKvSession()).thenReturn(kvSession);
+    when(mockChronometry.currentTime()).thenReturn(Instant.ofEpochSecond(66));
+
+    assertTrue(sessionStalenessGuard.allowsReplica());
+  }
+
+  @Test
+  void recordWrite_noSession_skipsKeyValue() {
+    when(mockSessionAccessor.getKvSession()).thenReturn(null);
+
+    sessionStalenessGuard.recordWrite();
+
+    assertTrue(sessionStalenessGuard.allowsReplica());
+    verify(mockKeyValueClient, never()).recordKvSessionWrite(anyString(), any());
+  }
+
+  @Test
+  void recordWrite_withSession_stampsKvSession() {
+    when(mockSessionAccessor.getKvSession()).thenReturn(kvSession);
+    when(mockSessionAccessor.getSessionToken()).thenReturn("token");
+
+    sessionStalenessGuard.recordWrite();
+
+    verify(mockKeyValueClient).recordKvSessionWrite("token", kvSession);
+  }
+}
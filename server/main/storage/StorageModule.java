@@ -3,29 +3,48 @@ package keyring.server.main.storage;
 import com.google.common.collect.ImmutableMap;
 import dagger.Module;
 import dagger.Provides;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 import keyring.server.main.Chronometry;
 import keyring.server.main.Cryptography;
 import keyring.server.main.Environment;
+import keyring.server.main.aspects.ReadReplicaGuard;
 import keyring.server.main.entities.Key;
 import keyring.server.main.entities.MailToken;
 import keyring.server.main.entities.OtpParams;
 import keyring.server.main.entities.Session;
+import keyring.server.main.interceptors.SessionAccessor;
+import keyring.server.main.keyvalue.KeyValueClient;
 
 @Module
 public class StorageModule {
+  private static Map<String, String> productionProperties(
+      Environment environment, String jdbcUri) {
+    ImmutableMap.Builder<String, String> properties =
+        ImmutableMap.<String, String>builder()
+            .put("javax.persistence.jdbc.url", jdbcUri)
+            .put("javax.persistence.jdbc.user", environment.getPostgresUsername())
+            .put("javax.persistence.jdbc.password", environment.getPostgresPassword());
+    int handlerThreads = environment.getGrpcHandlerThreads();
+    if (handlerThreads > 0) {
+      // Each handler holds at most one connection per `EntityManagerFactory` at a time, and so
+      // does `MailerOutboxRelay`.
+      properties.put("hibernate.hikari.maximumPoolSize", String.valueOf(handlerThreads + 1));
+    }
+    return properties.build();
+  }
+
   @Provides
   @Singleton
   static EntityManagerFactory provideEntityManagerFactory(Environment environment) {
     if (environment.isProduction()) {
       return Persistence.createEntityManagerFactory(
-          "production",
-          ImmutableMap.of(
-              "javax.persistence.jdbc.url", environment.getPostgresJdbcUri(),
-              "javax.persistence.jdbc.user", environment.getPostgresUsername(),
-              "javax.persistence.jdbc.password", environment.getPostgresPassword()));
+          "production", productionProperties(environment, environment.getPostgresJdbcUri()));
     }
     return Persistence.createEntityManagerFactory(
         "development", ImmutableMap.of("hibernate.hbm2ddl.auto", "create"));
@@ -33,24 +52,67 @@ public class StorageModule {
 
   @Provides
   @Singleton
-  static Limiters provideLimiters() {
-    return new Limiters(
-        Key.APPROX_MAX_KEYS_PER_USER,
+  @Named("replica")
+  static Optional<EntityManagerFactory> provideReplicaEntityManagerFactory(
+      Environment environment) {
+    Optional<String> replicaJdbcUri =
+        Optional.ofNullable(environment.getPostgresReplicaJdbcUri()).filter(uri -> !uri.isEmpty());
+    if (!environment.isProduction() || !replicaJdbcUri.isPresent()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        Persistence.createEntityManagerFactory(
+            "production", productionProperties(environment, replicaJdbcUri.get())));
+  }
+
+  @Provides
+  @Singleton
+  static ReadReplicaGuard provideReadReplicaGuard(
+      Environment environment,
+      SessionAccessor sessionAccessor,
+      KeyValueClient keyValueClient,
+      Chronometry chronometry) {
+    return new SessionStalenessGuard(
+        sessionAccessor,
+        keyValueClient,
+        chronometry,
+        Duration.ofSeconds(environment.getReplicaStalenessWindowS()));
+  }
+
+  @Provides
+  @Singleton
+  static LimitersInterface provideLimiters(
+      Environment environment, KeyValueClient keyValueClient) {
+    Limiters limiters =
+        new Limiters(
+            Key.APPROX_MAX_KEYS_PER_USER,
+            MailToken.APPROX_MAX_MAIL_TOKENS_PER_USER,
+            MailToken.APPROX_MAX_MAIL_TOKENS_PER_IP_ADDRESS,
+            Session.APPROX_MAX_LAST_HOUR_SESSIONS_PER_USER,
+            OtpParams.APPROX_MAX_OTP_PARAMS_PER_USER);
+    if (!environment.areKvLimitersEnabled()) {
+      return limiters;
+    }
+    return new KvLimiters(
+        keyValueClient,
+        limiters,
         MailToken.APPROX_MAX_MAIL_TOKENS_PER_USER,
         MailToken.APPROX_MAX_MAIL_TOKENS_PER_IP_ADDRESS,
+        Duration.ofHours(MailToken.MAIL_TOKEN_STORAGE_EVICTION_H),
         Session.APPROX_MAX_LAST_HOUR_SESSIONS_PER_USER,
-        OtpParams.APPROX_MAX_OTP_PARAMS_PER_USER);
+        OtpParams.APPROX_MAX_OTP_PARAMS_PER_USER,
+        Duration.ofMinutes(OtpParams.OTP_PARAMS_STORAGE_EVICTION_M));
   }
 
   @Provides
   static AccountOperationsInterface provideAccountOperationsInterface(
-      Cryptography cryptography, Chronometry chronometry, Limiters limiters) {
+      Cryptography cryptography, Chronometry chronometry, LimitersInterface limiters) {
     return new AccountOperationsClient(
         cryptography, chronometry, limiters, /* initialSpareAttempts */ 5);
   }
 
   @Provides
-  static KeyOperationsInterface provideKeyOperationsInterface(Limiters limiters) {
+  static KeyOperationsInterface provideKeyOperationsInterface(LimitersInterface limiters) {
     return new KeyOperationsClient(limiters);
   }
 }